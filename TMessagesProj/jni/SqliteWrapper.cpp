@@ -56,6 +56,15 @@ JNIEXPORT void Java_org_telegram_SQLite_SQLitePreparedStatement_reset(JNIEnv *en
     }
 }
 
+JNIEXPORT void Java_org_telegram_SQLite_SQLitePreparedStatement_clearBindings(JNIEnv *env, jobject object, jlong statementHandle) {
+    sqlite3_stmt *handle = (sqlite3_stmt *) (intptr_t) statementHandle;
+
+    int errcode = sqlite3_clear_bindings(handle);
+    if (SQLITE_OK != errcode) {
+        throw_sqlite3_exception(env, sqlite3_db_handle(handle), errcode);
+    }
+}
+
 JNIEXPORT void Java_org_telegram_SQLite_SQLitePreparedStatement_finalize(JNIEnv *env, jobject object, jlong statementHandle) {
     sqlite3_finalize((sqlite3_stmt *) (intptr_t) statementHandle);
 }
@@ -39,6 +39,8 @@ data class AngConfig(
                     path == other.path)
         }
 
+        fun withoutRemarks() = copy(remarks = "")
+
         override fun toString(): String {
 
             if (configType == V2RayConfig.EConfigType.Vmess) {
@@ -12,13 +12,35 @@ import org.telegram.messenger.BuildVars;
 import org.telegram.messenger.FileLog;
 import org.telegram.messenger.ApplicationLoader;
 
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 public class SQLiteDatabase {
 
+	private static final int STATEMENT_CACHE_SIZE = 96;
+	private static final int MAX_CACHED_SQL_LENGTH = 1024;
+
 	private final long sqliteHandle;
 
 	private boolean isOpen;
     private boolean inTransaction;
 
+	private final LinkedHashMap<String, SQLitePreparedStatement> statementCache = new LinkedHashMap<String, SQLitePreparedStatement>(STATEMENT_CACHE_SIZE, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, SQLitePreparedStatement> eldest) {
+			if (size() > STATEMENT_CACHE_SIZE) {
+				eldest.getValue().finalizeHandle();
+				statementCacheEvictions++;
+				return true;
+			}
+			return false;
+		}
+	};
+	private long statementCacheHits;
+	private long statementCacheMisses;
+	private long statementCacheEvictions;
+
 	public long getSQLiteHandle() {
 		return sqliteHandle;
 	}
@@ -35,7 +57,67 @@ public class SQLiteDatabase {
 	}
 
     public SQLitePreparedStatement executeFast(String sql) throws SQLiteException {
-        return new SQLitePreparedStatement(this, sql);
+        return obtainStatement(sql);
+    }
+
+    private SQLitePreparedStatement obtainStatement(String sql) throws SQLiteException {
+        if (sql.length() > MAX_CACHED_SQL_LENGTH) {
+            return new SQLitePreparedStatement(this, sql);
+        }
+        SQLitePreparedStatement cached;
+        synchronized (statementCache) {
+            cached = statementCache.remove(sql);
+            if (cached != null) {
+                statementCacheHits++;
+            } else {
+                statementCacheMisses++;
+            }
+        }
+        SQLitePreparedStatement statement = new SQLitePreparedStatement(this, sql, cached != null ? cached.getStatementHandle() : 0);
+        statement.setCacheOwner(this, sql);
+        return statement;
+    }
+
+    boolean recycleStatement(String sql, SQLitePreparedStatement statement) {
+        if (!isOpen || !statement.resetForReuse()) {
+            return false;
+        }
+        synchronized (statementCache) {
+            if (statementCache.containsKey(sql)) {
+                return false;
+            }
+            statementCache.put(sql, statement);
+        }
+        return true;
+    }
+
+    private void clearStatementCache() {
+        synchronized (statementCache) {
+            Iterator<SQLitePreparedStatement> iterator = statementCache.values().iterator();
+            while (iterator.hasNext()) {
+                iterator.next().finalizeHandle();
+                iterator.remove();
+            }
+        }
+    }
+
+    public long getStatementCacheHits() {
+        return statementCacheHits;
+    }
+
+    public long getStatementCacheMisses() {
+        return statementCacheMisses;
+    }
+
+    public long getStatementCacheEvictions() {
+        return statementCacheEvictions;
+    }
+
+    public String getStatementCacheStats() {
+        synchronized (statementCache) {
+            long total = statementCacheHits + statementCacheMisses;
+            return "statement cache: size = " + statementCache.size() + ", hits = " + statementCacheHits + ", misses = " + statementCacheMisses + ", evictions = " + statementCacheEvictions + ", hit rate = " + (total == 0 ? 0 : statementCacheHits * 100 / total) + "%";
+        }
     }
 
 	public Integer executeInt(String sql, Object... args) throws SQLiteException {
@@ -67,13 +149,17 @@ public class SQLiteDatabase {
 
 	public SQLiteCursor queryFinalized(String sql, Object... args) throws SQLiteException {
 		checkOpened();
-		return new SQLitePreparedStatement(this, sql).query(args);
+		return obtainStatement(sql).query(args);
 	}
 
 	public void close() {
 		if (isOpen) {
 			try {
                 commitTransaction();
+				if (BuildVars.LOGS_ENABLED) {
+					FileLog.d(getStatementCacheStats());
+				}
+				clearStatementCache();
 				closedb(sqliteHandle);
 			} catch (SQLiteException e) {
 				if (BuildVars.LOGS_ENABLED) {
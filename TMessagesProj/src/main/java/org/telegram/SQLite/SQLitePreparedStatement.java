@@ -23,6 +23,9 @@ public class SQLitePreparedStatement {
 
     private long startTime;
     private String query;
+
+    private SQLiteDatabase cacheOwner;
+    private String cacheKey;
     //private static HashMap<SQLitePreparedStatement, String> hashMap;
 
     public long getStatementHandle() {
@@ -30,7 +33,11 @@ public class SQLitePreparedStatement {
     }
 
     public SQLitePreparedStatement(SQLiteDatabase db, String sql) throws SQLiteException {
-        sqliteStatementHandle = prepare(db.getSQLiteHandle(), sql);
+        this(db, sql, 0);
+    }
+
+    SQLitePreparedStatement(SQLiteDatabase db, String sql, long cachedHandle) throws SQLiteException {
+        sqliteStatementHandle = cachedHandle != 0 ? cachedHandle : prepare(db.getSQLiteHandle(), sql);
         if (BuildVars.LOGS_ENABLED) {
             query = sql;
             startTime = SystemClock.elapsedRealtime();
@@ -89,26 +96,67 @@ public class SQLitePreparedStatement {
         reset(sqliteStatementHandle);
     }
 
+    void setCacheOwner(SQLiteDatabase db, String sql) {
+        cacheOwner = db;
+        cacheKey = sql;
+    }
+
     public void dispose() {
+        if (cacheOwner != null && !isFinalized) {
+            logQueryTime();
+            isFinalized = true;
+            if (cacheOwner.recycleStatement(cacheKey, this)) {
+                return;
+            }
+            finalizeHandle();
+            return;
+        }
         finalizeQuery();
     }
 
-    void checkFinalized() throws SQLiteException {
-        if (isFinalized) {
-            throw new SQLiteException("Prepared query finalized");
+    boolean resetForReuse() {
+        try {
+            reset(sqliteStatementHandle);
+            clearBindings(sqliteStatementHandle);
+            return true;
+        } catch (SQLiteException e) {
+            if (BuildVars.LOGS_ENABLED) {
+                FileLog.e(e.getMessage(), e);
+            }
+            return false;
         }
     }
 
-    public void finalizeQuery() {
-        if (isFinalized) {
-            return;
+    void finalizeHandle() {
+        try {
+            finalize(sqliteStatementHandle);
+        } catch (SQLiteException e) {
+            if (BuildVars.LOGS_ENABLED) {
+                FileLog.e(e.getMessage(), e);
+            }
         }
+    }
+
+    private void logQueryTime() {
         if (BuildVars.LOGS_ENABLED) {
             long diff = SystemClock.elapsedRealtime() - startTime;
             if (diff > 500) {
                 FileLog.d("sqlite query " + query + " took " + diff + "ms");
             }
         }
+    }
+
+    void checkFinalized() throws SQLiteException {
+        if (isFinalized) {
+            throw new SQLiteException("Prepared query finalized");
+        }
+    }
+
+    public void finalizeQuery() {
+        if (isFinalized) {
+            return;
+        }
+        logQueryTime();
         try {
             /*if (BuildVars.DEBUG_PRIVATE_VERSION) {
                 hashMap.remove(this);
@@ -157,6 +205,7 @@ public class SQLitePreparedStatement {
     native void bindDouble(long statementHandle, int index, double value) throws SQLiteException;
     native void bindNull(long statementHandle, int index) throws SQLiteException;
     native void reset(long statementHandle) throws SQLiteException;
+    native void clearBindings(long statementHandle) throws SQLiteException;
     native long prepare(long sqliteHandle, String sql) throws SQLiteException;
     native void finalize(long statementHandle) throws SQLiteException;
     native int step(long statementHandle) throws SQLiteException;
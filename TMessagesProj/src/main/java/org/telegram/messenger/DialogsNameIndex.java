@@ -0,0 +1,301 @@
+package org.telegram.messenger;
+
+import android.util.SparseArray;
+
+import org.telegram.SQLite.SQLiteCursor;
+import org.telegram.SQLite.SQLiteDatabase;
+import org.telegram.SQLite.SQLitePreparedStatement;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+import cn.hutool.core.util.NumberUtil;
+import cn.hutool.core.util.StrUtil;
+
+/**
+ * Word-prefix index over the search names already persisted in the users/chats tables, stored next to
+ * them as dialogs_name_index (name and its transliteration per dialog key) and dialogs_name_words
+ * (one row per word). It is built once per database from the name columns (no BLOB decoding), kept current
+ * from putUsersInternal/putChatsInternal, and survives restarts, so neither the scan nor the
+ * transliteration of every name is repeated per process. Must only be touched from the storage queue.
+ */
+public class DialogsNameIndex {
+
+    public static final int FOUND_NAME = 1;
+    public static final int FOUND_USERNAME = 2;
+    public static final int FOUND_ID = 3;
+
+    private static final String PREFIX_END = new String(Character.toChars(Character.MAX_CODE_POINT));
+
+    public static class Match {
+        public long key;
+        public int found;
+        public String query;
+    }
+
+    private static class Entry {
+        String name;
+        String translitName;
+        String username;
+    }
+
+    private final MessagesStorage storage;
+    private boolean built;
+
+    public DialogsNameIndex(MessagesStorage storage) {
+        this.storage = storage;
+    }
+
+    public void createTables() {
+        try {
+            SQLiteDatabase database = storage.getDatabase();
+            database.executeFast("CREATE TABLE IF NOT EXISTS dialogs_name_index(key INTEGER PRIMARY KEY, name TEXT, translit TEXT)").stepThis().dispose();
+            database.executeFast("CREATE TABLE IF NOT EXISTS dialogs_name_words(word TEXT, key INTEGER, PRIMARY KEY(word, key))").stepThis().dispose();
+            database.executeFast("CREATE INDEX IF NOT EXISTS key_idx_dialogs_name_words ON dialogs_name_words(key);").stepThis().dispose();
+            database.executeFast("CREATE TABLE IF NOT EXISTS dialogs_name_state(id INTEGER PRIMARY KEY, done INTEGER)").stepThis().dispose();
+            Integer done = database.executeInt("SELECT done FROM dialogs_name_state WHERE id = 1");
+            built = done != null && done == 1;
+        } catch (Exception e) {
+            built = false;
+            FileLog.e(e);
+        }
+    }
+
+    public void clear() {
+        built = false;
+    }
+
+    public void ensureBuilt(SQLiteDatabase database) throws Exception {
+        if (built) {
+            return;
+        }
+        long time = System.currentTimeMillis();
+        database.beginTransaction();
+        try {
+            database.executeFast("DELETE FROM dialogs_name_index").stepThis().dispose();
+            database.executeFast("DELETE FROM dialogs_name_words").stepThis().dispose();
+            SQLiteCursor cursor = database.queryFinalized("SELECT uid, name FROM users");
+            while (cursor.next()) {
+                insert(database, cursor.intValue(0), cursor.stringValue(1));
+            }
+            cursor.dispose();
+            cursor = database.queryFinalized("SELECT uid, name FROM chats");
+            while (cursor.next()) {
+                insert(database, -cursor.intValue(0), cursor.stringValue(1));
+            }
+            cursor.dispose();
+            database.executeFast("REPLACE INTO dialogs_name_state VALUES(1, 1)").stepThis().dispose();
+        } finally {
+            database.commitTransaction();
+        }
+        built = true;
+        if (BuildVars.LOGS_ENABLED) {
+            FileLog.d("dialogs name index built in " + (System.currentTimeMillis() - time) + "ms");
+        }
+    }
+
+    public void putUser(int uid, String name) throws Exception {
+        if (built) {
+            put(uid, name);
+        }
+    }
+
+    public void putChat(int chatId, String name) throws Exception {
+        if (built) {
+            put(-chatId, name);
+        }
+    }
+
+    private void put(long key, String name) throws Exception {
+        if (name == null) {
+            name = "";
+        }
+        SQLiteDatabase database = storage.getDatabase();
+        SQLiteCursor cursor = database.queryFinalized("SELECT name FROM dialogs_name_index WHERE key = ?", key);
+        boolean exists = false;
+        String oldName = null;
+        if (cursor.next()) {
+            exists = true;
+            oldName = cursor.stringValue(0);
+        }
+        cursor.dispose();
+        if (exists) {
+            if (name.equals(oldName)) {
+                return;
+            }
+            database.executeFast("DELETE FROM dialogs_name_words WHERE key = " + key).stepThis().dispose();
+        }
+        insert(database, key, name);
+    }
+
+    private static void insert(SQLiteDatabase database, long key, String name) throws Exception {
+        if (name == null) {
+            name = "";
+        }
+        String translitName = LocaleController.getInstance().getTranslitString(name);
+        if (name.equals(translitName)) {
+            translitName = null;
+        }
+        SQLitePreparedStatement state = database.executeFast("REPLACE INTO dialogs_name_index VALUES(?, ?, ?)");
+        state.bindLong(1, key);
+        state.bindString(2, name);
+        if (translitName != null) {
+            state.bindString(3, translitName);
+        } else {
+            state.bindNull(3);
+        }
+        state.step();
+        state.dispose();
+
+        LinkedHashSet<String> words = new LinkedHashSet<>(splitWords(name));
+        if (translitName != null) {
+            words.addAll(splitWords(translitName));
+        }
+        if (words.isEmpty()) {
+            return;
+        }
+        state = database.executeFast("INSERT OR IGNORE INTO dialogs_name_words VALUES(?, ?)");
+        for (String word : words) {
+            state.requery();
+            state.bindString(1, word);
+            state.bindLong(2, key);
+            state.step();
+        }
+        state.dispose();
+    }
+
+    /**
+     * Encrypted chat ids per user, read from enc_chats so deleted secret chats drop out on their own.
+     */
+    public SparseArray<ArrayList<Integer>> loadEncryptedChats(SQLiteDatabase database) throws Exception {
+        SparseArray<ArrayList<Integer>> result = new SparseArray<>();
+        SQLiteCursor cursor = database.queryFinalized("SELECT uid, user FROM enc_chats");
+        while (cursor.next()) {
+            int userId = cursor.intValue(1);
+            ArrayList<Integer> list = result.get(userId);
+            if (list == null) {
+                list = new ArrayList<>(1);
+                result.put(userId, list);
+            }
+            list.add(cursor.intValue(0));
+        }
+        cursor.dispose();
+        return result;
+    }
+
+    private static ArrayList<String> splitWords(String name) {
+        ArrayList<String> result = new ArrayList<>();
+        int start = 0;
+        int length = name.length();
+        for (int a = 0; a <= length; a++) {
+            boolean end = a == length;
+            boolean separator = !end && (name.charAt(a) == ' ' || name.startsWith(";;;", a));
+            if (end || separator) {
+                if (a > start) {
+                    result.add(name.substring(start, a));
+                }
+                if (separator && name.charAt(a) == ';') {
+                    a += 2;
+                }
+                start = a + 1;
+            }
+        }
+        return result;
+    }
+
+    private static String leadingWord(String query) {
+        for (int a = 0; a < query.length(); a++) {
+            char c = query.charAt(a);
+            if (c == ' ' || c == ';') {
+                return query.substring(0, a);
+            }
+        }
+        return query;
+    }
+
+    /**
+     * Same predicate localSearch used to evaluate against every loaded dialog.
+     */
+    private static int matches(Entry entry, int id, String q, boolean searchUsername) {
+        String name = entry.name;
+        String tName = entry.translitName;
+        if (name.startsWith(q) || name.contains(" " + q) || tName != null && (tName.startsWith(q) || tName.contains(" " + q))) {
+            return FOUND_NAME;
+        } else if (searchUsername && entry.username != null && entry.username.startsWith(q)) {
+            return FOUND_USERNAME;
+        } else if (NumberUtil.isInteger(q) && (NumberUtil.parseInt(q) == id || q.length() > 3 && StrUtil.utf8Str(id).contains(q))) {
+            return FOUND_ID;
+        }
+        return 0;
+    }
+
+    /**
+     * Finds users (positive keys) and chats (negative keys) whose name, transliterated name,
+     * username or id matches one of the queries; the first query that matches wins.
+     */
+    public ArrayList<Match> search(SQLiteDatabase database, String[] queries, boolean includeUsers, boolean includeChats) throws Exception {
+        HashMap<Long, Entry> candidates = new HashMap<>();
+        boolean scanAll = false;
+        for (String q : queries) {
+            String prefix = leadingWord(q);
+            if (prefix.length() == 0 || NumberUtil.isInteger(q)) {
+                scanAll = true;
+                break;
+            }
+        }
+        if (scanAll) {
+            SQLiteCursor cursor = database.queryFinalized("SELECT key, name, translit FROM dialogs_name_index");
+            readEntries(cursor, candidates, includeUsers, includeChats);
+        } else {
+            for (String q : queries) {
+                String prefix = leadingWord(q);
+                SQLiteCursor cursor = database.queryFinalized("SELECT i.key, i.name, i.translit FROM dialogs_name_words w INNER JOIN dialogs_name_index i ON i.key = w.key WHERE w.word >= ? AND w.word <= ?", prefix, prefix + PREFIX_END);
+                readEntries(cursor, candidates, includeUsers, includeChats);
+            }
+        }
+
+        ArrayList<Match> result = new ArrayList<>();
+        for (Map.Entry<Long, Entry> candidate : candidates.entrySet()) {
+            long key = candidate.getKey();
+            boolean isUser = key > 0;
+            int id = (int) (isUser ? key : -key);
+            for (String q : queries) {
+                int found = matches(candidate.getValue(), id, q, isUser);
+                if (found != 0) {
+                    Match match = new Match();
+                    match.key = key;
+                    match.found = found;
+                    match.query = q;
+                    result.add(match);
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    private static void readEntries(SQLiteCursor cursor, HashMap<Long, Entry> candidates, boolean includeUsers, boolean includeChats) throws Exception {
+        while (cursor.next()) {
+            long key = cursor.longValue(0);
+            if ((key > 0 ? !includeUsers : !includeChats) || candidates.containsKey(key)) {
+                continue;
+            }
+            Entry entry = new Entry();
+            entry.name = cursor.stringValue(1);
+            if (entry.name == null) {
+                entry.name = "";
+            }
+            entry.translitName = cursor.isNull(2) ? null : cursor.stringValue(2);
+            if (key > 0) {
+                int usernamePos = entry.name.lastIndexOf(";;;");
+                if (usernamePos != -1) {
+                    entry.username = entry.name.substring(usernamePos + 3);
+                }
+            }
+            candidates.put(key, entry);
+        }
+        cursor.dispose();
+    }
+}
@@ -0,0 +1,165 @@
+package org.telegram.messenger;
+
+import org.telegram.tgnet.TLRPC;
+
+import java.util.ArrayList;
+
+/**
+ * Keeps a dialog list ordered by a precomputed long key (larger keys first).
+ * Keys are computed once per dialog instead of once per comparison, and when only a few dialogs
+ * moved since the last pass (a new message lifting a chat to the top, a pin change) they are
+ * taken out and binary-inserted back, so the common update costs O(n) key reads plus
+ * O(k log n) comparisons instead of a full comparator sort.
+ */
+public class DialogsSortIndex {
+
+    public interface KeyProvider {
+        long getKey(TLRPC.Dialog dialog);
+    }
+
+    private static final int MAX_DISPLACED = 32;
+
+    private long[] keys = new long[0];
+    private long[] tmpKeys = new long[0];
+    private TLRPC.Dialog[] items = new TLRPC.Dialog[0];
+    private TLRPC.Dialog[] tmpItems = new TLRPC.Dialog[0];
+    private final long[] displacedKeys = new long[MAX_DISPLACED];
+    private final TLRPC.Dialog[] displacedItems = new TLRPC.Dialog[MAX_DISPLACED];
+
+    private int incrementalSorts;
+    private int fullSorts;
+
+    private void ensureCapacity(int count) {
+        if (keys.length < count) {
+            int capacity = Math.max(count, keys.length * 2);
+            keys = new long[capacity];
+            tmpKeys = new long[capacity];
+            items = new TLRPC.Dialog[capacity];
+            tmpItems = new TLRPC.Dialog[capacity];
+        }
+    }
+
+    public void sort(ArrayList<TLRPC.Dialog> list, KeyProvider provider) {
+        int count = list.size();
+        if (count < 2) {
+            return;
+        }
+        ensureCapacity(count);
+        for (int a = 0; a < count; a++) {
+            TLRPC.Dialog dialog = list.get(a);
+            items[a] = dialog;
+            keys[a] = provider.getKey(dialog);
+        }
+
+        int kept = 0;
+        int displaced = 0;
+        long last = Long.MAX_VALUE;
+        for (int a = 0; a < count; a++) {
+            long key = keys[a];
+            // a dialog that jumped up is larger than its predecessor, one that dropped is smaller than
+            // a successor which would still fit after the predecessor
+            if (key > last || a + 1 < count && key < keys[a + 1] && keys[a + 1] <= last) {
+                if (displaced == MAX_DISPLACED) {
+                    fullSort(list, provider, count);
+                    return;
+                }
+                displacedKeys[displaced] = key;
+                displacedItems[displaced++] = items[a];
+            } else {
+                keys[kept] = key;
+                items[kept++] = items[a];
+                last = key;
+            }
+        }
+        if (displaced == 0) {
+            clear(count);
+            return;
+        }
+        for (int a = 0; a < displaced; a++) {
+            long key = displacedKeys[a];
+            int low = 0;
+            int high = kept;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (keys[mid] >= key) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            System.arraycopy(keys, low, keys, low + 1, kept - low);
+            System.arraycopy(items, low, items, low + 1, kept - low);
+            keys[low] = key;
+            items[low] = displacedItems[a];
+            displacedItems[a] = null;
+            kept++;
+        }
+        for (int a = 0; a < count; a++) {
+            if (list.get(a) != items[a]) {
+                list.set(a, items[a]);
+            }
+        }
+        clear(count);
+        incrementalSorts++;
+    }
+
+    private void fullSort(ArrayList<TLRPC.Dialog> list, KeyProvider provider, int count) {
+        for (int a = 0; a < MAX_DISPLACED; a++) {
+            displacedItems[a] = null;
+        }
+        for (int a = 0; a < count; a++) {
+            TLRPC.Dialog dialog = list.get(a);
+            items[a] = dialog;
+            keys[a] = provider.getKey(dialog);
+        }
+        mergeSort(0, count);
+        for (int a = 0; a < count; a++) {
+            list.set(a, items[a]);
+        }
+        clear(count);
+        fullSorts++;
+    }
+
+    /**
+     * Stable top-down merge sort of keys/items in [from, to), descending by key.
+     */
+    private void mergeSort(int from, int to) {
+        if (to - from < 2) {
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        mergeSort(from, mid);
+        mergeSort(mid, to);
+        if (keys[mid - 1] >= keys[mid]) {
+            return;
+        }
+        System.arraycopy(keys, from, tmpKeys, from, to - from);
+        System.arraycopy(items, from, tmpItems, from, to - from);
+        int left = from;
+        int right = mid;
+        for (int a = from; a < to; a++) {
+            if (right >= to || left < mid && tmpKeys[left] >= tmpKeys[right]) {
+                keys[a] = tmpKeys[left];
+                items[a] = tmpItems[left++];
+            } else {
+                keys[a] = tmpKeys[right];
+                items[a] = tmpItems[right++];
+            }
+        }
+    }
+
+    private void clear(int count) {
+        for (int a = 0; a < count; a++) {
+            items[a] = null;
+            tmpItems[a] = null;
+        }
+    }
+
+    public int getIncrementalSortsCount() {
+        return incrementalSorts;
+    }
+
+    public int getFullSortsCount() {
+        return fullSorts;
+    }
+}
@@ -1,89 +1,220 @@
 package org.telegram.messenger;
 
-import android.os.SystemClock;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
-import java.util.HashMap;
-import java.util.LinkedList;
+public class DispatchQueuePool {
 
-import androidx.annotation.UiThread;
+    private static final long KEEP_ALIVE_NANOS = TimeUnit.SECONDS.toNanos(30);
 
-public class DispatchQueuePool {
+    private static class Task {
+        final Runnable runnable;
+        final long enqueueTime;
+
+        Task(Runnable runnable) {
+            this.runnable = runnable;
+            enqueueTime = System.nanoTime();
+        }
+    }
+
+    private class Worker extends Thread {
 
-    private LinkedList<DispatchQueue> queues = new LinkedList<>();
-    private HashMap<DispatchQueue, Integer> busyQueuesMap = new HashMap<>();
-    private LinkedList<DispatchQueue> busyQueues = new LinkedList<>();
-    private int maxCount;
-    private int createdCount;
-    private int guid;
-    private int totalTasksCount;
-    private boolean cleanupScheduled;
+        final int index;
+
+        Worker(int index) {
+            this.index = index;
+            setName("DispatchQueuePool" + guid + "_" + index);
+            setPriority(Thread.MAX_PRIORITY);
+        }
+
+        DispatchQueuePool pool() {
+            return DispatchQueuePool.this;
+        }
 
-    private Runnable cleanupRunnable = new Runnable() {
         @Override
         public void run() {
-            if (!queues.isEmpty()) {
-                long currentTime = SystemClock.elapsedRealtime();
-                for (int a = 0, N = queues.size(); a < N; a++) {
-                    DispatchQueue queue = queues.get(a);
-                    if (queue.getLastTaskTime() < currentTime - 30000) {
-                        queue.recycle();
-                        queues.remove(a);
-                        createdCount--;
-                        a--;
-                        N--;
+            while (true) {
+                Task task = takeTask(index);
+                if (task == null) {
+                    idleWorkers.offer(this);
+                    task = takeTask(index);
+                    if (task == null) {
+                        long parkStart = System.nanoTime();
+                        LockSupport.parkNanos(this, KEEP_ALIVE_NANOS);
+                        idleWorkers.remove(this);
+                        if (System.nanoTime() - parkStart >= KEEP_ALIVE_NANOS && !hasQueuedTasks()) {
+                            retireWorker(index);
+                            return;
+                        }
+                        continue;
                     }
+                    idleWorkers.remove(this);
+                }
+                try {
+                    runTask(task);
+                } catch (Throwable e) {
+                    retireWorker(index);
+                    throw e;
                 }
-            }
-            if (!queues.isEmpty() || !busyQueues.isEmpty()) {
-                AndroidUtilities.runOnUIThread(this, 30000);
-                cleanupScheduled = true;
-            } else {
-                cleanupScheduled = false;
             }
         }
-    };
+    }
+
+    private final ConcurrentLinkedQueue<Task>[] queues;
+    private final ConcurrentLinkedQueue<Task> urgentQueue = new ConcurrentLinkedQueue<>();
+    private final Worker[] workers;
+    private final ConcurrentLinkedQueue<Worker> idleWorkers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger aliveCount = new AtomicInteger();
+    private final AtomicInteger nextQueue = new AtomicInteger();
+    private final AtomicInteger queuedCount = new AtomicInteger();
+    private final AtomicInteger runningCount = new AtomicInteger();
+    private final AtomicLong completedCount = new AtomicLong();
+    private final AtomicLong totalLatencyNanos = new AtomicLong();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+    private final int maxCount;
+    private final int guid;
 
+    @SuppressWarnings("unchecked")
     public DispatchQueuePool(int count) {
-        maxCount = count;
+        maxCount = Math.max(1, count);
         guid = Utilities.random.nextInt();
+        queues = new ConcurrentLinkedQueue[maxCount];
+        workers = new Worker[maxCount];
+        for (int a = 0; a < maxCount; a++) {
+            queues[a] = new ConcurrentLinkedQueue<>();
+        }
     }
 
-    @UiThread
+    /**
+     * Can be called from any thread. Tasks posted from a pool worker stay on that worker's
+     * queue, other tasks are spread round-robin; idle workers steal from their neighbours.
+     */
     public void execute(Runnable runnable) {
-        DispatchQueue queue;
-        if (!busyQueues.isEmpty() && (totalTasksCount / 2 <= busyQueues.size() || queues.isEmpty() && createdCount >= maxCount)) {
-            queue = busyQueues.remove(0);
-        } else if (queues.isEmpty()) {
-            queue = new DispatchQueue("DispatchQueuePool" + guid + "_" + Utilities.random.nextInt());
-            queue.setPriority(Thread.MAX_PRIORITY);
-            createdCount++;
+        execute(runnable, false);
+    }
+
+    /**
+     * Urgent tasks go to a shared queue that every worker drains before its own.
+     */
+    public void execute(Runnable runnable, boolean urgent) {
+        queuedCount.incrementAndGet();
+        if (urgent) {
+            urgentQueue.offer(new Task(runnable));
+        } else {
+            Thread current = Thread.currentThread();
+            int index;
+            if (current instanceof Worker && ((Worker) current).pool() == this) {
+                index = ((Worker) current).index;
+            } else {
+                index = (nextQueue.getAndIncrement() & Integer.MAX_VALUE) % maxCount;
+            }
+            queues[index].offer(new Task(runnable));
+        }
+        Worker idle = idleWorkers.poll();
+        if (idle != null) {
+            LockSupport.unpark(idle);
         } else {
-            queue = queues.remove(0);
-        }
-        if (!cleanupScheduled) {
-            AndroidUtilities.runOnUIThread(cleanupRunnable, 30000);
-            cleanupScheduled = true;
-        }
-        totalTasksCount++;
-        busyQueues.add(queue);
-        Integer count = busyQueuesMap.get(queue);
-        if (count == null) {
-            count = 0;
-        }
-        busyQueuesMap.put(queue, count + 1);
-        queue.postRunnable(() -> {
-            runnable.run();
-            AndroidUtilities.runOnUIThread(() -> {
-                totalTasksCount--;
-                int remainingTasksCount = busyQueuesMap.get(queue) - 1;
-                if (remainingTasksCount == 0) {
-                    busyQueuesMap.remove(queue);
-                    busyQueues.remove(queue);
-                    queues.add(queue);
-                } else {
-                    busyQueuesMap.put(queue, remainingTasksCount);
+            ensureWorker();
+        }
+    }
+
+    private void ensureWorker() {
+        while (true) {
+            int alive = aliveCount.get();
+            if (alive >= maxCount) {
+                return;
+            }
+            if (aliveCount.compareAndSet(alive, alive + 1)) {
+                break;
+            }
+        }
+        synchronized (workers) {
+            for (int a = 0; a < maxCount; a++) {
+                if (workers[a] == null) {
+                    Worker worker = new Worker(a);
+                    workers[a] = worker;
+                    worker.start();
+                    return;
+                }
+            }
+        }
+        aliveCount.decrementAndGet();
+    }
+
+    private void retireWorker(int index) {
+        synchronized (workers) {
+            workers[index] = null;
+        }
+        aliveCount.decrementAndGet();
+        if (hasQueuedTasks()) {
+            ensureWorker();
+        }
+    }
+
+    private Task takeTask(int index) {
+        Task task = urgentQueue.poll();
+        if (task == null) {
+            task = queues[index].poll();
+        }
+        if (task == null) {
+            for (int a = 1; a < maxCount; a++) {
+                task = queues[(index + a) % maxCount].poll();
+                if (task != null) {
+                    break;
                 }
-            });
-        });
+            }
+        }
+        if (task != null) {
+            queuedCount.decrementAndGet();
+        }
+        return task;
+    }
+
+    private boolean hasQueuedTasks() {
+        return queuedCount.get() > 0;
+    }
+
+    private void runTask(Task task) {
+        long latency = System.nanoTime() - task.enqueueTime;
+        totalLatencyNanos.addAndGet(latency);
+        long max;
+        while (latency > (max = maxLatencyNanos.get()) && !maxLatencyNanos.compareAndSet(max, latency)) {
+
+        }
+        runningCount.incrementAndGet();
+        try {
+            task.runnable.run();
+        } finally {
+            runningCount.decrementAndGet();
+            completedCount.incrementAndGet();
+        }
+    }
+
+    public int getQueueDepth() {
+        return queuedCount.get();
+    }
+
+    public int getRunningTasksCount() {
+        return runningCount.get();
+    }
+
+    public int getThreadsCount() {
+        return aliveCount.get();
+    }
+
+    public long getCompletedTasksCount() {
+        return completedCount.get();
+    }
+
+    public long getAverageTaskLatency() {
+        long completed = completedCount.get();
+        return completed == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalLatencyNanos.get() / completed);
+    }
+
+    public long getMaxTaskLatency() {
+        return TimeUnit.NANOSECONDS.toMillis(maxLatencyNanos.get());
     }
 }
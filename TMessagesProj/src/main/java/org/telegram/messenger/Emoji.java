@@ -41,6 +41,7 @@ import tw.nekomimi.nekogram.NekoConfig;
 public class Emoji {
 
     private static HashMap<CharSequence, DrawableInfo> rects = new HashMap<>();
+    private static DrawableInfo[][] drawableInfos = new DrawableInfo[EmojiData.data.length][];
     private static int drawImgSize;
     private static int bigImgSize;
     private static boolean inited = false;
@@ -66,9 +67,11 @@ public class Emoji {
         }
 
         for (int j = 0; j < EmojiData.data.length; j++) {
-            int position;
+            drawableInfos[j] = new DrawableInfo[EmojiData.data[j].length];
             for (int i = 0; i < EmojiData.data[j].length; i++) {
-                rects.put(EmojiData.data[j][i], new DrawableInfo((byte) j, (short) i, i));
+                DrawableInfo info = new DrawableInfo((byte) j, (short) i, i);
+                drawableInfos[j][i] = info;
+                rects.put(EmojiData.data[j][i], info);
             }
         }
         placeholderPaint = new Paint();
@@ -368,147 +371,38 @@ public class Emoji {
         } else {
             s = Spannable.Factory.getInstance().newSpannable(cs.toString());
         }
-        long buf = 0;
+        EmojiMatcher matcher = EmojiMatcher.getInstance();
         int emojiCount = 0;
+        int length = cs.length();
         char c;
-        int startIndex = -1;
-        int startLength = 0;
-        int previousGoodIndex = 0;
-        StringBuilder emojiCode = new StringBuilder(16);
-        StringBuilder addionalCode = new StringBuilder(2);
-        boolean nextIsSkinTone;
+        long match;
+        int end;
+        DrawableInfo info;
         EmojiDrawable drawable;
         EmojiSpan span;
-        int length = cs.length();
-        boolean doneEmoji = false;
-        int nextValidLength;
-        boolean nextValid;
-        boolean notOnlyEmoji;
-        //s.setSpansCount(emojiCount);
 
         try {
-            for (int i = 0; i < length; i++) {
+            for (int i = 0; i < length; i = end) {
                 c = cs.charAt(i);
-                notOnlyEmoji = false;
-                if (c >= 0xD83C && c <= 0xD83E || (buf != 0 && (buf & 0xFFFFFFFF00000000L) == 0 && (buf & 0xFFFF) == 0xD83C && (c >= 0xDDE6 && c <= 0xDDFF))) {
-                    if (startIndex == -1) {
-                        startIndex = i;
-                    }
-                    emojiCode.append(c);
-                    startLength++;
-                    buf <<= 16;
-                    buf |= c;
-                } else if (emojiCode.length() > 0 && (c == 0x2640 || c == 0x2642 || c == 0x2695)) {
-                    emojiCode.append(c);
-                    startLength++;
-                    buf = 0;
-                    doneEmoji = true;
-                } else if (buf > 0 && (c & 0xF000) == 0xD000) {
-                    emojiCode.append(c);
-                    startLength++;
-                    buf = 0;
-                    doneEmoji = true;
-                } else if (c == 0x20E3) {
-                    if (i > 0) {
-                        char c2 = cs.charAt(previousGoodIndex);
-                        if ((c2 >= '0' && c2 <= '9') || c2 == '#' || c2 == '*') {
-                            startIndex = previousGoodIndex;
-                            startLength = i - previousGoodIndex + 1;
-                            emojiCode.append(c2);
-                            emojiCode.append(c);
-                            doneEmoji = true;
-                        }
-                    }
-                } else if ((c == 0x00A9 || c == 0x00AE || c >= 0x203C && c <= 0x3299) && EmojiData.dataCharsMap.containsKey(c)) {
-                    if (startIndex == -1) {
-                        startIndex = i;
+                match = matcher.match(cs, i, length);
+                if (match == EmojiMatcher.NO_MATCH) {
+                    end = i + 1;
+                    if (emojiOnly != null && c != 0xfe0f) {
+                        emojiOnly[0] = 0;
+                        emojiOnly = null;
                     }
-                    startLength++;
-                    emojiCode.append(c);
-                    doneEmoji = true;
-                } else if (startIndex != -1) {
-                    emojiCode.setLength(0);
-                    startIndex = -1;
-                    startLength = 0;
-                    doneEmoji = false;
-                } else if (c != 0xfe0f) {
-                    notOnlyEmoji = true;
+                    continue;
                 }
-                if (doneEmoji && i + 2 < length) {
-                    char next = cs.charAt(i + 1);
-                    if (next == 0xD83C) {
-                        next = cs.charAt(i + 2);
-                        if (next >= 0xDFFB && next <= 0xDFFF) {
-                            emojiCode.append(cs.subSequence(i + 1, i + 3));
-                            startLength += 2;
-                            i += 2;
-                        }
-                    } else if (emojiCode.length() >= 2 && emojiCode.charAt(0) == 0xD83C && emojiCode.charAt(1) == 0xDFF4 && next == 0xDB40) {
-                        i++;
-                        while (true) {
-                            emojiCode.append(cs.subSequence(i, i + 2));
-                            startLength += 2;
-                            i += 2;
-                            if (i >= cs.length() || cs.charAt(i) != 0xDB40) {
-                                i--;
-                                break;
-                            }
-                        }
-
-                    }
-                }
-                previousGoodIndex = i;
-                char prevCh = c;
-                for (int a = 0; a < 3; a++) {
-                    if (i + 1 < length) {
-                        c = cs.charAt(i + 1);
-                        if (a == 1) {
-                            if (c == 0x200D && emojiCode.length() > 0) {
-                                notOnlyEmoji = false;
-                                emojiCode.append(c);
-                                i++;
-                                startLength++;
-                                doneEmoji = false;
-                            }
-                        } else if (startIndex != -1 || prevCh == '*' || prevCh == '#' || prevCh >= '0' && prevCh <= '9') {
-                            if (c >= 0xFE00 && c <= 0xFE0F) {
-                                i++;
-                                startLength++;
-                                if (!doneEmoji) {
-                                    doneEmoji = i + 1 >= length;
-                                }
-                            }
-                        }
-                    }
-                }
-                if (notOnlyEmoji && emojiOnly != null) {
-                    emojiOnly[0] = 0;
-                    emojiOnly = null;
-                }
-                if (doneEmoji && i + 2 < length && cs.charAt(i + 1) == 0xD83C) {
-                    char next = cs.charAt(i + 2);
-                    if (next >= 0xDFFB && next <= 0xDFFF) {
-                        emojiCode.append(cs.subSequence(i + 1, i + 3));
-                        startLength += 2;
-                        i += 2;
-                    }
-                }
-                if (doneEmoji) {
-                    if (emojiOnly != null) {
-                        emojiOnly[0]++;
-                    }
-                    CharSequence code = emojiCode.subSequence(0, emojiCode.length());
-                    drawable = Emoji.getEmojiDrawable(code);
-                    if (drawable != null) {
-                        span = new EmojiSpan(drawable, DynamicDrawableSpan.ALIGN_BOTTOM, size, fontMetrics);
-                        s.setSpan(span, startIndex, startIndex + startLength, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
-                        emojiCount++;
-                    }
-                    startLength = 0;
-                    startIndex = -1;
-                    emojiCode.setLength(0);
-                    doneEmoji = false;
+                end = EmojiMatcher.getEnd(match);
+                if (emojiOnly != null) {
+                    emojiOnly[0]++;
                 }
+                info = drawableInfos[EmojiMatcher.getPage(match)][EmojiMatcher.getIndex(match)];
+                drawable = new EmojiDrawable(info);
+                drawable.setBounds(0, 0, drawImgSize, drawImgSize);
+                span = new EmojiSpan(drawable, DynamicDrawableSpan.ALIGN_BOTTOM, size, fontMetrics);
+                s.setSpan(span, i, end, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+                emojiCount++;
                 if ((Build.VERSION.SDK_INT < 23 || Build.VERSION.SDK_INT >= 29) && emojiCount >= 50) {
                     break;
                 }
@@ -517,9 +411,6 @@ public class Emoji {
             FileLog.e(e);
             return cs;
         }
-        if (emojiOnly != null && emojiCode.length() != 0) {
-            emojiOnly[0] = 0;
-        }
         return s;
     }
 
@@ -0,0 +1,175 @@
+package org.telegram.messenger;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Trie over every sequence in {@link EmojiData#data} (and the old forms in the alias table),
+ * flattened into sorted parallel arrays so that {@link #match} finds the longest emoji starting
+ * at an offset with binary searches only, without building candidate strings.
+ * Variation selectors are not part of the stored sequences, so they are skipped while walking.
+ */
+class EmojiMatcher {
+
+    public static final int NO_MATCH = -1;
+
+    private static class Node {
+        final TreeMap<Character, Node> children = new TreeMap<>();
+        int value = NO_MATCH;
+    }
+
+    // node n has children labels[childStart[n] .. childStart[n + 1]), sorted; values[n] is page << 16 | index
+    private final char[] labels;
+    private final int[] childStart;
+    private final int[] values;
+
+    private static volatile EmojiMatcher Instance;
+
+    public static EmojiMatcher getInstance() {
+        EmojiMatcher localInstance = Instance;
+        if (localInstance == null) {
+            synchronized (EmojiMatcher.class) {
+                localInstance = Instance;
+                if (localInstance == null) {
+                    Instance = localInstance = new EmojiMatcher();
+                }
+            }
+        }
+        return localInstance;
+    }
+
+    private EmojiMatcher() {
+        Node root = new Node();
+        int count = 1;
+        for (int page = 0; page < EmojiData.data.length; page++) {
+            for (int index = 0; index < EmojiData.data[page].length; index++) {
+                count += insert(root, EmojiData.data[page][index], page << 16 | index, true);
+            }
+        }
+        for (int a = 0; a < EmojiData.aliasNew.length; a++) {
+            int value = find(root, EmojiData.aliasNew[a]);
+            if (value != NO_MATCH) {
+                count += insert(root, EmojiData.aliasOld[a], value, false);
+            }
+        }
+
+        labels = new char[count];
+        childStart = new int[count + 1];
+        values = new int[count];
+        ArrayList<Node> queue = new ArrayList<>(count);
+        queue.add(root);
+        int next = 1;
+        for (int n = 0; n < queue.size(); n++) {
+            Node node = queue.get(n);
+            values[n] = node.value;
+            childStart[n] = next;
+            for (Map.Entry<Character, Node> entry : node.children.entrySet()) {
+                labels[next++] = entry.getKey();
+                queue.add(entry.getValue());
+            }
+        }
+        childStart[count] = next;
+    }
+
+    private static int insert(Node root, String sequence, int value, boolean replace) {
+        int created = 0;
+        Node node = root;
+        for (int a = 0, N = sequence.length(); a < N; a++) {
+            char c = sequence.charAt(a);
+            if (isVariationSelector(c)) {
+                continue;
+            }
+            Node child = node.children.get(c);
+            if (child == null) {
+                child = new Node();
+                node.children.put(c, child);
+                created++;
+            }
+            node = child;
+        }
+        if (replace || node.value == NO_MATCH) {
+            node.value = value;
+        }
+        return created;
+    }
+
+    private static int find(Node root, String sequence) {
+        Node node = root;
+        for (int a = 0, N = sequence.length(); a < N && node != null; a++) {
+            char c = sequence.charAt(a);
+            if (!isVariationSelector(c)) {
+                node = node.children.get(c);
+            }
+        }
+        return node != null ? node.value : NO_MATCH;
+    }
+
+    static boolean isVariationSelector(char c) {
+        return c >= 0xFE00 && c <= 0xFE0F;
+    }
+
+    private int child(int node, char c) {
+        int low = childStart[node];
+        int high = childStart[node + 1] - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            char label = labels[mid];
+            if (label < c) {
+                low = mid + 1;
+            } else if (label > c) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Looks up the longest emoji starting at {@code start}. Returns {@link #NO_MATCH}, or the match
+     * end (including trailing variation selectors) in the high 32 bits and page << 16 | index in
+     * the low ones; see {@link #getEnd}, {@link #getPage} and {@link #getIndex}.
+     */
+    public long match(CharSequence text, int start, int end) {
+        int node = 0;
+        int result = NO_MATCH;
+        int resultEnd = start;
+        int i = start;
+        while (i < end) {
+            char c = text.charAt(i);
+            if (i > start && isVariationSelector(c)) {
+                if (result != NO_MATCH && resultEnd == i) {
+                    resultEnd = i + 1;
+                }
+                i++;
+                continue;
+            }
+            node = child(node, c);
+            if (node < 0) {
+                break;
+            }
+            i++;
+            if (values[node] != NO_MATCH) {
+                result = values[node];
+                resultEnd = i;
+            }
+        }
+        if (result == NO_MATCH) {
+            return NO_MATCH;
+        }
+        return (long) resultEnd << 32 | result;
+    }
+
+    public static int getEnd(long match) {
+        return (int) (match >>> 32);
+    }
+
+    public static int getPage(long match) {
+        return (int) match >>> 16;
+    }
+
+    public static int getIndex(long match) {
+        return (int) match & 0xFFFF;
+    }
+}
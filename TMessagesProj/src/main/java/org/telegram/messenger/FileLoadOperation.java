@@ -8,6 +8,7 @@
 
 package org.telegram.messenger;
 
+import android.os.SystemClock;
 import android.util.SparseArray;
 import android.util.SparseIntArray;
 
@@ -36,6 +37,7 @@ public class FileLoadOperation {
         private TLRPC.TL_upload_file response;
         private TLRPC.TL_upload_webFile responseWeb;
         private TLRPC.TL_upload_cdnFile responseCdn;
+        private long sendTime;
     }
 
     public static class Range {
@@ -126,6 +128,9 @@ public class FileLoadOperation {
     private int currentDownloadChunkSize;
     private int currentMaxDownloadRequests;
     private int requestsCount;
+    private long loadStartTime;
+    private long loadFinishTime;
+    private long receivedBytesCount;
     private int renameRetryCount;
 
     private boolean encryptFile;
@@ -381,10 +386,25 @@ public class FileLoadOperation {
         return started && !paused;
     }
 
+    public boolean isFinished() {
+        return state == stateFinished;
+    }
+
     public int getCurrentType() {
         return currentType;
     }
 
+    /**
+     * Returns the average download speed of this operation in bytes per second.
+     */
+    public int getSpeed() {
+        long time = (loadFinishTime != 0 ? loadFinishTime : SystemClock.elapsedRealtime()) - loadStartTime;
+        if (loadStartTime == 0 || time <= 0) {
+            return 0;
+        }
+        return (int) (receivedBytesCount * 1000 / time);
+    }
+
     private void removePart(ArrayList<Range> ranges, int start, int end) {
         if (ranges == null || end < start) {
             return;
@@ -616,6 +636,7 @@ public class FileLoadOperation {
                     int offset = streamOffset / currentDownloadChunkSize * currentDownloadChunkSize;
                     if (priorityRequestInfo != null && priorityRequestInfo.offset != offset) {
                         requestInfos.remove(priorityRequestInfo);
+                        FileLoadWindow.getInstance().setInFlight(this, requestInfos.size());
                         requestedBytesCount -= currentDownloadChunkSize;
                         removePart(notRequestedBytesRanges, priorityRequestInfo.offset, priorityRequestInfo.offset + currentDownloadChunkSize);
                         if (priorityRequestInfo.requestToken != 0) {
@@ -1087,6 +1108,7 @@ public class FileLoadOperation {
     }
 
     private void cleanup() {
+        FileLoadWindow.getInstance().remove(this);
         try {
             if (fileOutputStream != null) {
                 try {
@@ -1171,6 +1193,7 @@ public class FileLoadOperation {
             return;
         }
         state = stateFinished;
+        loadFinishTime = SystemClock.elapsedRealtime();
         cleanup();
         if (isPreloadVideoOperation) {
             preloadFinished = true;
@@ -1244,7 +1267,7 @@ public class FileLoadOperation {
                 }
             }
             if (BuildVars.LOGS_ENABLED) {
-                FileLog.d("finished downloading file to " + cacheFileFinal);
+                FileLog.d("finished downloading file to " + cacheFileFinal + " speed " + getSpeed() / 1024 + "KB/s " + FileLoadWindow.getInstance().getStats(currentAccount, isCdn ? cdnDatacenterId : datacenterId));
             }
             if (increment) {
                 if (currentType == ConnectionsManager.FileTypeAudio) {
@@ -1362,6 +1385,7 @@ public class FileLoadOperation {
             return false;
         }
         requestInfos.remove(requestInfo);
+        FileLoadWindow.getInstance().setInFlight(this, requestInfos.size());
         if (error == null) {
             try {
                 if (notLoadedBytesRanges == null && downloadedBytes != requestInfo.offset) {
@@ -1635,6 +1659,7 @@ public class FileLoadOperation {
             }
         }
         requestInfos.clear();
+        FileLoadWindow.getInstance().setInFlight(this, 0);
         for (int a = 0; a < delayedRequestInfos.size(); a++) {
             RequestInfo info = delayedRequestInfos.get(a);
             if (isPreloadVideoOperation) {
@@ -1679,6 +1704,9 @@ public class FileLoadOperation {
     }
 
     protected void startDownloadRequest() {
+        if (currentDownloadChunkSize == downloadChunkSizeBig) {
+            currentMaxDownloadRequests = FileLoadWindow.getInstance().getWindow(currentAccount, isCdn ? cdnDatacenterId : datacenterId);
+        }
         if (paused || reuploadingCdn ||
                 state != stateDownloading ||
                 streamPriorityStartOffset == 0 && (
@@ -1689,6 +1717,7 @@ public class FileLoadOperation {
         int count = 1;
         if (streamPriorityStartOffset == 0 && !nextPartWasPreloaded && (!isPreloadVideoOperation || moovFound != 0) && totalBytesCount > 0) {
             count = Math.max(0, currentMaxDownloadRequests - requestInfos.size());
+            count = Math.min(count, FileLoadWindow.getInstance().getAvailable(this));
         }
 
         for (int a = 0; a < count; a++) {
@@ -1797,6 +1826,7 @@ public class FileLoadOperation {
             requestedBytesCount += currentDownloadChunkSize;
             final RequestInfo requestInfo = new RequestInfo();
             requestInfos.add(requestInfo);
+            FileLoadWindow.getInstance().setInFlight(this, requestInfos.size());
             requestInfo.offset = downloadOffset;
 
             if (!isPreloadVideoOperation && supportsPreloading && preloadStream != null && preloadedBytesRanges != null) {
@@ -1827,10 +1857,22 @@ public class FileLoadOperation {
                 priorityRequestInfo = requestInfo;
             }
 
+            final int requestDatacenterId = isCdn ? cdnDatacenterId : datacenterId;
+            requestInfo.sendTime = SystemClock.elapsedRealtime();
+            if (loadStartTime == 0) {
+                loadStartTime = requestInfo.sendTime;
+            }
             requestInfo.requestToken = ConnectionsManager.getInstance(currentAccount).sendRequest(request, (response, error) -> {
                 if (!requestInfos.contains(requestInfo)) {
                     return;
                 }
+                if (error != null && error.code == 420) {
+                    FileLoadWindow.getInstance().onPartFailed(currentAccount, requestDatacenterId);
+                } else if (response instanceof TLRPC.TL_upload_file || response instanceof TLRPC.TL_upload_webFile || response instanceof TLRPC.TL_upload_cdnFile) {
+                    int size = response.getObjectSize();
+                    receivedBytesCount += size;
+                    FileLoadWindow.getInstance().onPartLoaded(currentAccount, requestDatacenterId, size, SystemClock.elapsedRealtime() - requestInfo.sendTime);
+                }
                 if (requestInfo == priorityRequestInfo) {
                     if (BuildVars.DEBUG_VERSION) {
                         FileLog.d("frame get request completed " + priorityRequestInfo.offset);
@@ -1936,7 +1978,7 @@ public class FileLoadOperation {
                     }
                     processRequestResult(requestInfo, error);
                 }
-            }, null, null, flags, isCdn ? cdnDatacenterId : datacenterId, connectionType, isLast);
+            }, null, null, flags, requestDatacenterId, connectionType, isLast);
             requestsCount++;
         }
     }
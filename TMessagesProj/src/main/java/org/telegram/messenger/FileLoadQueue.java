@@ -0,0 +1,211 @@
+package org.telegram.messenger;
+
+import android.os.SystemClock;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Waiting download operations of one datacenter and queue type, kept in an indexed binary heap so
+ * that adding, removing and reprioritizing an operation is O(log n). Operations put back in front
+ * go first, then visible ones, then by priority and arrival. An operation that waited longer than
+ * {@link #STARVATION_TIMEOUT} is served before anything else.
+ */
+public class FileLoadQueue {
+
+    private static final long STARVATION_TIMEOUT = 15 * 1000;
+
+    private static class Entry {
+        FileLoadOperation operation;
+        int index;
+        long sequence;
+        long time;
+        boolean first;
+        boolean visible;
+    }
+
+    private Entry[] heap = new Entry[16];
+    private int size;
+    // arrival order, the first entry is the one waiting longest
+    private final LinkedHashMap<FileLoadOperation, Entry> entries = new LinkedHashMap<>();
+    private long nextSequence;
+
+    private int startedCount;
+    private int starvedCount;
+    private long totalWaitTime;
+    private long maxWaitTime;
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean contains(FileLoadOperation operation) {
+        return entries.containsKey(operation);
+    }
+
+    public void add(FileLoadOperation operation, boolean visible) {
+        add(operation, visible, false);
+    }
+
+    /**
+     * Adds an operation the user asked for or one that was paused for another, served before all
+     * other waiting operations.
+     */
+    public void addFirst(FileLoadOperation operation, boolean visible) {
+        add(operation, visible, true);
+    }
+
+    private void add(FileLoadOperation operation, boolean visible, boolean first) {
+        remove(operation);
+        Entry entry = new Entry();
+        entry.operation = operation;
+        entry.sequence = first ? -nextSequence : nextSequence;
+        nextSequence++;
+        entry.time = SystemClock.elapsedRealtime();
+        entry.first = first;
+        entry.visible = visible;
+        entries.put(operation, entry);
+        if (size == heap.length) {
+            Entry[] newHeap = new Entry[size * 2];
+            System.arraycopy(heap, 0, newHeap, 0, size);
+            heap = newHeap;
+        }
+        entry.index = size;
+        heap[size++] = entry;
+        siftUp(entry.index);
+    }
+
+    public boolean remove(FileLoadOperation operation) {
+        Entry entry = entries.remove(operation);
+        if (entry == null) {
+            return false;
+        }
+        int index = entry.index;
+        Entry last = heap[--size];
+        heap[size] = null;
+        if (index != size) {
+            heap[index] = last;
+            last.index = index;
+            siftDown(index);
+            siftUp(last.index);
+        }
+        return true;
+    }
+
+    /**
+     * Moves the operation after its visibility changed; returns false if it isn't waiting here.
+     */
+    public boolean setVisible(FileLoadOperation operation, boolean visible) {
+        Entry entry = entries.get(operation);
+        if (entry == null) {
+            return false;
+        }
+        if (entry.visible != visible) {
+            entry.visible = visible;
+            siftDown(entry.index);
+            siftUp(entry.index);
+        }
+        return true;
+    }
+
+    public boolean hasVisible() {
+        return size > 0 && heap[0].visible;
+    }
+
+    public FileLoadOperation peek() {
+        Entry entry = peekEntry();
+        return entry != null ? entry.operation : null;
+    }
+
+    public FileLoadOperation poll() {
+        Entry entry = peekEntry();
+        if (entry == null) {
+            return null;
+        }
+        long wait = SystemClock.elapsedRealtime() - entry.time;
+        startedCount++;
+        totalWaitTime += wait;
+        if (wait > maxWaitTime) {
+            maxWaitTime = wait;
+        }
+        if (entry != heap[0]) {
+            starvedCount++;
+        }
+        remove(entry.operation);
+        return entry.operation;
+    }
+
+    private Entry peekEntry() {
+        if (size == 0) {
+            return null;
+        }
+        Iterator<Entry> iterator = entries.values().iterator();
+        Entry oldest = iterator.next();
+        if (SystemClock.elapsedRealtime() - oldest.time > STARVATION_TIMEOUT) {
+            return oldest;
+        }
+        return heap[0];
+    }
+
+    private static boolean isBefore(Entry a, Entry b) {
+        if (a.first != b.first) {
+            return a.first;
+        }
+        if (a.visible != b.visible) {
+            return a.visible;
+        }
+        int priorityA = a.operation.getPriority();
+        int priorityB = b.operation.getPriority();
+        if (priorityA != priorityB) {
+            return priorityA > priorityB;
+        }
+        return a.sequence < b.sequence;
+    }
+
+    private void siftUp(int index) {
+        Entry entry = heap[index];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (!isBefore(entry, heap[parent])) {
+                break;
+            }
+            heap[index] = heap[parent];
+            heap[index].index = index;
+            index = parent;
+        }
+        heap[index] = entry;
+        entry.index = index;
+    }
+
+    private void siftDown(int index) {
+        Entry entry = heap[index];
+        int half = size >>> 1;
+        while (index < half) {
+            int child = 2 * index + 1;
+            int right = child + 1;
+            if (right < size && isBefore(heap[right], heap[child])) {
+                child = right;
+            }
+            if (!isBefore(heap[child], entry)) {
+                break;
+            }
+            heap[index] = heap[child];
+            heap[index].index = index;
+            index = child;
+        }
+        heap[index] = entry;
+        entry.index = index;
+    }
+
+    public void appendStats(StringBuilder builder) {
+        builder.append("waiting ").append(size)
+                .append(" started ").append(startedCount)
+                .append(" avg wait ").append(startedCount != 0 ? totalWaitTime / startedCount : 0)
+                .append("ms max wait ").append(maxWaitTime)
+                .append("ms starved ").append(starvedCount);
+    }
+}
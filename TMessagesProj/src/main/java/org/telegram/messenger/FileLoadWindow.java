@@ -0,0 +1,130 @@
+package org.telegram.messenger;
+
+import android.os.SystemClock;
+
+import java.util.HashMap;
+
+/**
+ * Number of parts big file downloads keep in flight, per account and datacenter. Each window is
+ * adjusted the way TCP Vegas does it: while the measured round trip stays close to the fastest
+ * one seen the link is not saturated and the window grows, once parts start queueing up it
+ * shrinks, and flood errors halve it. All operations together stay under a global budget.
+ */
+public class FileLoadWindow {
+
+    private static final int MIN_WINDOW = 2;
+    private static final int MAX_WINDOW = 16;
+    private static final int INITIAL_WINDOW = 4;
+    private static final int MAX_GLOBAL_REQUESTS = 32;
+    private static final long BASE_RTT_RESET_INTERVAL = 30 * 1000;
+    private static final long THROUGHPUT_INTERVAL = 1000;
+
+    private static class DatacenterStats {
+        int window = INITIAL_WINDOW;
+        long baseRtt;
+        long baseRttTime;
+        long smoothedRtt;
+        int responsesSinceUpdate;
+        long intervalBytes;
+        long intervalStart;
+        long throughput;
+    }
+
+    private static volatile FileLoadWindow Instance;
+
+    public static FileLoadWindow getInstance() {
+        FileLoadWindow localInstance = Instance;
+        if (localInstance == null) {
+            synchronized (FileLoadWindow.class) {
+                localInstance = Instance;
+                if (localInstance == null) {
+                    Instance = localInstance = new FileLoadWindow();
+                }
+            }
+        }
+        return localInstance;
+    }
+
+    private final HashMap<Long, DatacenterStats> stats = new HashMap<>();
+    private final HashMap<Object, Integer> inFlight = new HashMap<>();
+    private int totalInFlight;
+
+    private DatacenterStats getStatsInternal(int account, int datacenterId) {
+        long key = (long) account << 32 | datacenterId;
+        DatacenterStats datacenterStats = stats.get(key);
+        if (datacenterStats == null) {
+            stats.put(key, datacenterStats = new DatacenterStats());
+        }
+        return datacenterStats;
+    }
+
+    public synchronized int getWindow(int account, int datacenterId) {
+        return getStatsInternal(account, datacenterId).window;
+    }
+
+    /**
+     * Returns how many more parts {@code operation} may request under the global budget; an
+     * operation with nothing in flight may always request one.
+     */
+    public synchronized int getAvailable(Object operation) {
+        Integer current = inFlight.get(operation);
+        int available = MAX_GLOBAL_REQUESTS - totalInFlight;
+        return current == null || current == 0 ? Math.max(1, available) : Math.max(0, available);
+    }
+
+    public synchronized void setInFlight(Object operation, int count) {
+        Integer previous = count > 0 ? inFlight.put(operation, count) : inFlight.remove(operation);
+        totalInFlight += count - (previous != null ? previous : 0);
+    }
+
+    public void remove(Object operation) {
+        setInFlight(operation, 0);
+    }
+
+    public synchronized void onPartLoaded(int account, int datacenterId, int bytes, long rtt) {
+        DatacenterStats s = getStatsInternal(account, datacenterId);
+        long now = SystemClock.elapsedRealtime();
+        rtt = Math.max(1, rtt);
+
+        if (s.intervalStart == 0) {
+            s.intervalStart = now;
+        }
+        s.intervalBytes += bytes;
+        if (now - s.intervalStart >= THROUGHPUT_INTERVAL) {
+            long sample = s.intervalBytes * 1000 / (now - s.intervalStart);
+            s.throughput = s.throughput == 0 ? sample : (s.throughput * 3 + sample) / 4;
+            s.intervalBytes = 0;
+            s.intervalStart = now;
+        }
+
+        // the fastest round trip ages out, routes and proxies change under a long download
+        if (s.baseRtt == 0 || rtt < s.baseRtt || now - s.baseRttTime > BASE_RTT_RESET_INTERVAL) {
+            s.baseRtt = rtt;
+            s.baseRttTime = now;
+        }
+        s.smoothedRtt = s.smoothedRtt == 0 ? rtt : (s.smoothedRtt * 7 + rtt) / 8;
+
+        if (++s.responsesSinceUpdate < s.window) {
+            return;
+        }
+        s.responsesSinceUpdate = 0;
+        // parts queued beyond what the path carries: window * (1 - baseRtt / rtt)
+        float queued = s.window * (1.0f - s.baseRtt / (float) s.smoothedRtt);
+        if (queued < 1 && s.window < MAX_WINDOW) {
+            s.window++;
+        } else if (queued > 3 && s.window > MIN_WINDOW) {
+            s.window--;
+        }
+    }
+
+    public synchronized void onPartFailed(int account, int datacenterId) {
+        DatacenterStats s = getStatsInternal(account, datacenterId);
+        s.window = Math.max(MIN_WINDOW, s.window / 2);
+        s.responsesSinceUpdate = 0;
+    }
+
+    public synchronized String getStats(int account, int datacenterId) {
+        DatacenterStats s = getStatsInternal(account, datacenterId);
+        return "dc" + datacenterId + " window " + s.window + " rtt " + s.smoothedRtt + "/" + s.baseRtt + "ms throughput " + s.throughput / 1024 + "KB/s in flight " + totalInFlight;
+    }
+}
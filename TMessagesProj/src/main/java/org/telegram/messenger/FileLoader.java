@@ -67,9 +67,9 @@ public class FileLoader extends BaseController {
     private int currentUploadOperationsCount = 0;
     private int currentUploadSmallOperationsCount = 0;
 
-    private SparseArray<LinkedList<FileLoadOperation>> fileLoadOperationQueues = new SparseArray<>();
-    private SparseArray<LinkedList<FileLoadOperation>> audioLoadOperationQueues = new SparseArray<>();
-    private SparseArray<LinkedList<FileLoadOperation>> imageLoadOperationQueues = new SparseArray<>();
+    private SparseArray<FileLoadQueue> fileLoadOperationQueues = new SparseArray<>();
+    private SparseArray<FileLoadQueue> audioLoadOperationQueues = new SparseArray<>();
+    private SparseArray<FileLoadQueue> imageLoadOperationQueues = new SparseArray<>();
     private SparseIntArray fileLoadOperationsCount = new SparseIntArray();
     private SparseIntArray audioLoadOperationsCount = new SparseIntArray();
     private SparseIntArray imageLoadOperationsCount = new SparseIntArray();
@@ -81,6 +81,11 @@ public class FileLoader extends BaseController {
 
     private HashMap<String, Boolean> loadingVideos = new HashMap<>();
 
+    private SparseArray<ArrayList<String>> visibleFilesByGuid = new SparseArray<>();
+    private HashMap<String, Integer> visibleFiles = new HashMap<>();
+    private int finishedOperationsCount;
+    private long finishedOperationsSpeed;
+
     private String forceLoadingFile;
 
     private static SparseArray<File> mediaDirs = null;
@@ -288,6 +293,7 @@ public class FileLoader extends BaseController {
                         } else {
                             uploadOperationPaths.remove(location);
                         }
+                        MediaCacheLedger.getInstance().record(new File(location), 0);
                         if (small) {
                             currentUploadSmallOperationsCount--;
                             if (currentUploadSmallOperationsCount < 1) {
@@ -371,8 +377,8 @@ public class FileLoader extends BaseController {
         });
     }
 
-    private LinkedList<FileLoadOperation> getLoadOperationQueue(int datacenterId, int type) {
-        SparseArray<LinkedList<FileLoadOperation>> queues;
+    private FileLoadQueue getLoadOperationQueue(int datacenterId, int type) {
+        SparseArray<FileLoadQueue> queues;
         if (type == QUEUE_TYPE_AUDIO) {
             queues = audioLoadOperationQueues;
         } else if (type == QUEUE_TYPE_IMAGE) {
@@ -380,16 +386,15 @@ public class FileLoader extends BaseController {
         } else {
             queues = fileLoadOperationQueues;
         }
-        LinkedList<FileLoadOperation> queue = queues.get(datacenterId);
+        FileLoadQueue queue = queues.get(datacenterId);
         if (queue == null) {
-            queue = new LinkedList<>();
+            queue = new FileLoadQueue();
             queues.put(datacenterId, queue);
         }
         return queue;
     }
 
     private SparseIntArray getLoadOperationCount(int type) {
-        SparseArray<LinkedList<FileLoadOperation>> queues;
         if (type == QUEUE_TYPE_AUDIO) {
             return audioLoadOperationsCount;
         } else if (type == QUEUE_TYPE_IMAGE) {
@@ -413,11 +418,9 @@ public class FileLoader extends BaseController {
                 operation.setForceRequest(true);
                 int datacenterId = operation.getDatacenterId();
                 int queueType = operation.getQueueType();
-                LinkedList<FileLoadOperation> downloadQueue = getLoadOperationQueue(datacenterId, queueType);
+                FileLoadQueue downloadQueue = getLoadOperationQueue(datacenterId, queueType);
                 SparseIntArray count = getLoadOperationCount(queueType);
-                int index = downloadQueue.indexOf(operation);
-                if (index >= 0) {
-                    downloadQueue.remove(index);
+                if (downloadQueue.remove(operation)) {
                         if (operation.start()) {
                             count.put(datacenterId, count.get(datacenterId) + 1);
                         }
@@ -502,7 +505,7 @@ public class FileLoader extends BaseController {
             if (operation != null) {
                 int queueType = operation.getQueueType();
                 int datacenterId = operation.getDatacenterId();
-                LinkedList<FileLoadOperation> queue = getLoadOperationQueue(datacenterId, queueType);
+                FileLoadQueue queue = getLoadOperationQueue(datacenterId, queueType);
                 if (!queue.remove(operation)) {
                     SparseIntArray count = getLoadOperationCount(queueType);
                     count.put(datacenterId, count.get(datacenterId) - 1);
@@ -572,9 +575,9 @@ public class FileLoader extends BaseController {
             a--;
             int datacenterId = operation.getDatacenterId();
             int queueType = operation.getQueueType();
-            LinkedList<FileLoadOperation> downloadQueue = getLoadOperationQueue(datacenterId, queueType);
+            FileLoadQueue downloadQueue = getLoadOperationQueue(datacenterId, queueType);
             SparseIntArray count = getLoadOperationCount(queueType);
-            downloadQueue.add(0, operation);
+            downloadQueue.addFirst(operation, isFileVisible(operation.getFileName()));
             if (operation.wasStarted()) {
                 count.put(datacenterId, count.get(datacenterId) - 1);
             }
@@ -612,11 +615,9 @@ public class FileLoader extends BaseController {
                 operation.setForceRequest(true);
 
                 int queueType = operation.getQueueType();
-                LinkedList<FileLoadOperation> downloadQueue = getLoadOperationQueue(datacenterId, queueType);
+                FileLoadQueue downloadQueue = getLoadOperationQueue(datacenterId, queueType);
                 SparseIntArray count = getLoadOperationCount(queueType);
-                int index = downloadQueue.indexOf(operation);
-                if (index >= 0) {
-                    downloadQueue.remove(index);
+                if (downloadQueue.remove(operation)) {
                     if (stream != null) {
                         if (operation.start(stream, streamOffset, streamPriority)) {
                             count.put(datacenterId, count.get(datacenterId) + 1);
@@ -628,7 +629,7 @@ public class FileLoader extends BaseController {
                             }
                         }
                     } else {
-                        downloadQueue.add(0, operation);
+                        downloadQueue.addFirst(operation, isFileVisible(fileName));
                     }
                 } else {
                     if (stream != null) {
@@ -698,6 +699,7 @@ public class FileLoader extends BaseController {
         }
 
         final int finalType = type;
+        final long dialogId = MediaCacheLedger.getDialogId(parentObject);
         FileLoadOperation.FileLoadOperationDelegate fileLoadOperationDelegate = new FileLoadOperation.FileLoadOperationDelegate() {
             @Override
             public void didFinishLoadingFile(FileLoadOperation operation, File finalFile) {
@@ -709,6 +711,7 @@ public class FileLoader extends BaseController {
                     if (delegate != null) {
                         delegate.fileDidLoaded(fileName, finalFile, finalType);
                     }
+                    MediaCacheLedger.getInstance().record(finalFile, dialogId);
                 }
                 checkDownloadQueue(operation.getDatacenterId(), queueType, fileName);
             }
@@ -767,26 +770,13 @@ public class FileLoader extends BaseController {
             }
         }
         if (!started) {
-            addOperationToQueue(operation, getLoadOperationQueue(datacenterId, queueType));
-        }
-        return operation;
-    }
-
-    private void addOperationToQueue(FileLoadOperation operation, LinkedList<FileLoadOperation> queue) {
-        int priority = operation.getPriority();
-        if (priority > 0) {
-            int index = queue.size();
-            for (int a = 0, size = queue.size(); a < size; a++) {
-                FileLoadOperation queuedOperation = queue.get(a);
-                if (queuedOperation.getPriority() < priority) {
-                    index = a;
-                    break;
-                }
+            FileLoadQueue queue = getLoadOperationQueue(datacenterId, queueType);
+            queue.add(operation, isFileVisible(fileName));
+            if (queue.hasVisible()) {
+                preemptStaleOperation(datacenterId, queueType);
             }
-            queue.add(index, operation);
-        } else {
-            queue.add(operation);
         }
+        return operation;
     }
 
     private void loadFile(final TLRPC.Document document, final SecureDocument secureDocument, final WebFile webDocument, TLRPC.TL_fileLocationToBeDeprecated location, final ImageLocation imageLocation, final Object parentObject, final String locationExt, final int locationSize, final int priority, final int cacheType) {
@@ -824,7 +814,7 @@ public class FileLoader extends BaseController {
     private void checkDownloadQueue(int datacenterId, int queueType, String fileName) {
         fileLoaderQueue.postRunnable(() -> {
             FileLoadOperation operation = loadOperationPaths.remove(fileName);
-            LinkedList<FileLoadOperation> queue = getLoadOperationQueue(datacenterId, queueType);
+            FileLoadQueue queue = getLoadOperationQueue(datacenterId, queueType);
             SparseIntArray operationCount = getLoadOperationCount(queueType);
             int count = operationCount.get(datacenterId);
             if (operation != null) {
@@ -837,33 +827,154 @@ public class FileLoader extends BaseController {
                 if (queueType == QUEUE_TYPE_FILE) {
                     activeFileLoadOperation.remove(operation);
                 }
-            }
-            while (!queue.isEmpty()) {
-                operation = queue.get(0);
-                int maxCount;
-                if (queueType == QUEUE_TYPE_AUDIO) {
-                    maxCount = operation.getPriority() != 0 ? 3 : 1;
-                } else if (queueType == QUEUE_TYPE_IMAGE) {
-                    maxCount = operation.getPriority() != 0 ? 6 : 2;
-                } else {
-                    maxCount = operation.isForceRequest() ? 3 : 1;
+                if (operation.isFinished() && !operation.isPreloadVideoOperation()) {
+                    finishedOperationsCount++;
+                    finishedOperationsSpeed += operation.getSpeed();
                 }
-                if (count < maxCount) {
-                    operation = queue.poll();
-                    if (operation != null && operation.start()) {
-                        count++;
-                        operationCount.put(datacenterId, count);
-                        if (queueType == QUEUE_TYPE_FILE) {
-                            if (!activeFileLoadOperation.contains(operation)) {
-                                activeFileLoadOperation.add(operation);
-                            }
+            }
+            startQueuedOperations(datacenterId, queueType);
+        });
+    }
+
+    private void startQueuedOperations(int datacenterId, int queueType) {
+        FileLoadQueue queue = getLoadOperationQueue(datacenterId, queueType);
+        SparseIntArray operationCount = getLoadOperationCount(queueType);
+        int count = operationCount.get(datacenterId);
+        while (!queue.isEmpty()) {
+            FileLoadOperation operation = queue.peek();
+            int maxCount;
+            if (queueType == QUEUE_TYPE_AUDIO) {
+                maxCount = operation.getPriority() != 0 ? 3 : 1;
+            } else if (queueType == QUEUE_TYPE_IMAGE) {
+                maxCount = operation.getPriority() != 0 ? 6 : 2;
+            } else {
+                maxCount = operation.isForceRequest() ? 3 : 1;
+            }
+            if (count < maxCount) {
+                operation = queue.poll();
+                if (operation != null && operation.start()) {
+                    count++;
+                    operationCount.put(datacenterId, count);
+                    if (queueType == QUEUE_TYPE_FILE) {
+                        if (!activeFileLoadOperation.contains(operation)) {
+                            activeFileLoadOperation.add(operation);
                         }
                     }
-                } else {
-                    break;
+                }
+            } else {
+                break;
+            }
+        }
+    }
+
+    private boolean isFileVisible(String fileName) {
+        return fileName != null && visibleFiles.containsKey(fileName);
+    }
+
+    /**
+     * Replaces the files shown on the screen {@code guid}; waiting downloads of visible files go
+     * first and may pause a running download nobody sees. Pass null when the screen goes away.
+     */
+    public void setVisibleFiles(int guid, ArrayList<String> fileNames) {
+        fileLoaderQueue.postRunnable(() -> {
+            ArrayList<String> changed = new ArrayList<>();
+            ArrayList<String> old = visibleFilesByGuid.get(guid);
+            if (old != null) {
+                for (int a = 0, N = old.size(); a < N; a++) {
+                    String name = old.get(a);
+                    Integer count = visibleFiles.get(name);
+                    if (count == null || count <= 1) {
+                        visibleFiles.remove(name);
+                        changed.add(name);
+                    } else {
+                        visibleFiles.put(name, count - 1);
+                    }
                 }
             }
+            if (fileNames != null && !fileNames.isEmpty()) {
+                visibleFilesByGuid.put(guid, fileNames);
+                for (int a = 0, N = fileNames.size(); a < N; a++) {
+                    String name = fileNames.get(a);
+                    Integer count = visibleFiles.get(name);
+                    visibleFiles.put(name, count == null ? 1 : count + 1);
+                    if (count == null) {
+                        changed.add(name);
+                    }
+                }
+            } else {
+                visibleFilesByGuid.remove(guid);
+            }
+            for (int a = 0, N = changed.size(); a < N; a++) {
+                String name = changed.get(a);
+                FileLoadOperation operation = loadOperationPaths.get(name);
+                if (operation == null) {
+                    continue;
+                }
+                int datacenterId = operation.getDatacenterId();
+                int queueType = operation.getQueueType();
+                FileLoadQueue queue = getLoadOperationQueue(datacenterId, queueType);
+                if (queue.setVisible(operation, isFileVisible(name)) && queue.hasVisible()) {
+                    preemptStaleOperation(datacenterId, queueType);
+                }
+            }
+        });
+    }
+
+    /**
+     * Pauses one running download of the queue that is neither visible nor requested explicitly
+     * and starts the first waiting one in its place.
+     */
+    private void preemptStaleOperation(int datacenterId, int queueType) {
+        FileLoadQueue queue = getLoadOperationQueue(datacenterId, queueType);
+        SparseIntArray count = getLoadOperationCount(queueType);
+        for (FileLoadOperation operation : loadOperationPaths.values()) {
+            if (operation.getDatacenterId() != datacenterId || operation.getQueueType() != queueType || !operation.wasStarted() ||
+                    operation.getPriority() > 0 || operation.isForceRequest() || operation.isPreloadVideoOperation() ||
+                    isFileVisible(operation.getFileName()) || operation.getFileName().equals(forceLoadingFile)) {
+                continue;
+            }
+            if (BuildVars.LOGS_ENABLED) {
+                FileLog.d("pause " + operation.getFileName() + " for visible " + queue.peek().getFileName());
+            }
+            operation.pause();
+            count.put(datacenterId, count.get(datacenterId) - 1);
+            if (queueType == QUEUE_TYPE_FILE) {
+                activeFileLoadOperation.remove(operation);
+            }
+            queue.add(operation, false);
+            startQueuedOperations(datacenterId, queueType);
+            return;
+        }
+    }
+
+    /**
+     * Returns queue wait times and the average speed of finished downloads.
+     */
+    public String getQueueStats() {
+        final CountDownLatch semaphore = new CountDownLatch(1);
+        final StringBuilder builder = new StringBuilder();
+        fileLoaderQueue.postRunnable(() -> {
+            appendQueueStats(builder, "files", fileLoadOperationQueues);
+            appendQueueStats(builder, "images", imageLoadOperationQueues);
+            appendQueueStats(builder, "audio", audioLoadOperationQueues);
+            builder.append("finished ").append(finishedOperationsCount).append(" avg speed ")
+                    .append(finishedOperationsCount != 0 ? finishedOperationsSpeed / finishedOperationsCount / 1024 : 0).append("KB/s");
+            semaphore.countDown();
         });
+        try {
+            semaphore.await();
+        } catch (Exception e) {
+            FileLog.e(e);
+        }
+        return builder.toString();
+    }
+
+    private static void appendQueueStats(StringBuilder builder, String name, SparseArray<FileLoadQueue> queues) {
+        for (int a = 0, N = queues.size(); a < N; a++) {
+            builder.append(name).append(" dc").append(queues.keyAt(a)).append(": ");
+            queues.valueAt(a).appendStats(builder);
+            builder.append('\n');
+        }
     }
 
     public void setDelegate(FileLoaderDelegate fileLoaderDelegate) {
@@ -1228,6 +1339,7 @@ public class FileLoader extends BaseController {
         if (files == null || files.isEmpty()) {
             return;
         }
+        MediaCacheLedger.getInstance().forget(files);
         fileLoaderQueue.postRunnable(() -> {
             for (int a = 0; a < files.size(); a++) {
                 File file = files.get(a);
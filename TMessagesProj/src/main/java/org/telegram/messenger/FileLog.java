@@ -10,20 +10,68 @@ package org.telegram.messenger;
 
 import android.util.Log;
 
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
 import cn.hutool.core.util.StrUtil;
 
+/**
+ * Records are pushed into a lock-free ring buffer and written to logcat (and, with logs enabled,
+ * to a rotating file) by a background thread. Untagged records use the class that threw the
+ * logged exception, resolved on the writer, or {@link #DEFAULT_TAG}, so callers never capture
+ * their own stack. An uncaught exception is written out before the process dies.
+ */
 public class FileLog {
 
+    private static final int RING_SIZE = 1024;
+    private static final long FLUSH_INTERVAL = TimeUnit.MILLISECONDS.toNanos(200);
+    private static final long MAX_FILE_SIZE = 2 * 1024 * 1024;
+    private static final String DEFAULT_TAG = "tmessages";
+
+    private static final class Record {
+        final long time;
+        final int priority;
+        final String tag;
+        final String message;
+        final Throwable exception;
+
+        Record(int priority, String tag, String message, Throwable exception) {
+            this.time = System.currentTimeMillis();
+            this.priority = priority;
+            this.tag = tag;
+            this.message = message;
+            this.exception = exception;
+        }
+    }
+
+    private static final AtomicReferenceArray<Record> ring = new AtomicReferenceArray<>(RING_SIZE);
+    private static final AtomicLong head = new AtomicLong();
+    private static final AtomicLong tail = new AtomicLong();
+    private static final AtomicLong dropped = new AtomicLong();
+    private static final Object drainLock = new Object();
+    private static volatile Thread writer;
+
+    private static File logFile;
+    private static BufferedWriter fileWriter;
+    private static SimpleDateFormat dateFormat;
+
     public static String getNetworkLogPath() {
         if (BuildVars.DEBUG_VERSION) return "/dev/null";
         return "";
     }
 
-    private static String mkTag() {
-
-        final StackTraceElement[] stackTrace = Thread.currentThread().getStackTrace();
-        return StrUtil.subAfter(stackTrace[4].getClassName(), ".", true);
-
+    private static String mkTag(Throwable exception) {
+        StackTraceElement[] stackTrace = exception.getStackTrace();
+        return stackTrace.length > 0 ? StrUtil.subAfter(stackTrace[0].getClassName(), ".", true) : DEFAULT_TAG;
     }
 
     private static String mkMessage(Throwable e) {
@@ -32,26 +80,204 @@ public class FileLog {
         return e.getClass().getSimpleName();
     }
 
+    private static void enqueue(int priority, String tag, String message, Throwable exception) {
+        Record record = new Record(priority, tag, message, exception);
+        long index;
+        while (true) {
+            index = head.get();
+            if (index - tail.get() >= RING_SIZE) {
+                dropped.incrementAndGet();
+                wakeWriter();
+                return;
+            }
+            if (head.compareAndSet(index, index + 1)) {
+                break;
+            }
+        }
+        ring.set((int) (index & (RING_SIZE - 1)), record);
+        long pending = index - tail.get();
+        // the writer parks without a timeout once the ring is empty, the first record wakes it
+        if (pending == 0 || priority >= Log.ERROR || pending >= RING_SIZE / 2) {
+            wakeWriter();
+        } else if (writer == null) {
+            startWriter();
+        }
+    }
+
+    private static void wakeWriter() {
+        Thread thread = writer;
+        if (thread == null) {
+            startWriter();
+        } else {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    private static synchronized void startWriter() {
+        if (writer != null) {
+            return;
+        }
+        Thread thread = new Thread("FileLog") {
+            @Override
+            public void run() {
+                while (true) {
+                    if (head.get() == tail.get()) {
+                        LockSupport.park(this);
+                        continue;
+                    }
+                    flush();
+                    // let a burst of records collect before the next write
+                    LockSupport.parkNanos(this, FLUSH_INTERVAL);
+                }
+            }
+        };
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        writer = thread;
+        thread.start();
+
+        // the writer is a daemon, whatever is still queued would die with the process
+        final Thread.UncaughtExceptionHandler previous = Thread.getDefaultUncaughtExceptionHandler();
+        Thread.setDefaultUncaughtExceptionHandler((t, e) -> {
+            try {
+                flush();
+                synchronized (drainLock) {
+                    write(new Record(Log.ASSERT, null, "uncaught exception in " + t.getName(), e));
+                    if (fileWriter != null) {
+                        fileWriter.flush();
+                    }
+                }
+            } catch (Throwable ignore) {
+
+            } finally {
+                if (previous != null) {
+                    previous.uncaughtException(t, e);
+                } else {
+                    // what ThreadGroup does without a default handler
+                    System.err.print("Exception in thread \"" + t.getName() + "\" ");
+                    e.printStackTrace(System.err);
+                }
+            }
+        });
+    }
+
+    /**
+     * Writes out everything queued so far; called periodically by the writer thread.
+     */
+    public static void flush() {
+        synchronized (drainLock) {
+            boolean wrote = false;
+            long lost = dropped.getAndSet(0);
+            if (lost > 0) {
+                write(new Record(Log.WARN, "FileLog", "dropped " + lost + " log records", null));
+                wrote = true;
+            }
+            long index = tail.get();
+            while (true) {
+                int slot = (int) (index & (RING_SIZE - 1));
+                Record record = ring.get(slot);
+                if (record == null) {
+                    break;
+                }
+                ring.set(slot, null);
+                tail.set(++index);
+                write(record);
+                wrote = true;
+            }
+            if (wrote && fileWriter != null) {
+                try {
+                    fileWriter.flush();
+                } catch (IOException ignore) {
+
+                }
+            }
+        }
+    }
+
+    private static void write(Record record) {
+        String tag = record.tag != null ? record.tag : record.exception != null ? mkTag(record.exception) : DEFAULT_TAG;
+        String message = String.valueOf(record.message);
+        if (record.exception != null) {
+            message = message + '\n' + Log.getStackTraceString(record.exception);
+        }
+        Log.println(record.priority, tag, message);
+        if (BuildVars.LOGS_ENABLED) {
+            writeToFile(record, tag, message);
+        }
+    }
+
+    private static void writeToFile(Record record, String tag, String message) {
+        try {
+            if (fileWriter == null) {
+                if (ApplicationLoader.applicationContext == null) {
+                    return;
+                }
+                File dir = ApplicationLoader.applicationContext.getExternalFilesDir("logs");
+                if (dir == null) {
+                    return;
+                }
+                logFile = new File(dir, "nekox.log");
+                fileWriter = new BufferedWriter(new FileWriter(logFile, true));
+                dateFormat = new SimpleDateFormat("MM-dd HH:mm:ss.SSS", Locale.US);
+            }
+            if (logFile.length() > MAX_FILE_SIZE) {
+                fileWriter.close();
+                File rotated = new File(logFile.getParentFile(), "nekox.1.log");
+                rotated.delete();
+                logFile.renameTo(rotated);
+                fileWriter = new BufferedWriter(new FileWriter(logFile, true));
+            }
+            fileWriter.write(dateFormat.format(new Date(record.time)));
+            fileWriter.write(' ');
+            fileWriter.write("VDIWEA".charAt(Math.max(0, Math.min(5, record.priority - Log.VERBOSE))));
+            fileWriter.write(' ');
+            fileWriter.write(tag);
+            fileWriter.write(": ");
+            fileWriter.write(message);
+            fileWriter.newLine();
+        } catch (IOException e) {
+            fileWriter = null;
+            Log.e("FileLog", "failed to write log file", e);
+        }
+    }
+
     public static void e(final String message, final Throwable exception) {
-        Log.e(mkTag(), message, exception);
+        enqueue(Log.ERROR, null, message, exception);
     }
 
     public static void e(final String message) {
-        Log.e(mkTag(), message);
+        enqueue(Log.ERROR, null, message, null);
     }
 
     public static void e(final Throwable e) {
-        Log.e(mkTag(), mkMessage(e), e);
+        enqueue(Log.ERROR, null, mkMessage(e), e);
     }
 
     public static void d(final String message) {
         if (!BuildVars.LOGS_ENABLED) return;
-        Log.d(mkTag(), message);
+        enqueue(Log.DEBUG, null, message, null);
     }
 
     public static void w(final String message) {
         if (!BuildVars.LOGS_ENABLED) return;
-        Log.w(mkTag(), message);
+        enqueue(Log.WARN, null, message, null);
+    }
+
+    /**
+     * Explicitly tagged variants, for call sites whose records should be told apart in logcat.
+     */
+    public static void e(final String tag, final String message, final Throwable exception) {
+        enqueue(Log.ERROR, tag, message, exception);
+    }
+
+    public static void d(final String tag, final String message) {
+        if (!BuildVars.LOGS_ENABLED) return;
+        enqueue(Log.DEBUG, tag, message, null);
+    }
+
+    public static void w(final String tag, final String message) {
+        if (!BuildVars.LOGS_ENABLED) return;
+        enqueue(Log.WARN, tag, message, null);
     }
 
 }
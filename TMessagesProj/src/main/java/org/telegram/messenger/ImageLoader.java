@@ -2431,6 +2431,7 @@ public class ImageLoader {
                     }
                     img.addImageReceiver(imageReceiver, key, filter, type, guid);
                     if (onlyCache || cacheFileExists || cacheFile.exists()) {
+                        MediaCacheLedger.getInstance().touch(cacheFile);
                         img.finalFilePath = cacheFile;
                         img.imageLocation = imageLocation;
                         img.cacheTask = new CacheOutTask(img);
@@ -90,7 +90,7 @@ public class LocaleController {
     private Locale systemDefaultLocale;
     private PluralRules currentPluralRules;
     private LocaleInfo currentLocaleInfo;
-    private HashMap<String, String> localeValues = new HashMap<>();
+    private LocalePack localeValues = LocalePack.of(new HashMap<>());
     private String languageOverride;
     private boolean changingConfiguration = false;
     private boolean reloadLastFile;
@@ -692,7 +692,7 @@ public class LocaleController {
 
                     saveOtherLanguages();
                 }
-                localeValues = stringMap;
+                localeValues = LocalePack.of(stringMap);
                 applyLanguage(localeInfo, true, false, true, false, currentAccount);
                 return true;
             }
@@ -770,6 +770,7 @@ public class LocaleController {
         languagesDict.remove(localeInfo.getKey());
         File file = new File(localeInfo.pathToFile);
         file.delete();
+        LocalePack.delete(file);
         saveOtherLanguages();
         return true;
     }
@@ -818,6 +819,28 @@ public class LocaleController {
         return getLocaleFileStrings(file, false);
     }
 
+    private LocalePack getLocalePack(LocaleInfo localeInfo) {
+        if (localeInfo.hasBaseLang()) {
+            LocalePack base = getLocalePack(localeInfo.getPathToBaseFile());
+            return getLocalePack(localeInfo.getPathToFile()).withFallback(base);
+        }
+        return getLocalePack(localeInfo.getPathToFile());
+    }
+
+    private LocalePack getLocalePack(File file) {
+        if (!file.exists()) {
+            reloadLastFile = false;
+            return LocalePack.of(new HashMap<>());
+        }
+        LocalePack pack = LocalePack.open(file);
+        if (pack != null) {
+            reloadLastFile = pack.needsReload();
+            return pack;
+        }
+        HashMap<String, String> values = getLocaleFileStrings(file);
+        return LocalePack.compile(file, values, reloadLastFile);
+    }
+
     private HashMap<String, String> getLocaleFileStrings(File file, boolean preserveEscapes) {
         FileInputStream stream = null;
         reloadLastFile = false;
@@ -952,12 +975,9 @@ public class LocaleController {
                 editor.apply();
             }
             if (pathToFile == null) {
-                localeValues.clear();
+                localeValues = LocalePack.of(new HashMap<>());
             } else if (!fromFile) {
-                localeValues = getLocaleFileStrings(hasBase ? localeInfo.getPathToBaseFile() : localeInfo.getPathToFile());
-                if (hasBase) {
-                    localeValues.putAll(getLocaleFileStrings(localeInfo.getPathToFile()));
-                }
+                localeValues = getLocalePack(localeInfo);
             }
             currentLocale = newLocale;
             currentLocaleInfo = localeInfo;
@@ -1902,11 +1922,9 @@ public class LocaleController {
             }
             writer.write("</resources>");
             writer.close();
-            boolean hasBase = localeInfo.hasBaseLang();
-            final HashMap<String, String> valuesToSet = getLocaleFileStrings(hasBase ? localeInfo.getPathToBaseFile() : localeInfo.getPathToFile());
-            if (hasBase) {
-                valuesToSet.putAll(getLocaleFileStrings(localeInfo.getPathToFile()));
-            }
+            HashMap<String, String> savedValues = getLocaleFileStrings(finalFile);
+            LocalePack.compile(finalFile, savedValues, reloadLastFile);
+            final LocalePack valuesToSet = getLocalePack(localeInfo);
             AndroidUtilities.runOnUIThread(() -> {
                 if (type == 0) {
                     localeInfo.version = difference.version;
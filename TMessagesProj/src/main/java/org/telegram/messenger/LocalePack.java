@@ -0,0 +1,248 @@
+package org.telegram.messenger;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compiled form of a locale strings file, stored next to it as {@code <file>.pack} and memory
+ * mapped. Keys are kept in a table sorted by hash that points into a UTF-16 blob, so lookups are
+ * a binary search and a value becomes a String only when it is first asked for.
+ * <p>
+ * Layout (big endian): magic, version, source length and mtime, flags, count, then count hashes,
+ * count (keyStart, keyLength, valueStart, valueLength) records and the character blob.
+ */
+public class LocalePack {
+
+    private static final int MAGIC = 0x4c504b31;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 4 + 4;
+    private static final int FLAG_RELOAD = 1;
+
+    private final HashMap<String, String> values;
+    private final IntBuffer hashes;
+    private final IntBuffer records;
+    private final CharBuffer chars;
+    private final int count;
+    private final boolean reload;
+    private final ConcurrentHashMap<String, String> decoded = new ConcurrentHashMap<>();
+    private LocalePack fallback;
+
+    private LocalePack(HashMap<String, String> values) {
+        this.values = values;
+        hashes = null;
+        records = null;
+        chars = null;
+        count = values.size();
+        reload = false;
+    }
+
+    private LocalePack(ByteBuffer buffer) {
+        values = null;
+        int flags = buffer.getInt(24);
+        count = buffer.getInt(28);
+        reload = (flags & FLAG_RELOAD) != 0;
+        buffer.position(HEADER_SIZE);
+        hashes = buffer.slice().asIntBuffer();
+        buffer.position(HEADER_SIZE + count * 4);
+        records = buffer.slice().asIntBuffer();
+        buffer.position(HEADER_SIZE + count * 4 + count * 16);
+        chars = buffer.slice().asCharBuffer();
+    }
+
+    public static LocalePack of(HashMap<String, String> values) {
+        return new LocalePack(values);
+    }
+
+    private static File getPackFile(File source) {
+        return new File(source.getPath() + ".pack");
+    }
+
+    /**
+     * Maps the compiled pack of {@code source}, or returns null if it is missing or older than the file.
+     */
+    public static LocalePack open(File source) {
+        File packFile = getPackFile(source);
+        if (!packFile.exists()) {
+            return null;
+        }
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(packFile, "r");
+            FileChannel channel = file.getChannel();
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION ||
+                    buffer.getLong(8) != source.length() || buffer.getLong(16) != source.lastModified()) {
+                return null;
+            }
+            return new LocalePack(buffer);
+        } catch (Exception e) {
+            FileLog.e(e);
+            return null;
+        } finally {
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (Exception ignore) {
+
+                }
+            }
+        }
+    }
+
+    public static void delete(File source) {
+        getPackFile(source).delete();
+    }
+
+    /**
+     * Writes the pack for {@code source} from its parsed strings and maps it; on failure the
+     * strings are served from memory.
+     */
+    public static LocalePack compile(File source, HashMap<String, String> values, boolean reload) {
+        try {
+            write(source, values, reload);
+            LocalePack pack = open(source);
+            if (pack != null) {
+                return pack;
+            }
+        } catch (Exception e) {
+            FileLog.e(e);
+        }
+        return of(values);
+    }
+
+    private static void write(File source, HashMap<String, String> values, boolean reload) throws Exception {
+        int count = values.size();
+        String[] keys = values.keySet().toArray(new String[0]);
+        long[] order = new long[count];
+        for (int a = 0; a < count; a++) {
+            order[a] = (long) keys[a].hashCode() << 32 | a;
+        }
+        Arrays.sort(order);
+
+        File packFile = getPackFile(source);
+        File tmpFile = new File(packFile.getPath() + ".tmp");
+        DataOutputStream stream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+        try {
+            stream.writeInt(MAGIC);
+            stream.writeInt(VERSION);
+            stream.writeLong(source.length());
+            stream.writeLong(source.lastModified());
+            stream.writeInt(reload ? FLAG_RELOAD : 0);
+            stream.writeInt(count);
+            for (int a = 0; a < count; a++) {
+                stream.writeInt((int) (order[a] >> 32));
+            }
+            int offset = 0;
+            for (int a = 0; a < count; a++) {
+                String key = keys[(int) order[a]];
+                String value = values.get(key);
+                stream.writeInt(offset);
+                stream.writeInt(key.length());
+                stream.writeInt(offset + key.length());
+                stream.writeInt(value.length());
+                offset += key.length() + value.length();
+            }
+            for (int a = 0; a < count; a++) {
+                String key = keys[(int) order[a]];
+                stream.writeChars(key);
+                stream.writeChars(values.get(key));
+            }
+        } finally {
+            stream.close();
+        }
+        if (!tmpFile.renameTo(packFile)) {
+            throw new IllegalStateException("can't replace " + packFile);
+        }
+    }
+
+    /**
+     * Strings missing here are looked up in {@code fallback}, as a base language under its dialect.
+     */
+    public LocalePack withFallback(LocalePack fallback) {
+        this.fallback = fallback;
+        return this;
+    }
+
+    public boolean needsReload() {
+        return reload;
+    }
+
+    public String get(String key) {
+        String value;
+        if (values != null) {
+            value = values.get(key);
+        } else if ((value = decoded.get(key)) == null) {
+            int index = find(key);
+            if (index >= 0) {
+                value = readString(records.get(index * 4 + 2), records.get(index * 4 + 3));
+                decoded.put(key, value);
+            }
+        }
+        if (value == null && fallback != null) {
+            return fallback.get(key);
+        }
+        return value;
+    }
+
+    private int find(String key) {
+        int hash = key.hashCode();
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midHash = hashes.get(mid);
+            if (midHash < hash) {
+                low = mid + 1;
+            } else if (midHash > hash) {
+                high = mid - 1;
+            } else {
+                while (mid > 0 && hashes.get(mid - 1) == hash) {
+                    mid--;
+                }
+                for (; mid < count && hashes.get(mid) == hash; mid++) {
+                    if (keyEquals(mid, key)) {
+                        return mid;
+                    }
+                }
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    private boolean keyEquals(int index, String key) {
+        int start = records.get(index * 4);
+        int length = records.get(index * 4 + 1);
+        if (length != key.length()) {
+            return false;
+        }
+        for (int a = 0; a < length; a++) {
+            if (chars.get(start + a) != key.charAt(a)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String readString(int start, int length) {
+        char[] result = new char[length];
+        CharBuffer buffer = chars.duplicate();
+        buffer.position(start);
+        buffer.get(result);
+        return new String(result);
+    }
+
+    public int size() {
+        return count;
+    }
+}
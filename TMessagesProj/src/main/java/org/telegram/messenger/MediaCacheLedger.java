@@ -0,0 +1,464 @@
+package org.telegram.messenger;
+
+import android.content.SharedPreferences;
+
+import org.telegram.SQLite.SQLiteCursor;
+import org.telegram.SQLite.SQLiteDatabase;
+import org.telegram.SQLite.SQLitePreparedStatement;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Persistent record of every file FileLoader stores in the media directories (size, category,
+ * dialog and last access), so cache usage is a single aggregate query instead of a directory walk,
+ * and per-category byte budgets can be enforced in LRU order.
+ * The existing cache is indexed once by a background scan; all work runs on its own queue.
+ */
+public class MediaCacheLedger {
+
+    public static final int CATEGORY_PHOTO = 0;
+    public static final int CATEGORY_VIDEO = 1;
+    public static final int CATEGORY_DOCUMENT = 2;
+    public static final int CATEGORY_MUSIC = 3;
+    public static final int CATEGORY_AUDIO = 4;
+    public static final int CATEGORY_STICKERS = 5;
+    public static final int CATEGORY_CACHE = 6;
+    public static final int CATEGORIES_COUNT = 7;
+
+    private static final long FLUSH_DELAY = 1000;
+    private static final long RESCAN_INTERVAL = 7L * 24 * 60 * 60 * 1000;
+
+    private static class Entry {
+        String path;
+        int category;
+        long size;
+        long dialogId;
+        long access;
+    }
+
+    private static volatile MediaCacheLedger Instance;
+
+    public static MediaCacheLedger getInstance() {
+        MediaCacheLedger localInstance = Instance;
+        if (localInstance == null) {
+            synchronized (MediaCacheLedger.class) {
+                localInstance = Instance;
+                if (localInstance == null) {
+                    Instance = localInstance = new MediaCacheLedger();
+                }
+            }
+        }
+        return localInstance;
+    }
+
+    private final DispatchQueue ledgerQueue = new DispatchQueue("mediaCacheLedgerQueue");
+    private final HashMap<String, Entry> pendingRecords = new HashMap<>();
+    private final HashMap<String, Long> pendingAccess = new HashMap<>();
+    private final long[] budgets = new long[CATEGORIES_COUNT];
+    private SQLiteDatabase database;
+    private volatile boolean ready;
+    private boolean flushScheduled;
+
+    private MediaCacheLedger() {
+        SharedPreferences preferences = MessagesController.getGlobalMainSettings();
+        for (int a = 0; a < CATEGORIES_COUNT; a++) {
+            budgets[a] = preferences.getLong("cacheBudget" + a, 0);
+        }
+        ledgerQueue.postRunnable(this::open);
+    }
+
+    private void open() {
+        try {
+            database = new SQLiteDatabase(new File(ApplicationLoader.getFilesDirFixed(), "cache_ledger.db").getPath());
+            database.executeFast("PRAGMA journal_mode = WAL").stepThis().dispose();
+            database.executeFast("CREATE TABLE IF NOT EXISTS files(path TEXT PRIMARY KEY, category INTEGER, size INTEGER, dialog INTEGER, access INTEGER)").stepThis().dispose();
+            database.executeFast("CREATE INDEX IF NOT EXISTS files_category_access ON files(category, access)").stepThis().dispose();
+            SharedPreferences preferences = MessagesController.getGlobalMainSettings();
+            long lastScan = preferences.getLong("cacheLedgerScan", 0);
+            if (lastScan == 0 || Math.abs(System.currentTimeMillis() - lastScan) > RESCAN_INTERVAL) {
+                scan();
+                preferences.edit().putLong("cacheLedgerScan", System.currentTimeMillis()).commit();
+            }
+            ready = true;
+            enforceBudgets();
+        } catch (Exception e) {
+            FileLog.e(e);
+            database = null;
+        }
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public static int getCategory(File file) {
+        File parent = file.getParentFile();
+        if (parent == null) {
+            return -1;
+        }
+        for (int type = FileLoader.MEDIA_DIR_IMAGE; type <= FileLoader.MEDIA_DIR_CACHE; type++) {
+            File dir = FileLoader.checkDirectory(type);
+            if (dir == null) {
+                continue;
+            }
+            if (parent.equals(dir)) {
+                switch (type) {
+                    case FileLoader.MEDIA_DIR_IMAGE:
+                        return CATEGORY_PHOTO;
+                    case FileLoader.MEDIA_DIR_VIDEO:
+                        return CATEGORY_VIDEO;
+                    case FileLoader.MEDIA_DIR_DOCUMENT:
+                        return isMusic(file.getName()) ? CATEGORY_MUSIC : CATEGORY_DOCUMENT;
+                    case FileLoader.MEDIA_DIR_AUDIO:
+                        return CATEGORY_AUDIO;
+                    default:
+                        return CATEGORY_CACHE;
+                }
+            }
+            if (type == FileLoader.MEDIA_DIR_CACHE && parent.equals(new File(dir, "acache"))) {
+                return CATEGORY_STICKERS;
+            }
+        }
+        return -1;
+    }
+
+    // same split as the native getDirSize docType 1/2
+    private static boolean isMusic(String name) {
+        String lower = name.toLowerCase();
+        return lower.endsWith(".mp3") || lower.endsWith(".m4a");
+    }
+
+    public void record(File file, long dialogId) {
+        if (file == null) {
+            return;
+        }
+        int category = getCategory(file);
+        if (category < 0) {
+            return;
+        }
+        Entry entry = new Entry();
+        entry.path = file.getAbsolutePath();
+        entry.category = category;
+        entry.size = file.length();
+        entry.dialogId = dialogId;
+        entry.access = System.currentTimeMillis();
+        synchronized (pendingRecords) {
+            pendingRecords.put(entry.path, entry);
+            scheduleFlush();
+        }
+    }
+
+    public void touch(File file) {
+        if (file == null) {
+            return;
+        }
+        synchronized (pendingRecords) {
+            pendingAccess.put(file.getAbsolutePath(), System.currentTimeMillis());
+            scheduleFlush();
+        }
+    }
+
+    private void scheduleFlush() {
+        if (!flushScheduled) {
+            flushScheduled = true;
+            ledgerQueue.postRunnable(this::flush, FLUSH_DELAY);
+        }
+    }
+
+    private void flush() {
+        ArrayList<Entry> records;
+        HashMap<String, Long> access;
+        synchronized (pendingRecords) {
+            flushScheduled = false;
+            records = new ArrayList<>(pendingRecords.values());
+            access = new HashMap<>(pendingAccess);
+            pendingRecords.clear();
+            pendingAccess.clear();
+        }
+        if (database == null || records.isEmpty() && access.isEmpty()) {
+            return;
+        }
+        try {
+            database.beginTransaction();
+            SQLitePreparedStatement state = database.executeFast("REPLACE INTO files VALUES(?, ?, ?, ?, ?)");
+            for (int a = 0, N = records.size(); a < N; a++) {
+                Entry entry = records.get(a);
+                state.requery();
+                state.bindString(1, entry.path);
+                state.bindInteger(2, entry.category);
+                state.bindLong(3, entry.size);
+                state.bindLong(4, entry.dialogId);
+                state.bindLong(5, entry.access);
+                state.step();
+            }
+            state.dispose();
+            state = database.executeFast("UPDATE files SET access = ? WHERE path = ?");
+            for (Map.Entry<String, Long> entry : access.entrySet()) {
+                state.requery();
+                state.bindLong(1, entry.getValue());
+                state.bindString(2, entry.getKey());
+                state.step();
+            }
+            state.dispose();
+            database.commitTransaction();
+        } catch (Exception e) {
+            FileLog.e(e);
+        }
+        if (!records.isEmpty()) {
+            enforceBudgets();
+        }
+    }
+
+    /**
+     * Indexes the files already present in the media directories, with their modification time
+     * as last access, and drops records of files that are gone. Runs on first start and then
+     * weekly to absorb changes made outside FileLoader.
+     */
+    private void scan() throws Exception {
+        long time = System.currentTimeMillis();
+        deleteMissing();
+        database.beginTransaction();
+        SQLitePreparedStatement state = database.executeFast("INSERT OR IGNORE INTO files VALUES(?, ?, ?, 0, ?)");
+        ArrayList<File> dirs = new ArrayList<>();
+        for (int type = FileLoader.MEDIA_DIR_IMAGE; type <= FileLoader.MEDIA_DIR_CACHE; type++) {
+            File dir = FileLoader.checkDirectory(type);
+            if (dir != null && !dirs.contains(dir)) {
+                dirs.add(dir);
+            }
+        }
+        File cacheDir = FileLoader.checkDirectory(FileLoader.MEDIA_DIR_CACHE);
+        if (cacheDir != null) {
+            dirs.add(new File(cacheDir, "acache"));
+        }
+        int count = 0;
+        for (int a = 0; a < dirs.size(); a++) {
+            File[] files = dirs.get(a).listFiles();
+            if (files == null) {
+                continue;
+            }
+            for (File file : files) {
+                if (!file.isFile() || file.getName().startsWith(".")) {
+                    continue;
+                }
+                int category = getCategory(file);
+                if (category < 0) {
+                    continue;
+                }
+                state.requery();
+                state.bindString(1, file.getAbsolutePath());
+                state.bindInteger(2, category);
+                state.bindLong(3, file.length());
+                state.bindLong(4, file.lastModified());
+                state.step();
+                count++;
+            }
+        }
+        state.dispose();
+        database.commitTransaction();
+        if (BuildVars.LOGS_ENABLED) {
+            FileLog.d("media cache ledger indexed " + count + " files in " + (System.currentTimeMillis() - time) + "ms");
+        }
+    }
+
+    private int deleteMissing() throws Exception {
+        ArrayList<String> missing = new ArrayList<>();
+        SQLiteCursor cursor = database.queryFinalized("SELECT path FROM files");
+        while (cursor.next()) {
+            String path = cursor.stringValue(0);
+            if (!new File(path).exists()) {
+                missing.add(path);
+            }
+        }
+        cursor.dispose();
+        deletePaths(missing);
+        return missing.size();
+    }
+
+    private void deletePaths(ArrayList<String> paths) throws Exception {
+        if (paths.isEmpty()) {
+            return;
+        }
+        database.beginTransaction();
+        SQLitePreparedStatement state = database.executeFast("DELETE FROM files WHERE path = ?");
+        for (int a = 0, N = paths.size(); a < N; a++) {
+            state.requery();
+            state.bindString(1, paths.get(a));
+            state.step();
+        }
+        state.dispose();
+        database.commitTransaction();
+    }
+
+    /**
+     * Drops the records of files FileLoader has just deleted.
+     */
+    public void forget(ArrayList<File> files) {
+        ArrayList<String> paths = new ArrayList<>(files.size());
+        for (int a = 0, N = files.size(); a < N; a++) {
+            paths.add(files.get(a).getAbsolutePath());
+        }
+        ledgerQueue.postRunnable(() -> {
+            flush();
+            if (database == null) {
+                return;
+            }
+            try {
+                deletePaths(paths);
+            } catch (Exception e) {
+                FileLog.e(e);
+            }
+        });
+    }
+
+    /**
+     * Drops the records of files deleted behind FileLoader's back, e.g. by the keep media cleanup.
+     */
+    public void forgetDeleted() {
+        ledgerQueue.postRunnable(() -> {
+            flush();
+            if (database == null) {
+                return;
+            }
+            try {
+                int count = deleteMissing();
+                if (BuildVars.LOGS_ENABLED && count > 0) {
+                    FileLog.d("media cache ledger dropped " + count + " deleted files");
+                }
+            } catch (Exception e) {
+                FileLog.e(e);
+            }
+        });
+    }
+
+    /**
+     * Returns bytes per category, indexed by the CATEGORY_ constants, or null while the initial
+     * scan has not finished. Blocks the calling (background) thread on the ledger queue.
+     */
+    public long[] getUsage() {
+        if (!ready) {
+            return null;
+        }
+        long[][] result = new long[1][];
+        CountDownLatch latch = new CountDownLatch(1);
+        ledgerQueue.postRunnable(() -> {
+            flush();
+            result[0] = querySizes();
+            latch.countDown();
+        });
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            FileLog.e(e);
+        }
+        return result[0];
+    }
+
+    private long[] querySizes() {
+        if (database == null) {
+            return null;
+        }
+        long[] sizes = new long[CATEGORIES_COUNT];
+        try {
+            SQLiteCursor cursor = database.queryFinalized("SELECT category, SUM(size) FROM files GROUP BY category");
+            while (cursor.next()) {
+                int category = cursor.intValue(0);
+                if (category >= 0 && category < CATEGORIES_COUNT) {
+                    sizes[category] = cursor.longValue(1);
+                }
+            }
+            cursor.dispose();
+        } catch (Exception e) {
+            FileLog.e(e);
+            return null;
+        }
+        return sizes;
+    }
+
+    /**
+     * Drops the records of a category after its directory has been cleared.
+     */
+    public void forgetCategory(int category) {
+        ledgerQueue.postRunnable(() -> {
+            flush();
+            if (database == null) {
+                return;
+            }
+            try {
+                SQLitePreparedStatement state = database.executeFast("DELETE FROM files WHERE category = ?");
+                state.bindInteger(1, category);
+                state.step();
+                state.dispose();
+            } catch (Exception e) {
+                FileLog.e(e);
+            }
+        });
+    }
+
+    public void setBudget(int category, long bytes) {
+        budgets[category] = bytes;
+        MessagesController.getGlobalMainSettings().edit().putLong("cacheBudget" + category, bytes).commit();
+        ledgerQueue.postRunnable(this::enforceBudgets);
+    }
+
+    public long getBudget(int category) {
+        return budgets[category];
+    }
+
+    private void enforceBudgets() {
+        if (database == null) {
+            return;
+        }
+        long[] sizes = null;
+        for (int a = 0; a < CATEGORIES_COUNT; a++) {
+            if (budgets[a] <= 0) {
+                continue;
+            }
+            if (sizes == null && (sizes = querySizes()) == null) {
+                return;
+            }
+            if (sizes[a] > budgets[a]) {
+                deleteOldest(a, sizes[a] - budgets[a]);
+            }
+        }
+    }
+
+    /**
+     * Removes least recently used files of the category until at least bytesToFree are released.
+     */
+    private void deleteOldest(int category, long bytesToFree) {
+        try {
+            ArrayList<String> removed = new ArrayList<>();
+            long freed = 0;
+            SQLiteCursor cursor = database.queryFinalized("SELECT path, size FROM files WHERE category = " + category + " ORDER BY access ASC");
+            while (freed < bytesToFree && cursor.next()) {
+                String path = cursor.stringValue(0);
+                File file = new File(path);
+                if (!file.exists() || file.delete()) {
+                    freed += cursor.longValue(1);
+                    removed.add(path);
+                }
+            }
+            cursor.dispose();
+            if (removed.isEmpty()) {
+                return;
+            }
+            deletePaths(removed);
+            if (BuildVars.LOGS_ENABLED) {
+                FileLog.d("media cache ledger evicted " + removed.size() + " files, " + freed + " bytes of category " + category);
+            }
+        } catch (Exception e) {
+            FileLog.e(e);
+        }
+    }
+
+    public static long getDialogId(Object parentObject) {
+        if (parentObject instanceof MessageObject) {
+            return ((MessageObject) parentObject).getDialogId();
+        }
+        return 0;
+    }
+}
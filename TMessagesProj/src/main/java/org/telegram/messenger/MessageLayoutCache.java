@@ -0,0 +1,178 @@
+package org.telegram.messenger;
+
+import android.text.Layout;
+import android.util.LruCache;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Text layouts generated by {@link MessageObject#generateLayout}, keyed by account, message, text,
+ * paint size and density, so a chat reopened or a configuration flipped back reuses the laid out
+ * text instead of building the StaticLayouts again. Layouts without soft wraps or RTL lines are reused
+ * for any width they still fit in. Batches of messages loaded from storage are laid out on a
+ * small worker pool before they are handed to the UI.
+ */
+public class MessageLayoutCache {
+
+    private static final int MAX_CACHED_CHARS = 512 * 1024;
+
+    private static class Entry {
+        CharSequence messageText;
+        ArrayList<MessageObject.TextLayoutBlock> textLayoutBlocks;
+        int maxWidth;
+        boolean reflowFree;
+        int textWidth;
+        int textHeight;
+        int linesCount;
+        int lastLineWidth;
+        float textXOffset;
+        boolean hasRtl;
+    }
+
+    private static volatile MessageLayoutCache Instance;
+
+    public static MessageLayoutCache getInstance() {
+        MessageLayoutCache localInstance = Instance;
+        if (localInstance == null) {
+            synchronized (MessageLayoutCache.class) {
+                localInstance = Instance;
+                if (localInstance == null) {
+                    Instance = localInstance = new MessageLayoutCache();
+                }
+            }
+        }
+        return localInstance;
+    }
+
+    private final LruCache<String, Entry> entries = new LruCache<String, Entry>(MAX_CACHED_CHARS) {
+        @Override
+        protected int sizeOf(String key, Entry value) {
+            return Math.max(1, value.messageText.length());
+        }
+    };
+    private final ThreadPoolExecutor layoutPool;
+    private final ThreadLocal<ArrayList<MessageObject>> deferred = new ThreadLocal<>();
+
+    private MessageLayoutCache() {
+        int threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+        layoutPool = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+        layoutPool.allowCoreThreadTimeOut(true);
+    }
+
+    boolean restore(MessageObject messageObject, String key, int maxWidth) {
+        Entry entry = entries.get(key);
+        if (entry == null || entry.maxWidth != maxWidth && !(entry.reflowFree && entry.textWidth <= maxWidth)) {
+            return false;
+        }
+        messageObject.messageText = entry.messageText;
+        messageObject.textLayoutBlocks = new ArrayList<>(entry.textLayoutBlocks);
+        messageObject.textWidth = entry.textWidth;
+        messageObject.textHeight = entry.textHeight;
+        messageObject.linesCount = entry.linesCount;
+        messageObject.lastLineWidth = entry.lastLineWidth;
+        messageObject.textXOffset = entry.textXOffset;
+        messageObject.hasRtl = entry.hasRtl;
+        return true;
+    }
+
+    void put(MessageObject messageObject, String key, int maxWidth, Layout textLayout) {
+        Entry entry = new Entry();
+        entry.messageText = messageObject.messageText;
+        entry.textLayoutBlocks = new ArrayList<>(messageObject.textLayoutBlocks);
+        entry.maxWidth = maxWidth;
+        entry.reflowFree = !messageObject.hasRtl && !hasSoftWraps(textLayout);
+        entry.textWidth = messageObject.textWidth;
+        entry.textHeight = messageObject.textHeight;
+        entry.linesCount = messageObject.linesCount;
+        entry.lastLineWidth = messageObject.lastLineWidth;
+        entry.textXOffset = messageObject.textXOffset;
+        entry.hasRtl = messageObject.hasRtl;
+        entries.put(key, entry);
+    }
+
+    private static boolean hasSoftWraps(Layout layout) {
+        CharSequence text = layout.getText();
+        for (int a = 0, N = layout.getLineCount() - 1; a < N; a++) {
+            int end = layout.getLineEnd(a);
+            if (end <= 0 || text.charAt(end - 1) != '\n') {
+                return true;
+            }
+            if (layout.getParagraphDirection(a) != Layout.DIR_LEFT_TO_RIGHT) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Until {@link #generateDeferred()} is called on this thread, MessageObjects created here
+     * leave their text layout to be generated in one parallel batch.
+     */
+    public void beginDeferred() {
+        if (deferred.get() != null) {
+            // a previous batch on this thread was abandoned by an exception
+            generateDeferred();
+        }
+        deferred.set(new ArrayList<>());
+    }
+
+    boolean defer(MessageObject messageObject) {
+        ArrayList<MessageObject> objects = deferred.get();
+        if (objects == null) {
+            return false;
+        }
+        objects.add(messageObject);
+        return true;
+    }
+
+    /**
+     * Generates the layouts deferred since {@link #beginDeferred()} on the worker pool, with the
+     * calling thread taking part, and returns once all of them are done.
+     */
+    public void generateDeferred() {
+        ArrayList<MessageObject> objects = deferred.get();
+        deferred.remove();
+        if (objects == null || objects.isEmpty()) {
+            return;
+        }
+        AtomicInteger next = new AtomicInteger();
+        int workers = Math.min(layoutPool.getMaximumPoolSize(), objects.size() - 1);
+        CountDownLatch latch = new CountDownLatch(workers);
+        for (int a = 0; a < workers; a++) {
+            layoutPool.execute(() -> {
+                generateNext(objects, next);
+                latch.countDown();
+            });
+        }
+        generateNext(objects, next);
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            FileLog.e(e);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void generateNext(ArrayList<MessageObject> objects, AtomicInteger next) {
+        int index;
+        while ((index = next.getAndIncrement()) < objects.size()) {
+            try {
+                objects.get(index).generateLayout(null);
+            } catch (Exception e) {
+                FileLog.e(e);
+            }
+        }
+    }
+
+    /**
+     * Drops all cached layouts; called when an account logs out.
+     */
+    public void clear() {
+        entries.evictAll();
+    }
+}
@@ -955,7 +955,9 @@ public class MessageObject {
                 }
             }
             if (emojiAnimatedSticker == null) {
-                generateLayout(fromUser);
+                if (!MessageLayoutCache.getInstance().defer(this)) {
+                    generateLayout(fromUser);
+                }
             } else {
                 type = 1000;
                 if (isSticker()) {
@@ -3997,6 +3999,21 @@ public class MessageObject {
         }
 
         generateLinkDescription();
+
+        int maxWidth = getMaxMessageTextWidth();
+
+        TextPaint paint;
+        if (messageOwner.media instanceof TLRPC.TL_messageMediaGame) {
+            paint = Theme.chat_msgGameTextPaint;
+        } else {
+            paint = Theme.chat_msgTextPaint;
+        }
+
+        String layoutKey = getLayoutCacheKey(paint);
+        if (layoutKey != null && MessageLayoutCache.getInstance().restore(this, layoutKey, maxWidth)) {
+            return;
+        }
+
         textLayoutBlocks = new ArrayList<>();
         textWidth = 0;
 
@@ -4048,17 +4065,8 @@ public class MessageObject {
 
         boolean hasUrls = addEntitiesToText(messageText, useManualParse);
 
-        int maxWidth = getMaxMessageTextWidth();
-
         StaticLayout textLayout;
 
-        TextPaint paint;
-        if (messageOwner.media instanceof TLRPC.TL_messageMediaGame) {
-            paint = Theme.chat_msgGameTextPaint;
-        } else {
-            paint = Theme.chat_msgTextPaint;
-        }
-
         try {
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
                 textLayout = StaticLayout.Builder.obtain(messageText, 0, messageText.length(), paint, maxWidth)
@@ -4263,6 +4271,18 @@ public class MessageObject {
 
             linesOffset += currentBlockLinesCount;
         }
+
+        if (layoutKey != null) {
+            MessageLayoutCache.getInstance().put(this, layoutKey, maxWidth, textLayout);
+        }
+    }
+
+    private String getLayoutCacheKey(TextPaint paint) {
+        if (messageOwner.id <= 0 || messageOwner.send_state != MESSAGE_SEND_STATE_SENT || eventId != 0) {
+            return null;
+        }
+        return currentAccount + "_" + getDialogId() + "_" + messageOwner.id + "_" + (scheduled ? 1 : 0) + "_" + messageOwner.edit_date + "_" + messageText.toString().hashCode() +
+                "_" + (replyMessageObject != null ? replyMessageObject.getId() : 0) + "_" + emojiOnlyCount + "_" + paint.getTextSize() + "_" + AndroidUtilities.density;
     }
 
     public boolean isOut() {
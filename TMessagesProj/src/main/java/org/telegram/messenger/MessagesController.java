@@ -683,6 +683,31 @@ public class MessagesController extends BaseController implements NotificationCe
         return 0;
     };
 
+    private final DialogsSortIndex dialogsSortIndex = new DialogsSortIndex();
+    private final DialogsSortIndex filterDialogsSortIndex = new DialogsSortIndex();
+
+    private static final long KEY_FOLDER = 1L << 62;
+    private static final long KEY_PINNED = 1L << 61;
+
+    // Same order as dialogComparator when no NekoConfig sorting option is set.
+    private final DialogsSortIndex.KeyProvider dialogKeyProvider = dialog -> {
+        long key = dialog instanceof TLRPC.TL_dialogFolder ? KEY_FOLDER : 0;
+        if (dialog.pinned) {
+            return key | KEY_PINNED | (dialog.pinnedNum - (long) Integer.MIN_VALUE);
+        }
+        return key | Math.max(0, DialogObject.getLastMessageOrDraftDate(dialog, getMediaDataController().getDraft(dialog.id, 0)));
+    };
+
+    // Same order as dialogDateComparator for sortingDialogFilter.
+    private final DialogsSortIndex.KeyProvider dialogDateKeyProvider = dialog -> {
+        long key = dialog instanceof TLRPC.TL_dialogFolder ? KEY_FOLDER : 0;
+        int pinnedNum = sortingDialogFilter.pinnedDialogs.get(dialog.id, Integer.MIN_VALUE);
+        if (pinnedNum != Integer.MIN_VALUE) {
+            return key | KEY_PINNED | ((long) Integer.MAX_VALUE - pinnedNum);
+        }
+        return key | Math.max(0, DialogObject.getLastMessageOrDraftDate(dialog, getMediaDataController().getDraft(dialog.id, 0)));
+    };
+
     private final Comparator<TLRPC.Update> updatesComparator = (lhs, rhs) -> {
         int ltype = getUpdateType(lhs);
         int rtype = getUpdateType(rhs);
@@ -2392,6 +2417,7 @@ public class MessagesController extends BaseController implements NotificationCe
         getSecretChatHelper().cleanup();
         getLocationController().cleanup();
         getMediaDataController().cleanup();
+        MessageLayoutCache.getInstance().clear();
 
         DialogsActivity.dialogsLoaded[currentAccount] = false;
 
@@ -6200,6 +6226,7 @@ public class MessagesController extends BaseController implements NotificationCe
         final HashMap<String, ArrayList<MessageObject>> webpagesToReload = new HashMap<>();
         TLRPC.InputChannel inputChannel = null;
         long fileProcessTime = 0;
+        MessageLayoutCache.getInstance().beginDeferred();
         for (int a = 0; a < size; a++) {
             TLRPC.Message message = messagesRes.messages.get(a);
             message.dialog_id = dialogId;
@@ -6230,6 +6257,7 @@ public class MessagesController extends BaseController implements NotificationCe
                 }
             }
         }
+        MessageLayoutCache.getInstance().generateDeferred();
         if (BuildVars.LOGS_ENABLED) {
             FileLog.d("process time = " + (SystemClock.elapsedRealtime() - startProcessTime) + " file time = " + fileProcessTime + " for dialog = " + dialogId);
         }
@@ -13692,13 +13720,34 @@ public class MessagesController extends BaseController implements NotificationCe
         unreadUnmutedDialogs = 0;
         boolean selfAdded = false;
         int selfId = getUserConfig().getClientUserId();
+        if (NekoConfig.sortByUnread || NekoConfig.sortByUnmuted) {
+
+            try {
+
+                Collections.sort(allDialogs, dialogComparator);
+
+            } catch (Exception e) {
+
+                NekoConfig.sortByUnread = false;
+                NekoConfig.sortByUnmuted = false;
+                NekoConfig.sortByUser = false;
+                NekoConfig.sortByContacts = false;
+
+                dialogsSortIndex.sort(allDialogs, dialogKeyProvider);
+
+            }
+
+        } else {
+
+            dialogsSortIndex.sort(allDialogs, dialogKeyProvider);
+
+        }
         if (selectedDialogFilter[0] != null || selectedDialogFilter[1] != null) {
             for (int b = 0; b < selectedDialogFilter.length; b++) {
                 sortingDialogFilter = selectedDialogFilter[b];
                 if (sortingDialogFilter == null) {
                     continue;
                 }
-                Collections.sort(allDialogs, dialogDateComparator);
                 ArrayList<TLRPC.Dialog> dialogsByFilter = sortingDialogFilter.dialogs;
 
                 for (int a = 0, N = allDialogs.size(); a < N; a++) {
@@ -13717,31 +13766,13 @@ public class MessagesController extends BaseController implements NotificationCe
                         }
                     }
                 }
+                // Collected in allDialogs order, which is by date apart from the pins: globally pinned
+                // dialogs lead there but are not pinned inside a filter, and the filter's own pins
+                // (sortingDialogFilter.pinnedDialogs) sit at their date position. dialogDateKeyProvider
+                // applies the filter's pins; with few pins the list is nearly sorted and stays incremental.
+                filterDialogsSortIndex.sort(dialogsByFilter, dialogDateKeyProvider);
             }
         }
-
-        try {
-
-            Collections.sort(allDialogs, dialogComparator);
-
-        } catch (Exception e) {
-
-            NekoConfig.sortByUnread = false;
-            NekoConfig.sortByUnmuted = false;
-            NekoConfig.sortByUser = false;
-            NekoConfig.sortByContacts = false;
-
-            try {
-
-                Collections.sort(allDialogs, dialogComparator);
-
-            } catch (Exception ex) {
-
-                FileLog.e(ex);
-
-            }
-
-        }
         isLeftPromoChannel = true;
         if (promoDialog != null && promoDialog.id < 0) {
             TLRPC.Chat chat = getChat(-(int) promoDialog.id);
@@ -0,0 +1,370 @@
+package org.telegram.messenger;
+
+import android.text.TextUtils;
+
+import org.telegram.SQLite.SQLiteCursor;
+import org.telegram.SQLite.SQLiteDatabase;
+import org.telegram.SQLite.SQLitePreparedStatement;
+import org.telegram.tgnet.NativeByteBuffer;
+import org.telegram.tgnet.TLRPC;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+
+/**
+ * Local full-text index over cached message texts, stored in an FTS5 table keyed by message id.
+ * Texts are pre-tokenized here so that CJK runs are searchable (unigrams + bigrams) and Cyrillic
+ * words can be found by their transliteration; the FTS tokenizer itself only folds case and diacritics.
+ */
+public class MessagesSearchIndex {
+
+    private static final int BACKFILL_BATCH = 500;
+    private static final int BACKFILL_DELAY = 200;
+
+    private final MessagesStorage storage;
+    private boolean available;
+    private boolean backfillRunning;
+
+    public MessagesSearchIndex(MessagesStorage storage) {
+        this.storage = storage;
+    }
+
+    public void createTables() {
+        try {
+            SQLiteDatabase database = storage.getDatabase();
+            database.executeFast("CREATE VIRTUAL TABLE IF NOT EXISTS messages_fts USING fts5(uid UNINDEXED, text, tokenize = 'unicode61 remove_diacritics 2')").stepThis().dispose();
+            database.executeFast("CREATE TABLE IF NOT EXISTS messages_fts_state(id INTEGER PRIMARY KEY, backfill_mid INTEGER, done INTEGER)").stepThis().dispose();
+            available = true;
+        } catch (Exception e) {
+            available = false;
+            FileLog.e(e);
+        }
+    }
+
+    public boolean isAvailable() {
+        return available;
+    }
+
+    private static boolean isCjk(int codePoint) {
+        return codePoint >= 0x3040 && codePoint <= 0x30ff || codePoint >= 0x3400 && codePoint <= 0x4dbf || codePoint >= 0x4e00 && codePoint <= 0x9fff
+                || codePoint >= 0x1100 && codePoint <= 0x11ff || codePoint >= 0xac00 && codePoint <= 0xd7af || codePoint >= 0xf900 && codePoint <= 0xfaff
+                || codePoint >= 0x20000 && codePoint <= 0x2fa1f;
+    }
+
+    /**
+     * Splits text into index terms: letter/digit words (plus their transliteration when it differs)
+     * and, for CJK runs, every single character and every adjacent pair.
+     */
+    static ArrayList<String> tokenize(String text, boolean translit) {
+        ArrayList<String> result = new ArrayList<>();
+        if (TextUtils.isEmpty(text)) {
+            return result;
+        }
+        String lower = text.toLowerCase();
+        StringBuilder word = new StringBuilder();
+        int prevCjk = -1;
+        for (int i = 0, n = lower.length(); i < n; ) {
+            int codePoint = lower.codePointAt(i);
+            i += Character.charCount(codePoint);
+            if (isCjk(codePoint)) {
+                flushWord(word, result, translit);
+                String unigram = new String(Character.toChars(codePoint));
+                result.add(unigram);
+                if (prevCjk != -1) {
+                    result.add(new String(Character.toChars(prevCjk)) + unigram);
+                }
+                prevCjk = codePoint;
+            } else if (Character.isLetterOrDigit(codePoint)) {
+                word.appendCodePoint(codePoint);
+                prevCjk = -1;
+            } else {
+                flushWord(word, result, translit);
+                prevCjk = -1;
+            }
+        }
+        flushWord(word, result, translit);
+        return result;
+    }
+
+    private static void flushWord(StringBuilder word, ArrayList<String> result, boolean translit) {
+        if (word.length() == 0) {
+            return;
+        }
+        String token = word.toString();
+        word.setLength(0);
+        result.add(token);
+        if (translit) {
+            String transliterated = LocaleController.getInstance().getTranslitString(token);
+            if (transliterated != null && transliterated.length() > 0 && !transliterated.equals(token)) {
+                result.add(transliterated);
+            }
+        }
+    }
+
+    static String buildIndexText(String text) {
+        return TextUtils.join(" ", new LinkedHashSet<>(tokenize(text, true)));
+    }
+
+    /**
+     * Builds an FTS5 MATCH expression: every query term must match, latin/cyrillic words are
+     * prefix-matched and may match either spelling, CJK terms match the indexed uni/bigrams exactly.
+     */
+    static String buildMatchQuery(String query) {
+        return buildMatchQuery(query, true);
+    }
+
+    static String buildMatchQuery(String query, boolean translit) {
+        if (TextUtils.isEmpty(query)) {
+            return null;
+        }
+        StringBuilder result = new StringBuilder();
+        String lower = query.trim().toLowerCase();
+        StringBuilder run = new StringBuilder();
+        StringBuilder word = new StringBuilder();
+        for (int i = 0, n = lower.length(); i <= n; ) {
+            int codePoint = i < n ? lower.codePointAt(i) : ' ';
+            i += i < n ? Character.charCount(codePoint) : 1;
+            boolean cjk = isCjk(codePoint);
+            if (!cjk && run.length() > 0) {
+                appendCjkRun(run.toString(), result);
+                run.setLength(0);
+            }
+            if (cjk || !Character.isLetterOrDigit(codePoint)) {
+                if (word.length() > 0) {
+                    appendWord(word.toString(), result, translit);
+                    word.setLength(0);
+                }
+                if (cjk) {
+                    run.appendCodePoint(codePoint);
+                }
+            } else {
+                word.appendCodePoint(codePoint);
+            }
+        }
+        return result.length() == 0 ? null : result.toString();
+    }
+
+    private static void appendTerm(StringBuilder result, String term) {
+        if (result.length() > 0) {
+            result.append(" AND ");
+        }
+        result.append(term);
+    }
+
+    private static void appendWord(String word, StringBuilder result, boolean translit) {
+        String transliterated = translit ? LocaleController.getInstance().getTranslitString(word) : null;
+        if (transliterated != null && transliterated.length() > 0 && !transliterated.equals(word)) {
+            appendTerm(result, "(\"" + word + "\"* OR \"" + transliterated + "\"*)");
+        } else {
+            appendTerm(result, "\"" + word + "\"*");
+        }
+    }
+
+    private static void appendCjkRun(String run, StringBuilder result) {
+        int count = run.codePointCount(0, run.length());
+        if (count == 1) {
+            appendTerm(result, "\"" + run + "\"");
+            return;
+        }
+        for (int a = 0; a < count - 1; a++) {
+            int start = run.offsetByCodePoints(0, a);
+            int end = run.offsetByCodePoints(start, 2);
+            appendTerm(result, "\"" + run.substring(start, end) + "\"");
+        }
+    }
+
+    private static boolean canIndex(long did, TLRPC.Message message) {
+        return (int) did != 0 && message.ttl == 0 && !TextUtils.isEmpty(message.message);
+    }
+
+    public void indexMessage(long mid, long did, TLRPC.Message message) {
+        if (!available) {
+            return;
+        }
+        try {
+            indexMessageInternal(mid, did, message);
+        } catch (Exception e) {
+            FileLog.e(e);
+        }
+    }
+
+    private void indexMessageInternal(long mid, long did, TLRPC.Message message) throws Exception {
+        SQLiteDatabase database = storage.getDatabase();
+        SQLitePreparedStatement state = database.executeFast("DELETE FROM messages_fts WHERE rowid = ?");
+        state.bindLong(1, mid);
+        state.step();
+        state.dispose();
+        if (!canIndex(did, message)) {
+            return;
+        }
+        String text = buildIndexText(message.message);
+        if (text.length() == 0) {
+            return;
+        }
+        state = database.executeFast("INSERT INTO messages_fts(rowid, uid, text) VALUES(?, ?, ?)");
+        state.bindLong(1, mid);
+        state.bindLong(2, did);
+        state.bindString(3, text);
+        state.step();
+        state.dispose();
+    }
+
+    public void removeMessages(String ids) {
+        if (!available) {
+            return;
+        }
+        try {
+            storage.getDatabase().executeFast(String.format(Locale.US, "DELETE FROM messages_fts WHERE rowid IN(%s)", ids)).stepThis().dispose();
+        } catch (Exception e) {
+            FileLog.e(e);
+        }
+    }
+
+    public void removeDialog(long did) {
+        if (!available) {
+            return;
+        }
+        try {
+            storage.getDatabase().executeFast("DELETE FROM messages_fts WHERE uid = " + did).stepThis().dispose();
+        } catch (Exception e) {
+            FileLog.e(e);
+        }
+    }
+
+    public void removeDialogs(String ids) {
+        if (!available) {
+            return;
+        }
+        try {
+            storage.getDatabase().executeFast("DELETE FROM messages_fts WHERE uid IN " + ids).stepThis().dispose();
+        } catch (Exception e) {
+            FileLog.e(e);
+        }
+    }
+
+    public void removeChannelMessages(long did, long maxMessageId) {
+        if (!available) {
+            return;
+        }
+        try {
+            storage.getDatabase().executeFast(String.format(Locale.US, "DELETE FROM messages_fts WHERE uid = %d AND rowid <= %d", did, maxMessageId)).stepThis().dispose();
+        } catch (Exception e) {
+            FileLog.e(e);
+        }
+    }
+
+    public void startBackfill() {
+        if (!available) {
+            return;
+        }
+        storage.getStorageQueue().postRunnable(this::backfillNext);
+    }
+
+    private void backfillNext() {
+        if (backfillRunning) {
+            return;
+        }
+        backfillRunning = true;
+        boolean finished = true;
+        try {
+            SQLiteDatabase database = storage.getDatabase();
+            long offsetMid = Long.MAX_VALUE;
+            SQLiteCursor cursor = database.queryFinalized("SELECT backfill_mid, done FROM messages_fts_state WHERE id = 1");
+            if (cursor.next()) {
+                if (cursor.intValue(1) != 0) {
+                    cursor.dispose();
+                    return;
+                }
+                offsetMid = cursor.longValue(0);
+            }
+            cursor.dispose();
+
+            int clientUserId = UserConfig.getInstance(storage.currentAccount).clientUserId;
+            int count = 0;
+            long lastMid = offsetMid;
+            database.beginTransaction();
+            cursor = database.queryFinalized("SELECT mid, uid, data, ttl FROM messages WHERE mid < ? ORDER BY mid DESC LIMIT " + BACKFILL_BATCH, offsetMid);
+            while (cursor.next()) {
+                count++;
+                lastMid = cursor.longValue(0);
+                long did = cursor.longValue(1);
+                NativeByteBuffer data = cursor.byteBufferValue(2);
+                if (data == null) {
+                    continue;
+                }
+                TLRPC.Message message = TLRPC.Message.TLdeserialize(data, data.readInt32(false), false);
+                if (message != null) {
+                    message.readAttachPath(data, clientUserId);
+                }
+                data.reuse();
+                if (message != null) {
+                    message.ttl = cursor.intValue(3);
+                    indexMessageInternal(lastMid, did, message);
+                }
+            }
+            cursor.dispose();
+            finished = count < BACKFILL_BATCH;
+
+            SQLitePreparedStatement state = database.executeFast("REPLACE INTO messages_fts_state VALUES(1, ?, ?)");
+            state.bindLong(1, lastMid);
+            state.bindInteger(2, finished ? 1 : 0);
+            state.step();
+            state.dispose();
+            database.commitTransaction();
+            if (BuildVars.LOGS_ENABLED && finished) {
+                FileLog.d("messages search index backfill finished");
+            }
+        } catch (Exception e) {
+            storage.getDatabase().commitTransaction();
+            FileLog.e(e);
+        } finally {
+            backfillRunning = false;
+        }
+        if (!finished) {
+            storage.getStorageQueue().postRunnable(this::backfillNext, BACKFILL_DELAY);
+        }
+    }
+
+    /**
+     * Returns cached messages matching the query, newest first. Rows whose message is gone from
+     * the messages table are dropped by the join, so lazily-deleted index entries never surface.
+     */
+    public ArrayList<TLRPC.Message> search(String query, long dialogId, int limit) throws Exception {
+        ArrayList<TLRPC.Message> result = new ArrayList<>();
+        String match = buildMatchQuery(query);
+        if (!available || match == null) {
+            return result;
+        }
+        SQLiteDatabase database = storage.getDatabase();
+        SQLiteCursor cursor;
+        if (dialogId != 0) {
+            cursor = database.queryFinalized("SELECT m.data, m.mid, m.uid, m.date, m.read_state, m.send_state FROM messages_fts INNER JOIN messages AS m ON m.mid = messages_fts.rowid WHERE messages_fts MATCH ? AND m.uid = ? ORDER BY m.date DESC LIMIT " + limit, match, dialogId);
+        } else {
+            cursor = database.queryFinalized("SELECT m.data, m.mid, m.uid, m.date, m.read_state, m.send_state FROM messages_fts INNER JOIN messages AS m ON m.mid = messages_fts.rowid WHERE messages_fts MATCH ? ORDER BY m.date DESC LIMIT " + limit, match);
+        }
+        int clientUserId = UserConfig.getInstance(storage.currentAccount).clientUserId;
+        while (cursor.next()) {
+            NativeByteBuffer data = cursor.byteBufferValue(0);
+            if (data == null) {
+                continue;
+            }
+            TLRPC.Message message = TLRPC.Message.TLdeserialize(data, data.readInt32(false), false);
+            if (message != null) {
+                message.readAttachPath(data, clientUserId);
+            }
+            data.reuse();
+            if (message == null) {
+                continue;
+            }
+            message.id = cursor.intValue(1);
+            message.dialog_id = cursor.longValue(2);
+            message.date = cursor.intValue(3);
+            MessageObject.setUnreadFlags(message, cursor.intValue(4));
+            message.send_state = cursor.intValue(5);
+            result.add(message);
+        }
+        cursor.dispose();
+        return result;
+    }
+}
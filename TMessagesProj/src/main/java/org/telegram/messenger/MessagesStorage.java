@@ -60,8 +60,14 @@ public class MessagesStorage extends BaseController {
         void run(boolean param);
     }
 
+    public interface SearchMessagesCallback {
+        void run(ArrayList<MessageObject> messages);
+    }
+
     private DispatchQueue storageQueue = new DispatchQueue("storageQueue");
     private SQLiteDatabase database;
+    private MessagesSearchIndex searchIndex = new MessagesSearchIndex(this);
+    private DialogsNameIndex nameIndex = new DialogsNameIndex(this);
     private File cacheFile;
     private File walCacheFile;
     private File shmCacheFile;
@@ -457,9 +463,12 @@ public class MessagesStorage extends BaseController {
                 openDatabase(openTries == 1 ? 2 : 3);
             }
         }
+        searchIndex.createTables();
+        nameIndex.createTables();
         loadDialogFilters();
         loadUnreadMessages();
         loadPendingTasks();
+        searchIndex.startBackfill();
         try {
             openSync.countDown();
         } catch (Throwable ignore) {
@@ -977,6 +986,7 @@ public class MessagesStorage extends BaseController {
         dialogFilters.clear();
         dialogFiltersMap.clear();
         unknownDialogsIds.clear();
+        nameIndex.clear();
 
         lastSavedSeq = 0;
         lastSavedPts = 0;
@@ -3157,6 +3167,7 @@ public class MessagesStorage extends BaseController {
 
                 database.executeFast("UPDATE dialogs SET unread_count = 0, unread_count_i = 0 WHERE did = " + did).stepThis().dispose();
                 database.executeFast("DELETE FROM messages WHERE uid = " + did).stepThis().dispose();
+                searchIndex.removeDialog(did);
                 database.executeFast("DELETE FROM bot_keyboard WHERE uid = " + did).stepThis().dispose();
                 database.executeFast("DELETE FROM media_counts_v2 WHERE uid = " + did).stepThis().dispose();
                 database.executeFast("DELETE FROM media_v2 WHERE uid = " + did).stepThis().dispose();
@@ -3290,6 +3301,7 @@ public class MessagesStorage extends BaseController {
                 database.executeFast("DELETE FROM chat_pinned_v2 WHERE uid IN " + ids).stepThis().dispose();
                 database.executeFast("DELETE FROM dialogs WHERE did IN " + ids).stepThis().dispose();
                 database.executeFast("DELETE FROM messages WHERE uid IN " + ids).stepThis().dispose();
+                searchIndex.removeDialogs(ids);
                 database.executeFast("DELETE FROM polls WHERE 1").stepThis().dispose();
                 database.executeFast("DELETE FROM bot_keyboard WHERE uid IN " + ids).stepThis().dispose();
                 database.executeFast("DELETE FROM media_v2 WHERE uid IN " + ids).stepThis().dispose();
@@ -7367,8 +7379,10 @@ public class MessagesStorage extends BaseController {
             state.requery();
             NativeByteBuffer data = new NativeByteBuffer(user.getObjectSize());
             user.serializeToStream(data);
+            String searchName = formatUserSearchName(user);
             state.bindInteger(1, user.id);
-            state.bindString(2, formatUserSearchName(user));
+            state.bindString(2, searchName);
+            nameIndex.putUser(user.id, searchName);
             if (user.status != null) {
                 if (user.status instanceof TLRPC.TL_userStatusRecently) {
                     user.status.expires = -100;
@@ -7484,8 +7498,10 @@ public class MessagesStorage extends BaseController {
             if (chat.title != null) {
                 String name = chat.title.toLowerCase();
                 state.bindString(2, name);
+                nameIndex.putChat(chat.id, name);
             } else {
                 state.bindString(2, "");
+                nameIndex.putChat(chat.id, "");
             }
             state.bindByteBuffer(3, data);
             state.step();
@@ -7827,6 +7843,7 @@ public class MessagesStorage extends BaseController {
                 database.executeFast("DELETE FROM chat_pinned_count WHERE uid = " + did).stepThis().dispose();
                 database.executeFast("DELETE FROM chat_pinned_v2 WHERE uid = " + did).stepThis().dispose();
                 database.executeFast("DELETE FROM messages WHERE uid = " + did).stepThis().dispose();
+                searchIndex.removeDialog(did);
                 database.executeFast("DELETE FROM bot_keyboard WHERE uid = " + did).stepThis().dispose();
                 database.executeFast("UPDATE media_counts_v2 SET old = 1 WHERE uid = " + did).stepThis().dispose();
                 database.executeFast("DELETE FROM media_v2 WHERE uid = " + did).stepThis().dispose();
@@ -8408,6 +8425,7 @@ public class MessagesStorage extends BaseController {
                         state_messages.bindInteger(14, 0);
                     }
                     state_messages.step();
+                    searchIndex.indexMessage(messageId, message.dialog_id, message);
 
                     if (message.random_id != 0) {
                         state_randoms.requery();
@@ -9287,6 +9305,7 @@ public class MessagesStorage extends BaseController {
                     }
                 }
                 database.executeFast(String.format(Locale.US, "DELETE FROM messages WHERE mid IN(%s)", ids)).stepThis().dispose();
+                searchIndex.removeMessages(ids);
                 database.executeFast(String.format(Locale.US, "DELETE FROM polls WHERE mid IN(%s)", ids)).stepThis().dispose();
                 database.executeFast(String.format(Locale.US, "DELETE FROM bot_keyboard WHERE mid IN(%s)", ids)).stepThis().dispose();
                 database.executeFast(String.format(Locale.US, "DELETE FROM messages_seq WHERE mid IN(%s)", ids)).stepThis().dispose();
@@ -9632,6 +9651,7 @@ public class MessagesStorage extends BaseController {
             }
 
             database.executeFast(String.format(Locale.US, "DELETE FROM messages WHERE uid = %d AND mid <= %d", -channelId, maxMessageId)).stepThis().dispose();
+            searchIndex.removeChannelMessages(-channelId, maxMessageId);
             database.executeFast(String.format(Locale.US, "DELETE FROM media_v2 WHERE uid = %d AND mid <= %d", -channelId, maxMessageId)).stepThis().dispose();
             database.executeFast(String.format(Locale.US, "UPDATE media_counts_v2 SET old = 1 WHERE uid = %d", -channelId)).stepThis().dispose();
             updateWidgets(dialogsIds);
@@ -9938,6 +9958,7 @@ public class MessagesStorage extends BaseController {
                     state.bindInteger(14, 0);
                 }
                 state.step();
+                searchIndex.indexMessage(messageId, message.dialog_id, message);
 
                 if (MediaDataController.canAddMessageToMedia(message)) {
                     state2.requery();
@@ -10208,6 +10229,7 @@ public class MessagesStorage extends BaseController {
                             state_messages.bindInteger(14, 0);
                         }
                         state_messages.step();
+                        searchIndex.indexMessage(messageId, dialog_id, message);
 
                         if (MediaDataController.canAddMessageToMedia(message)) {
                             state_media.requery();
@@ -10813,6 +10835,7 @@ public class MessagesStorage extends BaseController {
                             state_messages.bindInteger(14, 0);
                         }
                         state_messages.step();
+                        searchIndex.indexMessage(messageId, dialog.id, message);
 
                         if (MediaDataController.canAddMessageToMedia(message)) {
                             state_media.requery();
@@ -11315,6 +11338,63 @@ public class MessagesStorage extends BaseController {
     }
 
 
+    public void searchMessagesOffline(String query, long dialogId, int limit, SearchMessagesCallback callback) {
+        storageQueue.postRunnable(() -> {
+            ArrayList<TLRPC.Message> messages;
+            ArrayList<TLRPC.User> users = new ArrayList<>();
+            ArrayList<TLRPC.Chat> chats = new ArrayList<>();
+            try {
+                messages = searchIndex.search(query, dialogId, limit);
+                ArrayList<Integer> usersToLoad = new ArrayList<>();
+                ArrayList<Integer> chatsToLoad = new ArrayList<>();
+                for (int a = 0; a < messages.size(); a++) {
+                    TLRPC.Message message = messages.get(a);
+                    addUsersAndChatsFromMessage(message, usersToLoad, chatsToLoad);
+                    int lowerId = (int) message.dialog_id;
+                    if (lowerId > 0) {
+                        if (!usersToLoad.contains(lowerId)) {
+                            usersToLoad.add(lowerId);
+                        }
+                    } else if (lowerId < 0) {
+                        if (!chatsToLoad.contains(-lowerId)) {
+                            chatsToLoad.add(-lowerId);
+                        }
+                    }
+                }
+                if (!usersToLoad.isEmpty()) {
+                    getUsersInternal(TextUtils.join(",", usersToLoad), users);
+                }
+                if (!chatsToLoad.isEmpty()) {
+                    getChatsInternal(TextUtils.join(",", chatsToLoad), chats);
+                }
+            } catch (Exception e) {
+                FileLog.e(e);
+                messages = new ArrayList<>();
+            }
+            SparseArray<TLRPC.User> usersDict = new SparseArray<>();
+            SparseArray<TLRPC.Chat> chatsDict = new SparseArray<>();
+            for (int a = 0; a < users.size(); a++) {
+                TLRPC.User user = users.get(a);
+                usersDict.put(user.id, user);
+            }
+            for (int a = 0; a < chats.size(); a++) {
+                TLRPC.Chat chat = chats.get(a);
+                chatsDict.put(chat.id, chat);
+            }
+            ArrayList<MessageObject> result = new ArrayList<>();
+            for (int a = 0; a < messages.size(); a++) {
+                MessageObject messageObject = new MessageObject(currentAccount, messages.get(a), usersDict, chatsDict, false, true);
+                messageObject.setQuery(query);
+                result.add(messageObject);
+            }
+            AndroidUtilities.runOnUIThread(() -> {
+                getMessagesController().putUsers(users, true);
+                getMessagesController().putChats(chats, true);
+                callback.run(result);
+            });
+        });
+    }
+
     public void localSearch(int dialogsType, String query, ArrayList<TLObject> resultArray, ArrayList<CharSequence> resultArrayNames, ArrayList<TLRPC.User> encUsers, int folderId) {
         int selfUserId = UserConfig.getInstance(currentAccount).getClientUserId();
         try {
@@ -11333,6 +11413,28 @@ public class MessagesStorage extends BaseController {
                 search[1] = search2;
             }
 
+            nameIndex.ensureBuilt(database);
+            ArrayList<DialogsNameIndex.Match> matches = nameIndex.search(database, search, true, dialogsType != 4);
+            SparseArray<ArrayList<Integer>> encryptedChatsByUser = dialogsType == 0 || dialogsType == 3 ? nameIndex.loadEncryptedChats(database) : null;
+            LongSparseArray<DialogsNameIndex.Match> matchesMap = new LongSparseArray<>();
+            StringBuilder dialogIds = new StringBuilder();
+            for (int a = 0; a < matches.size(); a++) {
+                DialogsNameIndex.Match match = matches.get(a);
+                matchesMap.put(match.key, match);
+                if (dialogIds.length() > 0) {
+                    dialogIds.append(",");
+                }
+                dialogIds.append(match.key);
+                if (match.key > 0 && encryptedChatsByUser != null) {
+                    ArrayList<Integer> encryptedChats = encryptedChatsByUser.get((int) match.key);
+                    if (encryptedChats != null) {
+                        for (int b = 0; b < encryptedChats.size(); b++) {
+                            dialogIds.append(",").append(((long) encryptedChats.get(b)) << 32);
+                        }
+                    }
+                }
+            }
+
             ArrayList<Integer> usersToLoad = new ArrayList<>();
             ArrayList<Integer> chatsToLoad = new ArrayList<>();
             ArrayList<Integer> encryptedToLoad = new ArrayList<>();
@@ -11340,42 +11442,40 @@ public class MessagesStorage extends BaseController {
 
             LongSparseArray<DialogsSearchAdapter.DialogSearchResult> dialogsResult = new LongSparseArray<>();
             SQLiteCursor cursor;
-            if (folderId >= 0) {
-                cursor = getDatabase().queryFinalized("SELECT did, date FROM dialogs WHERE folder_id = ? ORDER BY date DESC LIMIT 600", folderId);
-            } else {
-                cursor = getDatabase().queryFinalized("SELECT did, date FROM dialogs ORDER BY date DESC LIMIT 600");
-            }
-            while (cursor.next()) {
-                long id = cursor.longValue(0);
-                DialogsSearchAdapter.DialogSearchResult dialogSearchResult = new DialogsSearchAdapter.DialogSearchResult();
-                dialogSearchResult.date = cursor.intValue(1);
-                dialogsResult.put(id, dialogSearchResult);
+            if (dialogIds.length() > 0) {
+                if (folderId >= 0) {
+                    cursor = getDatabase().queryFinalized(String.format(Locale.US, "SELECT did, date FROM dialogs WHERE folder_id = ? AND did IN(%s)", dialogIds), folderId);
+                } else {
+                    cursor = getDatabase().queryFinalized(String.format(Locale.US, "SELECT did, date FROM dialogs WHERE did IN(%s)", dialogIds));
+                }
+                while (cursor.next()) {
+                    long id = cursor.longValue(0);
+                    DialogsSearchAdapter.DialogSearchResult dialogSearchResult = new DialogsSearchAdapter.DialogSearchResult();
+                    dialogSearchResult.date = cursor.intValue(1);
+                    dialogsResult.put(id, dialogSearchResult);
 
-                int lower_id = (int) id;
-                int high_id = (int) (id >> 32);
-                if (lower_id != 0) {
-                    if (lower_id > 0) {
-                        if (dialogsType == 4 && lower_id == selfUserId) {
-                            continue;
-                        }
-                        if (dialogsType != 2 && !usersToLoad.contains(lower_id)) {
-                            usersToLoad.add(lower_id);
-                        }
-                    } else {
-                        if (dialogsType == 4) {
-                            continue;
-                        }
-                        if (!chatsToLoad.contains(-lower_id)) {
+                    int lower_id = (int) id;
+                    int high_id = (int) (id >> 32);
+                    if (lower_id != 0) {
+                        if (lower_id > 0) {
+                            if (dialogsType == 4 && lower_id == selfUserId) {
+                                continue;
+                            }
+                            if (dialogsType != 2) {
+                                usersToLoad.add(lower_id);
+                            }
+                        } else {
+                            if (dialogsType == 4) {
+                                continue;
+                            }
                             chatsToLoad.add(-lower_id);
                         }
-                    }
-                } else if (dialogsType == 0 || dialogsType == 3) {
-                    if (!encryptedToLoad.contains(high_id)) {
+                    } else if (dialogsType == 0 || dialogsType == 3) {
                         encryptedToLoad.add(high_id);
                     }
                 }
+                cursor.dispose();
             }
-            cursor.dispose();
 
             if (dialogsType != 4 && savedMessages.startsWith(search1)) {
                 TLRPC.User user = UserConfig.getInstance(currentAccount).getCurrentUser();
@@ -11388,88 +11488,51 @@ public class MessagesStorage extends BaseController {
             }
 
             if (!usersToLoad.isEmpty()) {
-                cursor = getDatabase().queryFinalized(String.format(Locale.US, "SELECT data, status, name, uid FROM users WHERE uid IN(%s)", TextUtils.join(",", usersToLoad)));
+                cursor = getDatabase().queryFinalized(String.format(Locale.US, "SELECT data, status, uid FROM users WHERE uid IN(%s)", TextUtils.join(",", usersToLoad)));
                 while (cursor.next()) {
-                    String name = cursor.stringValue(2);
-                    String tName = LocaleController.getInstance().getTranslitString(name);
-                    if (name.equals(tName)) {
-                        tName = null;
-                    }
-                    String username = null;
-                    int usernamePos = name.lastIndexOf(";;;");
-                    if (usernamePos != -1) {
-                        username = name.substring(usernamePos + 3);
-                    }
-                    int found = 0;
-                    int uid = cursor.intValue(3);
-                    for (String q : search) {
-                        if (name.startsWith(q) || name.contains(" " + q) || tName != null && (tName.startsWith(q) || tName.contains(" " + q))) {
-                            found = 1;
-                        } else if (username != null && username.startsWith(q)) {
-                            found = 2;
-                        } else if (NumberUtil.isInteger(q) && (NumberUtil.parseInt(q) == uid || q.length() > 3 && StrUtil.utf8Str(uid).contains(q))) {
-                            found = 3;
-                        }
-                        if (found != 0) {
-                            NativeByteBuffer data = cursor.byteBufferValue(0);
-                            if (data != null) {
-                                TLRPC.User user = TLRPC.User.TLdeserialize(data, data.readInt32(false), false);
-                                data.reuse();
-                                DialogsSearchAdapter.DialogSearchResult dialogSearchResult = dialogsResult.get(user.id);
-                                if (user.status != null) {
-                                    user.status.expires = cursor.intValue(1);
-                                }
-                                if (found == 1) {
-                                    dialogSearchResult.name = AndroidUtilities.generateSearchName(user.first_name, user.last_name, q);
-                                } else if (found == 2) {
-                                    dialogSearchResult.name = AndroidUtilities.generateSearchName("@" + user.username, null, "@" + q);
-                                } else {
-                                    dialogSearchResult.name = AndroidUtilities.generateSearchName("ID: " + uid, null, q);
-                                }
-                                dialogSearchResult.object = user;
-                                resultCount++;
-                            }
-                            break;
+                    int uid = cursor.intValue(2);
+                    DialogsSearchAdapter.DialogSearchResult dialogSearchResult = dialogsResult.get(uid);
+                    DialogsNameIndex.Match match = matchesMap.get(uid);
+                    if (dialogSearchResult == null || match == null || dialogSearchResult.object != null) {
+                        continue;
+                    }
+                    NativeByteBuffer data = cursor.byteBufferValue(0);
+                    if (data != null) {
+                        TLRPC.User user = TLRPC.User.TLdeserialize(data, data.readInt32(false), false);
+                        data.reuse();
+                        if (user.status != null) {
+                            user.status.expires = cursor.intValue(1);
                         }
+                        dialogSearchResult.name = generateUserSearchName(user, uid, match);
+                        dialogSearchResult.object = user;
+                        resultCount++;
                     }
                 }
                 cursor.dispose();
             }
 
             if (!chatsToLoad.isEmpty()) {
-                cursor = getDatabase().queryFinalized(String.format(Locale.US, "SELECT data, name, uid FROM chats WHERE uid IN(%s)", TextUtils.join(",", chatsToLoad)));
+                cursor = getDatabase().queryFinalized(String.format(Locale.US, "SELECT data, uid FROM chats WHERE uid IN(%s)", TextUtils.join(",", chatsToLoad)));
                 while (cursor.next()) {
-                    String name = cursor.stringValue(1);
-                    String tName = LocaleController.getInstance().getTranslitString(name);
-                    if (name.equals(tName)) {
-                        tName = null;
-                    }
-                    int chatId = cursor.intValue(2);
-                    for (String q : search) {
-                        int found = 0;
-                        if (name.startsWith(q) || name.contains(" " + q) || tName != null && (tName.startsWith(q) || tName.contains(" " + q))) {
-                            found = 1;
-                        } else if (NumberUtil.isInteger(q) && (NumberUtil.parseInt(q) == chatId || q.length() > 3 && StrUtil.utf8Str(chatId).contains(q))) {
-                            found = 2;
-                        }
-                        if (found > 0) {
-                            NativeByteBuffer data = cursor.byteBufferValue(0);
-                            if (data != null) {
-                                TLRPC.Chat chat = TLRPC.Chat.TLdeserialize(data, data.readInt32(false), false);
-                                data.reuse();
-                                if (!(chat == null || chat.deactivated || ChatObject.isChannel(chat) && ChatObject.isNotInChat(chat))) {
-                                    long dialog_id = -chat.id;
-                                    DialogsSearchAdapter.DialogSearchResult dialogSearchResult = dialogsResult.get(dialog_id);
-                                    if (found == 1) {
-                                        dialogSearchResult.name = AndroidUtilities.generateSearchName(chat.title, null, q);
-                                    } else {
-                                        dialogSearchResult.name = AndroidUtilities.generateSearchName("ID: " + chatId, null, q);
-                                    }
-                                    dialogSearchResult.object = chat;
-                                    resultCount++;
-                                }
+                    int chatId = cursor.intValue(1);
+                    DialogsNameIndex.Match match = matchesMap.get(-chatId);
+                    if (match == null) {
+                        continue;
+                    }
+                    NativeByteBuffer data = cursor.byteBufferValue(0);
+                    if (data != null) {
+                        TLRPC.Chat chat = TLRPC.Chat.TLdeserialize(data, data.readInt32(false), false);
+                        data.reuse();
+                        if (!(chat == null || chat.deactivated || ChatObject.isChannel(chat) && ChatObject.isNotInChat(chat))) {
+                            long dialog_id = -chat.id;
+                            DialogsSearchAdapter.DialogSearchResult dialogSearchResult = dialogsResult.get(dialog_id);
+                            if (match.found == DialogsNameIndex.FOUND_NAME) {
+                                dialogSearchResult.name = AndroidUtilities.generateSearchName(chat.title, null, match.query);
+                            } else {
+                                dialogSearchResult.name = AndroidUtilities.generateSearchName("ID: " + chatId, null, match.query);
                             }
-                            break;
+                            dialogSearchResult.object = chat;
+                            resultCount++;
                         }
                     }
                 }
@@ -11479,84 +11542,64 @@ public class MessagesStorage extends BaseController {
             if (!encryptedToLoad.isEmpty()) {
                 cursor = getDatabase().queryFinalized(String.format(Locale.US, "SELECT q.data, u.name, q.user, q.g, q.authkey, q.ttl, u.data, u.status, q.layer, q.seq_in, q.seq_out, q.use_count, q.exchange_id, q.key_date, q.fprint, q.fauthkey, q.khash, q.in_seq_no, q.admin_id, q.mtproto_seq FROM enc_chats as q INNER JOIN users as u ON q.user = u.uid WHERE q.uid IN(%s)", TextUtils.join(",", encryptedToLoad)));
                 while (cursor.next()) {
-                    String name = cursor.stringValue(1);
-                    String tName = LocaleController.getInstance().getTranslitString(name);
-                    if (name.equals(tName)) {
-                        tName = null;
+                    int user_id = cursor.intValue(2);
+                    DialogsNameIndex.Match match = matchesMap.get(user_id);
+                    if (match == null) {
+                        continue;
                     }
-
-                    String username = null;
-                    int usernamePos = name.lastIndexOf(";;;");
-                    if (usernamePos != -1) {
-                        username = name.substring(usernamePos + 2);
+                    TLRPC.EncryptedChat chat = null;
+                    TLRPC.User user = null;
+                    NativeByteBuffer data = cursor.byteBufferValue(0);
+                    if (data != null) {
+                        chat = TLRPC.EncryptedChat.TLdeserialize(data, data.readInt32(false), false);
+                        data.reuse();
                     }
+                    data = cursor.byteBufferValue(6);
+                    if (data != null) {
+                        user = TLRPC.User.TLdeserialize(data, data.readInt32(false), false);
+                        data.reuse();
+                    }
+                    if (chat != null && user != null) {
+                        DialogsSearchAdapter.DialogSearchResult dialogSearchResult = dialogsResult.get((long) chat.id << 32);
+                        if (dialogSearchResult == null) {
+                            continue;
+                        }
+                        chat.user_id = user_id;
+                        chat.a_or_b = cursor.byteArrayValue(3);
+                        chat.auth_key = cursor.byteArrayValue(4);
+                        chat.ttl = cursor.intValue(5);
+                        chat.layer = cursor.intValue(8);
+                        chat.seq_in = cursor.intValue(9);
+                        chat.seq_out = cursor.intValue(10);
+                        int use_count = cursor.intValue(11);
+                        chat.key_use_count_in = (short) (use_count >> 16);
+                        chat.key_use_count_out = (short) (use_count);
+                        chat.exchange_id = cursor.longValue(12);
+                        chat.key_create_date = cursor.intValue(13);
+                        chat.future_key_fingerprint = cursor.longValue(14);
+                        chat.future_auth_key = cursor.byteArrayValue(15);
+                        chat.key_hash = cursor.byteArrayValue(16);
+                        chat.in_seq_no = cursor.intValue(17);
+                        int admin_id = cursor.intValue(18);
+                        if (admin_id != 0) {
+                            chat.admin_id = admin_id;
+                        }
+                        chat.mtproto_seq = cursor.intValue(19);
 
-                    int user_id = cursor.intValue(2);
-                    int found = 0;
-                    for (int a = 0; a < search.length; a++) {
-                        String q = search[a];
-                        if (name.startsWith(q) || name.contains(" " + q) || tName != null && (tName.startsWith(q) || tName.contains(" " + q))) {
-                            found = 1;
-                        } else if (username != null && username.startsWith(q)) {
-                            found = 2;
-                        } else if (NumberUtil.isInteger(q) && (NumberUtil.parseInt(q) == user_id || q.length() > 3 && StrUtil.utf8Str(user_id).contains(q))) {
-                            found = 3;
-                        }
-
-                        if (found != 0) {
-                            TLRPC.EncryptedChat chat = null;
-                            TLRPC.User user = null;
-                            NativeByteBuffer data = cursor.byteBufferValue(0);
-                            if (data != null) {
-                                chat = TLRPC.EncryptedChat.TLdeserialize(data, data.readInt32(false), false);
-                                data.reuse();
-                            }
-                            data = cursor.byteBufferValue(6);
-                            if (data != null) {
-                                user = TLRPC.User.TLdeserialize(data, data.readInt32(false), false);
-                                data.reuse();
-                            }
-                            if (chat != null && user != null) {
-                                DialogsSearchAdapter.DialogSearchResult dialogSearchResult = dialogsResult.get((long) chat.id << 32);
-                                chat.user_id = user_id;
-                                chat.a_or_b = cursor.byteArrayValue(3);
-                                chat.auth_key = cursor.byteArrayValue(4);
-                                chat.ttl = cursor.intValue(5);
-                                chat.layer = cursor.intValue(8);
-                                chat.seq_in = cursor.intValue(9);
-                                chat.seq_out = cursor.intValue(10);
-                                int use_count = cursor.intValue(11);
-                                chat.key_use_count_in = (short) (use_count >> 16);
-                                chat.key_use_count_out = (short) (use_count);
-                                chat.exchange_id = cursor.longValue(12);
-                                chat.key_create_date = cursor.intValue(13);
-                                chat.future_key_fingerprint = cursor.longValue(14);
-                                chat.future_auth_key = cursor.byteArrayValue(15);
-                                chat.key_hash = cursor.byteArrayValue(16);
-                                chat.in_seq_no = cursor.intValue(17);
-                                int admin_id = cursor.intValue(18);
-                                if (admin_id != 0) {
-                                    chat.admin_id = admin_id;
-                                }
-                                chat.mtproto_seq = cursor.intValue(19);
-
-                                if (user.status != null) {
-                                    user.status.expires = cursor.intValue(7);
-                                }
-                                if (found == 1) {
-                                    dialogSearchResult.name = new SpannableStringBuilder(ContactsController.formatName(user.first_name, user.last_name));
-                                    ((SpannableStringBuilder) dialogSearchResult.name).setSpan(new ForegroundColorSpan(Theme.getColor(Theme.key_chats_secretName)), 0, dialogSearchResult.name.length(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
-                                } else if (found == 2) {
-                                    dialogSearchResult.name = AndroidUtilities.generateSearchName("@" + user.username, null, "@" + q);
-                                } else {
-                                    dialogSearchResult.name = AndroidUtilities.generateSearchName("ID: " + user_id, null, q);
-                                }
-                                dialogSearchResult.object = chat;
-                                encUsers.add(user);
-                                resultCount++;
-                            }
-                            break;
+                        if (user.status != null) {
+                            user.status.expires = cursor.intValue(7);
                         }
+                        if (match.found == DialogsNameIndex.FOUND_NAME) {
+                            dialogSearchResult.name = new SpannableStringBuilder(ContactsController.formatName(user.first_name, user.last_name));
+                            ((SpannableStringBuilder) dialogSearchResult.name).setSpan(new ForegroundColorSpan(Theme.getColor(Theme.key_chats_secretName)), 0, dialogSearchResult.name.length(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+                        } else if (match.found == DialogsNameIndex.FOUND_USERNAME) {
+                            dialogSearchResult.name = AndroidUtilities.generateSearchName("@" + user.username, null, "@" + match.query);
+                        } else {
+                            dialogSearchResult.name = AndroidUtilities.generateSearchName("ID: " + user_id, null, match.query);
+                        }
+                        dialogSearchResult.object = chat;
+                        encUsers.add(user);
+                        resultCount++;
                     }
                 }
                 cursor.dispose();
@@ -11586,56 +11629,47 @@ public class MessagesStorage extends BaseController {
             }
 
             if (dialogsType != 2) {
-                cursor = getDatabase().queryFinalized("SELECT u.data, u.status, u.name, u.uid FROM users as u INNER JOIN contacts as c ON u.uid = c.uid");
-                while (cursor.next()) {
-                    int uid = cursor.intValue(3);
-                    if (dialogsResult.indexOfKey(uid) >= 0) {
-                        continue;
+                StringBuilder contactIds = new StringBuilder();
+                for (int a = 0; a < matches.size(); a++) {
+                    long key = matches.get(a).key;
+                    if (key > 0 && dialogsResult.indexOfKey(key) < 0) {
+                        if (contactIds.length() > 0) {
+                            contactIds.append(",");
+                        }
+                        contactIds.append(key);
                     }
-                    String name = cursor.stringValue(2);
-                    String tName = LocaleController.getInstance().getTranslitString(name);
-                    if (name.equals(tName)) {
-                        tName = null;
-                    }
-                    String username = null;
-                    int usernamePos = name.lastIndexOf(";;;");
-                    if (usernamePos != -1) {
-                        username = name.substring(usernamePos + 3);
-                    }
-                    int found = 0;
-                    for (String q : search) {
-                        if (name.startsWith(q) || name.contains(" " + q) || tName != null && (tName.startsWith(q) || tName.contains(" " + q))) {
-                            found = 1;
-                        } else if (username != null && username.startsWith(q)) {
-                            found = 2;
-                        } else if (NumberUtil.isInteger(q) && (NumberUtil.parseInt(q) == uid || q.length() > 3 && StrUtil.utf8Str(uid).contains(q))) {
-                            found = 3;
-                        }
-                        if (found != 0) {
-                            NativeByteBuffer data = cursor.byteBufferValue(0);
-                            if (data != null) {
-                                TLRPC.User user = TLRPC.User.TLdeserialize(data, data.readInt32(false), false);
-                                data.reuse();
-                                if (user.status != null) {
-                                    user.status.expires = cursor.intValue(1);
-                                }
-                                if (found == 1) {
-                                    resultArrayNames.add(AndroidUtilities.generateSearchName(user.first_name, user.last_name, q));
-                                } else if (found == 2) {
-                                    resultArrayNames.add(AndroidUtilities.generateSearchName("@" + user.username, null, "@" + q));
-                                } else {
-                                    resultArrayNames.add(AndroidUtilities.generateSearchName("ID: " + uid, null, q));
-                                }
-                                resultArray.add(user);
+                }
+                if (contactIds.length() > 0) {
+                    cursor = getDatabase().queryFinalized(String.format(Locale.US, "SELECT u.data, u.status, u.uid FROM users as u INNER JOIN contacts as c ON u.uid = c.uid WHERE u.uid IN(%s)", contactIds));
+                    while (cursor.next()) {
+                        int uid = cursor.intValue(2);
+                        DialogsNameIndex.Match match = matchesMap.get(uid);
+                        NativeByteBuffer data = cursor.byteBufferValue(0);
+                        if (data != null) {
+                            TLRPC.User user = TLRPC.User.TLdeserialize(data, data.readInt32(false), false);
+                            data.reuse();
+                            if (user.status != null) {
+                                user.status.expires = cursor.intValue(1);
                             }
-                            break;
+                            resultArrayNames.add(generateUserSearchName(user, uid, match));
+                            resultArray.add(user);
                         }
                     }
+                    cursor.dispose();
                 }
-                cursor.dispose();
             }
         } catch (Exception e) {
             FileLog.e(e);
         }
     }
+
+    private CharSequence generateUserSearchName(TLRPC.User user, int uid, DialogsNameIndex.Match match) {
+        if (match.found == DialogsNameIndex.FOUND_NAME) {
+            return AndroidUtilities.generateSearchName(user.first_name, user.last_name, match.query);
+        } else if (match.found == DialogsNameIndex.FOUND_USERNAME) {
+            return AndroidUtilities.generateSearchName("@" + user.username, null, "@" + match.query);
+        } else {
+            return AndroidUtilities.generateSearchName("ID: " + uid, null, match.query);
+        }
+    }
 }
@@ -34,9 +34,13 @@ import org.telegram.tgnet.ConnectionsManager;
 
 import java.io.File;
 import java.io.RandomAccessFile;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.TreeSet;
 
 import cn.hutool.core.util.StrUtil;
 import okhttp3.HttpUrl;
@@ -301,6 +305,16 @@ public class SharedConfig {
 
         }
 
+        /**
+         * Identifies the proxy in the proxy list and its change log: the link without remarks.
+         * Links that encode the remarks into their payload override this to leave them out.
+         */
+        public String getKey() {
+            String url = toUrl();
+            int index = url.indexOf('#');
+            return index < 0 ? url : url.substring(0, index);
+        }
+
         public static ProxyInfo fromUrl(String url) {
 
             Uri lnk = Uri.parse(url);
@@ -519,6 +533,11 @@ public class SharedConfig {
 
         }
 
+        @Override
+        public String getKey() {
+            return bean.withoutRemarks().toString();
+        }
+
         @Override
         public String getAddress() {
             return bean.getAddress() + ":" + bean.getPort();
@@ -782,6 +801,11 @@ public class SharedConfig {
 
         }
 
+        @Override
+        public String getKey() {
+            return bean.withoutRemarks().toString();
+        }
+
         @Override
         public String getAddress() {
             return bean.getHost() + ":" + bean.getRemotePort();
@@ -874,21 +898,32 @@ public class SharedConfig {
 
     }
 
-    public static LinkedList<ProxyInfo> proxyList = new LinkedList<>();
+    private static final int PROXY_LOG_COMPACT_SIZE = 256;
 
-    public static LinkedList<ProxyInfo> getProxyList() {
+    private static ArrayList<ProxyInfo> proxyList = new ArrayList<>();
+    // first proxy for every ProxyInfo.getKey
+    private static HashMap<String, ProxyInfo> proxyIndex = new HashMap<>();
+    private static boolean subProxiesLoaded;
+    private static int proxyListGeneration;
+    private static int proxyLogSize;
 
-        while (true) {
-
-            try {
-
-                return new LinkedList<>(proxyList);
+    public static ArrayList<ProxyInfo> getProxyList() {
+        loadSubProxies();
+        synchronized (sync) {
+            return new ArrayList<>(proxyList);
+        }
+    }
 
-            } catch (Exception ignored) {
+    public static boolean isProxyListEmpty() {
+        synchronized (sync) {
+            if (!proxyList.isEmpty()) {
+                return false;
             }
-
         }
-
+        loadSubProxies();
+        synchronized (sync) {
+            return proxyList.isEmpty();
+        }
     }
 
     private static boolean proxyListLoaded;
@@ -1268,6 +1303,7 @@ public class SharedConfig {
                     FileLog.e(e);
                 }
             }
+            MediaCacheLedger.getInstance().forgetDeleted();
             SharedPreferences preferences = MessagesController.getGlobalMainSettings();
             SharedPreferences.Editor editor = preferences.edit();
             editor.putInt("lastKeepMediaCheckTime", lastKeepMediaCheckTime);
@@ -1575,6 +1611,8 @@ public class SharedConfig {
 
         MessagesController.getGlobalMainSettings().edit()
                 .putInt("current_proxy", info == null ? 0 : info.hashCode())
+                .putString("current_proxy_key", info == null ? null : info.getKey())
+                .putLong("current_proxy_sub", info == null ? 0 : info.subId)
                 .commit();
 
         setProxyEnable(info != null);
@@ -1591,162 +1629,132 @@ public class SharedConfig {
 
     }
 
+    private static File getProxyListFile() {
+        return new File(ApplicationLoader.applicationContext.getFilesDir().getParentFile(), "nekox/proxy_list.json");
+    }
+
+    private static File getProxyLogFile() {
+        return new File(ApplicationLoader.applicationContext.getFilesDir().getParentFile(), "nekox/proxy_list.log");
+    }
+
+    /**
+     * Loads the local proxies, the snapshot in proxy_list.json followed by the changes logged
+     * after it. Subscriptions are parsed once the whole list is needed, at startup only the
+     * subscription of the current proxy is searched.
+     */
     public static void loadProxyList() {
         if (proxyListLoaded) {
             return;
         }
 
-        if (!proxyList.isEmpty()) {
-            for (ProxyInfo proxyInfo : getProxyList()) {
-                if (proxyInfo instanceof ExternalSocks5Proxy) {
-                    ((ExternalSocks5Proxy) proxyInfo).stop();
-                }
+        ArrayList<ProxyInfo> oldList;
+        synchronized (sync) {
+            oldList = new ArrayList<>(proxyList);
+        }
+        for (ProxyInfo proxyInfo : oldList) {
+            if (proxyInfo instanceof ExternalSocks5Proxy) {
+                ((ExternalSocks5Proxy) proxyInfo).stop();
             }
         }
 
         proxyListLoaded = true;
-        proxyList.clear();
         currentProxy = null;
 
-        int current = MessagesController.getGlobalMainSettings().getInt("current_proxy", 0);
-
-        for (SubInfo subInfo : SubManager.getSubList().find()) {
-
-            if (!subInfo.enable) continue;
-
-//            if (subInfo.id == 1L) {
-//
-//                try {
-//                    RelayBatonProxy publicProxy = (RelayBatonProxy) parseProxyInfo(RelayBatonLoader.publicServer);
-//                    publicProxy.setRemarks(LocaleController.getString("NekoXProxy",R.string.NekoXProxy));
-//                    publicProxy.subId = subInfo.id;
-//                    proxyList.add(publicProxy);
-//                    if (publicProxy.hashCode() == current) {
-//                        currentProxy = publicProxy;
-//                        UIUtil.runOnIoDispatcher(publicProxy::start);
-//                    }
-//                } catch (InvalidProxyException e) {
-//                    e.printStackTrace();
-//                }
-//
-//            }
-
-            for (String proxy : subInfo.proxies) {
-
-                try {
-
-                    ProxyInfo info = parseProxyInfo(proxy);
-
-                    info.subId = subInfo.id;
-
-                    if (info.hashCode() == current) {
-
-                        currentProxy = info;
-
-                        if (info instanceof ExternalSocks5Proxy) {
-
-                            UIUtil.runOnIoDispatcher(() -> {
-
-                                try {
-
-                                    ((ExternalSocks5Proxy) info).start();
-
-                                } catch (Exception e) {
-
-                                    FileLog.e(e);
-                                    AlertUtil.showToast(e);
-
-                                }
-
-                            });
-
-                        }
-
-                    }
-
-                    proxyList.add(info);
-
-                } catch (Exception e) {
-
-                    FileLog.d("load sub proxy failed: " + e);
-
-                }
-
-            }
-
-        }
-
-        File proxyListFile = new File(ApplicationLoader.applicationContext.getFilesDir().getParentFile(), "nekox/proxy_list.json");
+        SharedPreferences mainSettings = MessagesController.getGlobalMainSettings();
+        int current = mainSettings.getInt("current_proxy", 0);
+        // only the hash code was saved before
+        String currentKey = mainSettings.getString("current_proxy_key", null);
+        long currentSubId = mainSettings.getLong("current_proxy_sub", -1);
 
         boolean error = false;
+        LinkedHashMap<String, ProxyInfo> localProxies = new LinkedHashMap<>();
 
+        File proxyListFile = getProxyListFile();
         if (proxyListFile.isFile()) {
-
             try {
-
                 JSONArray proxyArray = new JSONArray(FileUtil.readUtf8String(proxyListFile));
-
                 for (int a = 0; a < proxyArray.length(); a++) {
-
-                    JSONObject proxyObj = proxyArray.getJSONObject(a);
-
-                    ProxyInfo info;
-
                     try {
-
-                        info = ProxyInfo.fromJson(proxyObj);
-
+                        ProxyInfo info = ProxyInfo.fromJson(proxyArray.getJSONObject(a));
+                        String key = info.getKey();
+                        if (!localProxies.containsKey(key)) {
+                            localProxies.put(key, info);
+                        }
                     } catch (Exception ex) {
-
                         FileLog.d("load proxy failed: " + ex);
-
                         error = true;
+                    }
+                }
+            } catch (Exception ex) {
+                FileLog.d("invalid proxy list json format" + ex);
+            }
+        }
 
+        int logSize = 0;
+        File proxyLogFile = getProxyLogFile();
+        if (proxyLogFile.isFile()) {
+            try {
+                for (String entry : FileUtil.readUtf8String(proxyLogFile).split("\n")) {
+                    if (entry.isEmpty()) {
                         continue;
-
                     }
-
-                    proxyList.add(info);
-
-                    if (info.hashCode() == current) {
-
-                        currentProxy = info;
-
-                        if (info instanceof ExternalSocks5Proxy) {
-
-                            if (info instanceof ExternalSocks5Proxy) {
-
-                                UIUtil.runOnIoDispatcher(() -> {
-
-                                    try {
-
-                                        ((ExternalSocks5Proxy) info).start();
-
-                                    } catch (Exception e) {
-
-                                        FileLog.e(e);
-                                        AlertUtil.showToast(e);
-
-                                    }
-
-                                });
-
+                    logSize++;
+                    try {
+                        if (entry.charAt(0) == '-') {
+                            localProxies.remove(entry.substring(1));
+                        } else {
+                            ProxyInfo info = ProxyInfo.fromJson(new JSONObject(entry.substring(1)));
+                            String key = info.getKey();
+                            if (!localProxies.containsKey(key)) {
+                                localProxies.put(key, info);
                             }
                         }
-
+                    } catch (Exception ex) {
+                        FileLog.d("load proxy log entry failed: " + ex);
+                        error = true;
                     }
-
                 }
-
             } catch (Exception ex) {
+                FileLog.e(ex);
+            }
+        }
 
-                FileLog.d("invalid proxy list json format" + ex);
+        synchronized (sync) {
+            proxyList = new ArrayList<>(localProxies.values());
+            proxyIndex = new HashMap<>(localProxies);
+            subProxiesLoaded = false;
+            proxyListGeneration++;
+            proxyLogSize = logSize;
+            if (current != 0) {
+                currentProxy = findProxy(currentKey, current);
+            }
+        }
 
+        if (currentProxy == null && current != 0) {
+            if (currentSubId > 0) {
+                currentProxy = findSubProxy(currentSubId, currentKey, current);
+            } else if (currentSubId < 0) {
+                // saved before the subscription of the current proxy was remembered
+                loadSubProxies();
+                synchronized (sync) {
+                    currentProxy = findProxy(currentKey, current);
+                }
             }
+        }
 
+        if (currentProxy instanceof ExternalSocks5Proxy) {
+            ExternalSocks5Proxy info = (ExternalSocks5Proxy) currentProxy;
+            UIUtil.runOnIoDispatcher(() -> {
+                try {
+                    info.start();
+                } catch (Exception e) {
+                    FileLog.e(e);
+                    AlertUtil.showToast(e);
+                }
+            });
         }
 
-        if (error) saveProxyList();
+        if (error || logSize > PROXY_LOG_COMPACT_SIZE) saveProxyList();
 
         SharedPreferences preferences = ApplicationLoader.applicationContext.getSharedPreferences("mainconfig", Activity.MODE_PRIVATE);
 
@@ -1758,6 +1766,84 @@ public class SharedConfig {
 
     }
 
+    private static boolean isProxy(ProxyInfo info, String key, int hash) {
+        return key != null ? key.equals(info.getKey()) : info.hashCode() == hash;
+    }
+
+    private static ProxyInfo findProxy(String key, int hash) {
+        if (key != null) {
+            return proxyIndex.get(key);
+        }
+        for (ProxyInfo info : proxyList) {
+            if (info.hashCode() == hash) {
+                return info;
+            }
+        }
+        return null;
+    }
+
+    private static ProxyInfo findSubProxy(long subId, String key, int hash) {
+        SubInfo subInfo = SubManager.getSubList().find(ObjectFilters.eq("id", subId)).firstOrDefault();
+        if (subInfo == null || !subInfo.enable) {
+            return null;
+        }
+        for (String proxy : subInfo.proxies) {
+            try {
+                ProxyInfo info = parseProxyInfo(proxy);
+                if (isProxy(info, key, hash)) {
+                    info.subId = subId;
+                    return info;
+                }
+            } catch (Exception e) {
+                FileLog.d("load sub proxy failed: " + e);
+            }
+        }
+        return null;
+    }
+
+    private static void loadSubProxies() {
+        int generation;
+        synchronized (sync) {
+            if (subProxiesLoaded) {
+                return;
+            }
+            generation = proxyListGeneration;
+        }
+
+        ProxyInfo current = currentProxy;
+        String currentKey = current != null && current.subId != 0 ? current.getKey() : null;
+        ArrayList<ProxyInfo> subProxies = new ArrayList<>();
+        for (SubInfo subInfo : SubManager.getSubList().find()) {
+            if (!subInfo.enable) continue;
+            for (String proxy : subInfo.proxies) {
+                try {
+                    ProxyInfo info = parseProxyInfo(proxy);
+                    info.subId = subInfo.id;
+                    if (currentKey != null && current.subId == info.subId && currentKey.equals(info.getKey())) {
+                        info = current;
+                    }
+                    subProxies.add(info);
+                } catch (Exception e) {
+                    FileLog.d("load sub proxy failed: " + e);
+                }
+            }
+        }
+
+        synchronized (sync) {
+            if (subProxiesLoaded || generation != proxyListGeneration) {
+                return;
+            }
+            subProxiesLoaded = true;
+            proxyList.addAll(0, subProxies);
+            for (ProxyInfo info : subProxies) {
+                String key = info.getKey();
+                if (!proxyIndex.containsKey(key)) {
+                    proxyIndex.put(key, info);
+                }
+            }
+        }
+    }
+
     public static ProxyInfo parseProxyInfo(String url) throws InvalidProxyException {
 
         if (url.startsWith(V2RayConfig.VMESS_PROTOCOL) || url.startsWith(V2RayConfig.VMESS1_PROTOCOL) || url.startsWith(V2RayConfig.TROJAN_PROTOCOL)) {
@@ -1852,27 +1938,36 @@ public class SharedConfig {
 
     }
 
+    /**
+     * Writes a snapshot of the local proxies and drops the change log; needed after proxies were
+     * edited or reordered in place.
+     */
     public static void saveProxyList() {
-        UIUtil.runOnIoDispatcher(() -> {
+        ArrayList<ProxyInfo> localProxies = new ArrayList<>();
+        synchronized (sync) {
+            rebuildProxyIndex();
+            for (ProxyInfo info : proxyList) {
+                if (info.subId == 0L) {
+                    localProxies.add(info);
+                }
+            }
+            proxyLogSize = 0;
+        }
+        Utilities.globalQueue.postRunnable(() -> {
 
             JSONArray proxyArray = new JSONArray();
 
-            for (ProxyInfo info : getProxyList()) {
+            for (ProxyInfo info : localProxies) {
                 try {
-                    JSONObject obj = info.toJsonInternal();
-                    if (info.subId != 0L) {
-                        continue;
-                    }
-                    proxyArray.put(obj);
+                    proxyArray.put(info.toJsonInternal());
                 } catch (Exception e) {
                     FileLog.e(e);
                 }
             }
 
-            File proxyListFile = new File(ApplicationLoader.applicationContext.getFilesDir().getParentFile(), "nekox/proxy_list.json");
-
             try {
-                FileUtil.writeUtf8String(proxyArray.toString(), proxyListFile);
+                FileUtil.writeUtf8String(proxyArray.toString(), getProxyListFile());
+                getProxyLogFile().delete();
             } catch (Exception e) {
                 FileLog.e(e);
             }
@@ -1880,18 +1975,123 @@ public class SharedConfig {
         });
     }
 
-    public static ProxyInfo addProxy(ProxyInfo proxyInfo) {
+    private static void rebuildProxyIndex() {
+        proxyIndex.clear();
+        for (ProxyInfo info : proxyList) {
+            String key = info.getKey();
+            if (!proxyIndex.containsKey(key)) {
+                proxyIndex.put(key, info);
+            }
+        }
+    }
+
+    /**
+     * Applies the proxies a subscription refresh added and removed to the loaded list and returns
+     * the added ones; nothing to do while subscriptions aren't loaded yet.
+     */
+    public static ArrayList<ProxyInfo> updateSubProxies(long subId, List<String> added, List<String> removed) {
+        int generation;
+        synchronized (sync) {
+            if (!subProxiesLoaded) {
+                return new ArrayList<>();
+            }
+            generation = proxyListGeneration;
+        }
+
+        ArrayList<ProxyInfo> addedProxies = new ArrayList<>();
+        for (String proxy : added) {
+            try {
+                ProxyInfo info = parseProxyInfo(proxy);
+                info.subId = subId;
+                addedProxies.add(info);
+            } catch (Exception e) {
+                FileLog.d("load sub proxy failed: " + e);
+            }
+        }
+        HashSet<String> removedKeys = new HashSet<>();
+        for (String proxy : removed) {
+            try {
+                removedKeys.add(parseProxyInfo(proxy).getKey());
+            } catch (Exception ignored) {
+            }
+        }
+
+        boolean currentRemoved = false;
         synchronized (sync) {
-            int count = proxyList.size();
-            for (int a = 0; a < count; a++) {
+            if (!subProxiesLoaded || generation != proxyListGeneration) {
+                return new ArrayList<>();
+            }
+            int insertIndex = 0;
+            for (int a = 0; a < proxyList.size(); a++) {
                 ProxyInfo info = proxyList.get(a);
-                if (info.equals(proxyInfo)) {
-                    return info;
+                if (info.subId != subId) {
+                    continue;
                 }
+                if (removedKeys.contains(info.getKey())) {
+                    proxyList.remove(a--);
+                    currentRemoved |= info == currentProxy;
+                } else {
+                    insertIndex = a + 1;
+                }
+            }
+            proxyList.addAll(insertIndex, addedProxies);
+            if (!removedKeys.isEmpty()) {
+                rebuildProxyIndex();
+            } else {
+                for (ProxyInfo info : addedProxies) {
+                    String key = info.getKey();
+                    if (!proxyIndex.containsKey(key)) {
+                        proxyIndex.put(key, info);
+                    }
+                }
+            }
+        }
+
+        if (currentRemoved) {
+            currentProxy = null;
+            if (proxyEnabled) {
+                setProxyEnable(false);
+            }
+        }
+        return addedProxies;
+    }
+
+    private static void appendProxyLog(String entry) {
+        boolean compact;
+        synchronized (sync) {
+            compact = ++proxyLogSize > PROXY_LOG_COMPACT_SIZE;
+        }
+        if (compact) {
+            saveProxyList();
+            return;
+        }
+        Utilities.globalQueue.postRunnable(() -> {
+            try {
+                FileUtil.appendUtf8String(entry + "\n", getProxyLogFile());
+            } catch (Exception e) {
+                FileLog.e(e);
+            }
+        });
+    }
+
+    public static ProxyInfo addProxy(ProxyInfo proxyInfo) {
+        loadSubProxies();
+        String key = proxyInfo.getKey();
+        synchronized (sync) {
+            ProxyInfo info = proxyIndex.get(key);
+            if (info != null) {
+                return info;
             }
+            proxyIndex.put(key, proxyInfo);
             proxyList.add(proxyInfo);
         }
-        saveProxyList();
+        if (proxyInfo.subId == 0L) {
+            try {
+                appendProxyLog("+" + proxyInfo.toJsonInternal());
+            } catch (Exception e) {
+                FileLog.e(e);
+            }
+        }
         return proxyInfo;
     }
 
@@ -1903,7 +2103,23 @@ public class SharedConfig {
                 setProxyEnable(false);
             }
         }
-        proxyList.remove(proxyInfo);
+        String key = proxyInfo.getKey();
+        synchronized (sync) {
+            ProxyInfo other = null;
+            for (Iterator<ProxyInfo> iterator = proxyList.iterator(); iterator.hasNext(); ) {
+                ProxyInfo info = iterator.next();
+                if (info == proxyInfo) {
+                    iterator.remove();
+                } else if (other == null && key.equals(info.getKey())) {
+                    other = info;
+                }
+            }
+            if (other != null) {
+                proxyIndex.put(key, other);
+            } else {
+                proxyIndex.remove(key);
+            }
+        }
         if (proxyInfo.subId != 0) {
             SubInfo sub = SubManager.getSubList().find(ObjectFilters.eq("id", proxyInfo.subId)).firstOrDefault();
             try {
@@ -1913,7 +2129,7 @@ public class SharedConfig {
             } catch (UnsupportedOperationException ignored) {
             }
         } else {
-            saveProxyList();
+            appendProxyLog("-" + key);
         }
     }
 
@@ -1921,14 +2137,23 @@ public class SharedConfig {
 
         setCurrentProxy(null);
 
-        proxyListLoaded = false;
-
-        proxyList.clear();
+        synchronized (sync) {
+            proxyList.clear();
+            proxyIndex.clear();
+            subProxiesLoaded = false;
+            proxyListGeneration++;
+        }
 
         saveProxyList();
 
-        loadProxyList();
+    }
 
+    public static void sortProxyList() {
+        loadSubProxies();
+        synchronized (sync) {
+            proxyList = new ArrayList<>(new TreeSet<>(proxyList));
+        }
+        saveProxyList();
     }
 
     public static void checkSaveToGalleryFiles() {
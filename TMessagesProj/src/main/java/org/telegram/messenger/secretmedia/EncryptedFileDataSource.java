@@ -17,12 +17,10 @@ import com.google.android.exoplayer2.upstream.DataSpec;
 import com.google.android.exoplayer2.upstream.TransferListener;
 
 import org.telegram.messenger.FileLoader;
-import org.telegram.messenger.Utilities;
 
 import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 
 public final class EncryptedFileDataSource extends BaseDataSource {
 
@@ -34,13 +32,11 @@ public final class EncryptedFileDataSource extends BaseDataSource {
 
     }
 
-    private RandomAccessFile file;
+    private EncryptedFileReader reader;
     private Uri uri;
     private long bytesRemaining;
     private boolean opened;
-    private byte[] key = new byte[32];
-    private byte[] iv = new byte[16];
-    private int fileOffset;
+    private long fileOffset;
 
     public EncryptedFileDataSource() {
         super(/* isNetwork= */ false);
@@ -59,17 +55,17 @@ public final class EncryptedFileDataSource extends BaseDataSource {
         try {
             uri = dataSpec.uri;
             File path = new File(dataSpec.uri.getPath());
-            String name = path.getName();
-            File keyPath = new File(FileLoader.getInternalCacheDir(), name + ".key");
-            RandomAccessFile keyFile = new RandomAccessFile(keyPath, "r");
-            keyFile.read(key);
-            keyFile.read(iv);
-            keyFile.close();
-
-            file = new RandomAccessFile(path, "r");
-            file.seek(dataSpec.position);
-            fileOffset = (int) dataSpec.position;
-            bytesRemaining = dataSpec.length == C.LENGTH_UNSET ? file.length() - dataSpec.position : dataSpec.length;
+            if (reader != null && reader.getPath().equals(path)) {
+                // players reopen the source on every seek, keep the decrypted chunks
+                reader.open();
+            } else {
+                if (reader != null) {
+                    reader.close();
+                }
+                reader = new EncryptedFileReader(path, new File(FileLoader.getInternalCacheDir(), path.getName() + ".key"));
+            }
+            fileOffset = dataSpec.position;
+            bytesRemaining = dataSpec.length == C.LENGTH_UNSET ? reader.length() - dataSpec.position : dataSpec.length;
             if (bytesRemaining < 0) {
                 throw new EOFException();
             }
@@ -92,9 +88,10 @@ public final class EncryptedFileDataSource extends BaseDataSource {
         } else {
             int bytesRead;
             try {
-                bytesRead = file.read(buffer, offset, (int) Math.min(bytesRemaining, readLength));
-                Utilities.aesCtrDecryptionByteArray(buffer, key, iv, offset, bytesRead, fileOffset);
-                fileOffset += bytesRead;
+                bytesRead = reader.read(fileOffset, buffer, offset, (int) Math.min(bytesRemaining, readLength));
+                if (bytesRead > 0) {
+                    fileOffset += bytesRead;
+                }
             } catch (IOException e) {
                 throw new EncryptedFileDataSourceException(e);
             }
@@ -118,13 +115,12 @@ public final class EncryptedFileDataSource extends BaseDataSource {
         uri = null;
         fileOffset = 0;
         try {
-            if (file != null) {
-                file.close();
+            if (reader != null) {
+                reader.close();
             }
         } catch (IOException e) {
             throw new EncryptedFileDataSourceException(e);
         } finally {
-            file = null;
             if (opened) {
                 opened = false;
                 transferEnded();
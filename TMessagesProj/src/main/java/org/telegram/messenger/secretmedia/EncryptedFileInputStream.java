@@ -12,6 +12,7 @@ import org.telegram.messenger.SecureDocumentKey;
 import org.telegram.messenger.Utilities;
 
 import java.io.File;
+import java.io.FileDescriptor;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
@@ -22,18 +23,17 @@ public class EncryptedFileInputStream extends FileInputStream {
     private byte[] iv = new byte[16];
     private int fileOffset;
     private int currentMode;
+    private EncryptedFileReader reader;
 
     private final static int MODE_CTR = 0;
     private final static int MODE_CBC = 1;
 
     public EncryptedFileInputStream(File file, File keyFile) throws Exception {
-        super(file);
+        // reads go through the positional reader, so the inherited stream is left unopened
+        super(new FileDescriptor());
 
         currentMode = MODE_CTR;
-        RandomAccessFile randomAccessFile = new RandomAccessFile(keyFile, "r");
-        randomAccessFile.read(key, 0, 32);
-        randomAccessFile.read(iv, 0, 16);
-        randomAccessFile.close();
+        reader = new EncryptedFileReader(file, keyFile);
     }
 
     public EncryptedFileInputStream(File file, SecureDocumentKey secureDocumentKey) throws Exception {
@@ -44,9 +44,22 @@ public class EncryptedFileInputStream extends FileInputStream {
         System.arraycopy(secureDocumentKey.file_iv, 0, iv, 0, iv.length);
     }
 
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) == 1 ? b[0] & 0xff : -1;
+    }
+
     @Override
     public int read(byte[] b, int off, int len) throws IOException {
-        if (currentMode == MODE_CBC && fileOffset == 0) {
+        if (currentMode == MODE_CTR) {
+            int result = reader.read(fileOffset, b, off, len);
+            if (result > 0) {
+                fileOffset += result;
+            }
+            return result;
+        }
+        if (fileOffset == 0) {
             byte[] temp = new byte[32];
             super.read(temp, 0, 32);
             Utilities.aesCbcEncryptionByteArraySafe(b, key, iv, off, len, fileOffset, 0);
@@ -54,21 +67,42 @@ public class EncryptedFileInputStream extends FileInputStream {
             skip((temp[0] & 0xff) - 32);
         }
         int result = super.read(b, off, len);
-        if (currentMode == MODE_CBC) {
-            Utilities.aesCbcEncryptionByteArraySafe(b, key, iv, off, len, fileOffset, 0);
-        } else if (currentMode == MODE_CTR) {
-            Utilities.aesCtrDecryptionByteArray(b, key, iv, off, len, fileOffset);
-        }
+        Utilities.aesCbcEncryptionByteArraySafe(b, key, iv, off, len, fileOffset, 0);
         fileOffset += len;
         return result;
     }
 
     @Override
     public long skip(long n) throws IOException {
+        if (currentMode == MODE_CTR) {
+            // positional reads, nothing to move in the underlying stream
+            n = Math.max(0, Math.min(n, reader.length() - fileOffset));
+            fileOffset += n;
+            return n;
+        }
         fileOffset += n;
         return super.skip(n);
     }
 
+    @Override
+    public int available() throws IOException {
+        if (currentMode == MODE_CTR) {
+            return (int) Math.max(0, Math.min(Integer.MAX_VALUE, reader.length() - fileOffset));
+        }
+        return super.available();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (reader != null) {
+                reader.close();
+            }
+        } finally {
+            super.close();
+        }
+    }
+
     public static void decryptBytesWithKeyFile(byte[] bytes, int offset, int length, SecureDocumentKey secureDocumentKey) {
         Utilities.aesCbcEncryptionByteArraySafe(bytes, secureDocumentKey.file_key, secureDocumentKey.file_iv, offset, length, 0, 0);
     }
@@ -0,0 +1,138 @@
+/*
+ * This is the source code of Telegram for Android v. 5.x.x.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013-2018.
+ */
+
+package org.telegram.messenger.secretmedia;
+
+import org.telegram.messenger.Utilities;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Positional reads of a file encrypted with AES-CTR. Any offset is decrypted directly, so seeking
+ * costs nothing, and the last few chunks are kept decrypted, so the reads a player repeats around
+ * a seek don't touch the file again. The chunks survive {@link #close()}, a reader reopened on the
+ * same file keeps serving them.
+ */
+public class EncryptedFileReader {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int CHUNKS_COUNT = 4;
+
+    private final File path;
+    private final byte[] key = new byte[32];
+    private final byte[] iv = new byte[16];
+    private RandomAccessFile file;
+    private FileChannel channel;
+
+    private final byte[][] chunks = new byte[CHUNKS_COUNT][];
+    private final long[] chunkStarts = new long[CHUNKS_COUNT];
+    private final int[] chunkLengths = new int[CHUNKS_COUNT];
+    private final long[] chunkUses = new long[CHUNKS_COUNT];
+    private long usesCount;
+
+    public EncryptedFileReader(File path, File keyPath) throws IOException {
+        this.path = path;
+        RandomAccessFile keyFile = new RandomAccessFile(keyPath, "r");
+        try {
+            keyFile.readFully(key);
+            keyFile.readFully(iv);
+        } finally {
+            keyFile.close();
+        }
+        for (int a = 0; a < CHUNKS_COUNT; a++) {
+            chunkStarts[a] = -1;
+        }
+        open();
+    }
+
+    public File getPath() {
+        return path;
+    }
+
+    public synchronized void open() throws IOException {
+        if (file != null) {
+            return;
+        }
+        file = new RandomAccessFile(path, "r");
+        channel = file.getChannel();
+        for (int a = 0; a < CHUNKS_COUNT; a++) {
+            if (chunkStarts[a] >= 0 && chunkLengths[a] < CHUNK_SIZE) {
+                // the file may have grown past a short last chunk
+                chunkStarts[a] = -1;
+            }
+        }
+    }
+
+    public synchronized long length() throws IOException {
+        return channel.size();
+    }
+
+    /**
+     * Reads and decrypts up to {@code length} bytes at {@code position}; returns -1 at the end of the file.
+     */
+    public synchronized int read(long position, byte[] buffer, int offset, int length) throws IOException {
+        int total = 0;
+        while (length > 0) {
+            int index = getChunk(position - position % CHUNK_SIZE);
+            int inChunk = (int) (position - chunkStarts[index]);
+            int count = Math.min(chunkLengths[index] - inChunk, length);
+            if (count <= 0) {
+                break;
+            }
+            System.arraycopy(chunks[index], inChunk, buffer, offset, count);
+            position += count;
+            offset += count;
+            length -= count;
+            total += count;
+        }
+        return total == 0 && length > 0 ? -1 : total;
+    }
+
+    private int getChunk(long start) throws IOException {
+        int index = 0;
+        for (int a = 0; a < CHUNKS_COUNT; a++) {
+            if (chunkStarts[a] == start) {
+                chunkUses[a] = ++usesCount;
+                return a;
+            }
+            if (chunkUses[a] < chunkUses[index]) {
+                index = a;
+            }
+        }
+        if (chunks[index] == null) {
+            chunks[index] = new byte[CHUNK_SIZE];
+        }
+        ByteBuffer target = ByteBuffer.wrap(chunks[index]);
+        while (target.hasRemaining()) {
+            if (channel.read(target, start + target.position()) < 0) {
+                break;
+            }
+        }
+        int length = target.position();
+        Utilities.aesCtrDecryptionByteArray(chunks[index], key, iv, 0, length, (int) start);
+        chunkStarts[index] = start;
+        chunkLengths[index] = length;
+        chunkUses[index] = ++usesCount;
+        return index;
+    }
+
+    public synchronized void close() throws IOException {
+        if (file != null) {
+            try {
+                file.close();
+            } finally {
+                file = null;
+                channel = null;
+            }
+        }
+    }
+}
@@ -60,6 +60,8 @@ public class MP4Builder {
     private boolean writeNewMdat = true;
     private HashMap<Track, long[]> track2SampleSizes = new HashMap<>();
     private ByteBuffer sizeBuffer = null;
+    private final ByteBuffer[] sampleBuffers = new ByteBuffer[2];
+    private ByteBuffer sampleBuffer;
     private boolean splitMdat;
     private boolean wasFirstVideoFrame;
 
@@ -89,8 +91,18 @@ public class MP4Builder {
         fc.position(oldPosition);
         mdat.setDataOffset(0);
         mdat.setContentSize(0);
-        fos.flush();
-        fos.getFD().sync();
+    }
+
+    /**
+     * Returns a direct buffer of at least {@code size} bytes to read samples into. It is reused by
+     * every call, so its contents are only valid until the next one.
+     */
+    public ByteBuffer getSampleBuffer(int size) {
+        if (sampleBuffer == null || sampleBuffer.capacity() < size) {
+            sampleBuffer = ByteBuffer.allocateDirect(sampleBuffer == null ? size : Math.max(size, sampleBuffer.capacity() * 2));
+        }
+        sampleBuffer.clear();
+        return sampleBuffer;
     }
 
     public long writeSampleData(int trackIndex, ByteBuffer byteBuf, MediaCodec.BufferInfo bufferInfo, boolean writeLength) throws Exception {
@@ -146,24 +158,28 @@ public class MP4Builder {
 
         currentMp4Movie.addSample(trackIndex, dataOffset, bufferInfo);
 
+        byteBuf.position(bufferInfo.offset + (writeLength ? 4 : 0));
+        byteBuf.limit(bufferInfo.offset + bufferInfo.size);
         if (writeLength) {
             sizeBuffer.position(0);
             sizeBuffer.putInt(bufferInfo.size - 4);
             sizeBuffer.position(0);
-            fc.write(sizeBuffer);
-
-            byteBuf.position(bufferInfo.offset + 4);
+            sampleBuffers[0] = sizeBuffer;
+            sampleBuffers[1] = byteBuf;
+            while (sizeBuffer.hasRemaining() || byteBuf.hasRemaining()) {
+                fc.write(sampleBuffers);
+            }
+            sampleBuffers[1] = null;
         } else {
-            byteBuf.position(bufferInfo.offset);
+            while (byteBuf.hasRemaining()) {
+                fc.write(byteBuf);
+            }
         }
-        byteBuf.limit(bufferInfo.offset + bufferInfo.size);
-        fc.write(byteBuf);
 
         dataOffset += bufferInfo.size;
 
         if (flush) {
-            fos.flush();
-            fos.getFD().sync();
+            // the uploader reads the written part through the page cache, no need to sync it to disk
             return fc.position();
         }
         return 0;
@@ -213,6 +229,7 @@ public class MP4Builder {
         private Container parent;
         private long contentSize = 1024 * 1024 * 1024;
         private long dataOffset = 0;
+        private final ByteBuffer header = ByteBuffer.allocate(16);
 
         public Container getParent() {
             return parent;
@@ -256,7 +273,8 @@ public class MP4Builder {
         }
 
         public void getBox(WritableByteChannel writableByteChannel) throws IOException {
-            ByteBuffer bb = ByteBuffer.allocate(16);
+            ByteBuffer bb = header;
+            bb.clear();
             long size = getSize();
             if (isSmallBox(size)) {
                 IsoTypeWriter.writeUInt32(bb, size);
@@ -265,7 +283,7 @@ public class MP4Builder {
             }
             bb.put(IsoFile.fourCCtoBytes("mdat"));
             if (isSmallBox(size)) {
-                bb.put(new byte[8]);
+                bb.putLong(0);
             } else {
                 IsoTypeWriter.writeUInt64(bb, size);
             }
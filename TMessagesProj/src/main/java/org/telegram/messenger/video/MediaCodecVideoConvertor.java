@@ -426,7 +426,7 @@ public class MediaCodecVideoConvertor {
                                         if (maxBufferSize <= 0) {
                                             maxBufferSize = 64 * 1024;
                                         }
-                                        audioBuffer = ByteBuffer.allocateDirect(maxBufferSize);
+                                        audioBuffer = mediaMuxer.getSampleBuffer(maxBufferSize);
 
                                         if (startTime > 0) {
                                             extractor.seekTo(startTime, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
@@ -490,8 +490,8 @@ public class MediaCodecVideoConvertor {
                                         if (Build.VERSION.SDK_INT >= 28) {
                                             long size = extractor.getSampleSize();
                                             if (size > maxBufferSize) {
-                                                maxBufferSize = (int) (size + 1024);
-                                                audioBuffer = ByteBuffer.allocateDirect(maxBufferSize);
+                                                audioBuffer = mediaMuxer.getSampleBuffer((int) (size + 1024));
+                                                maxBufferSize = audioBuffer.capacity();
                                             }
                                         }
                                         info.size = extractor.readSampleData(audioBuffer, 0);
@@ -838,7 +838,7 @@ public class MediaCodecVideoConvertor {
         if (maxBufferSize <= 0) {
             maxBufferSize = 64 * 1024;
         }
-        ByteBuffer buffer = ByteBuffer.allocateDirect(maxBufferSize);
+        ByteBuffer buffer = mediaMuxer.getSampleBuffer(maxBufferSize);
         if (audioTrackIndex >= 0 || videoTrackIndex >= 0) {
             long startTime = -1;
             checkConversionCanceled();
@@ -849,8 +849,8 @@ public class MediaCodecVideoConvertor {
                 if (Build.VERSION.SDK_INT >= 28) {
                     long size = extractor.getSampleSize();
                     if (size > maxBufferSize) {
-                        maxBufferSize = (int) (size + 1024);
-                        buffer = ByteBuffer.allocateDirect(maxBufferSize);
+                        buffer = mediaMuxer.getSampleBuffer((int) (size + 1024));
+                        maxBufferSize = buffer.capacity();
                     }
                 }
                 info.size = extractor.readSampleData(buffer, 0);
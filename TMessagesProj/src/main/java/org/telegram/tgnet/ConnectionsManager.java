@@ -53,6 +53,8 @@ import tw.nekomimi.nekogram.utils.DnsFactory;
 
 public class ConnectionsManager extends BaseController {
 
+    private static final String TAG = "ConnectionsManager";
+
     public final static int ConnectionTypeGeneric = 1;
     public final static int ConnectionTypeDownload = 2;
     public final static int ConnectionTypeUpload = 4;
@@ -117,11 +119,11 @@ public class ConnectionsManager extends BaseController {
     private static class ResolvedDomain {
 
         public InetAddress[] addresses;
-        long ttl;
+        long expires;
 
-        public ResolvedDomain(InetAddress[] a, long t) {
+        public ResolvedDomain(InetAddress[] a, long e) {
             addresses = a;
-            ttl = t;
+            expires = e;
         }
 
         public String getAddress() {
@@ -264,11 +266,10 @@ public class ConnectionsManager extends BaseController {
         final int requestToken = lastRequestToken.getAndIncrement();
         Utilities.stageQueue.postRunnable(() -> {
             if (BuildVars.LOGS_ENABLED) {
-                FileLog.d("send request " + object + " with token = " + requestToken);
+                FileLog.d(TAG, "send request " + object + " with token = " + requestToken);
             }
             try {
-                NativeByteBuffer buffer = new NativeByteBuffer(object.getObjectSize());
-                object.serializeToStream(buffer);
+                NativeByteBuffer buffer = GrowableByteBuffer.serializeToNative(object);
                 object.freeResources();
 
                 native_sendRequest(currentAccount, buffer.address, (response, errorCode, errorText, networkType) -> {
@@ -284,14 +285,14 @@ public class ConnectionsManager extends BaseController {
                             error.code = errorCode;
                             error.text = errorText;
                             if (BuildVars.LOGS_ENABLED) {
-                                FileLog.e(object + " got error " + error.code + " " + error.text);
+                                FileLog.e(TAG, object + " got error " + error.code + " " + error.text);
                             }
                         }
                         if (resp != null) {
                             resp.networkType = networkType;
                         }
                         if (BuildVars.LOGS_ENABLED) {
-                            FileLog.d("java received " + resp + " error = " + error);
+                            FileLog.d(TAG, "java received " + resp + " error = " + error);
                         }
                         final TLObject finalResponse = resp;
                         final TLRPC.TL_error finalError = error;
@@ -588,7 +589,7 @@ public class ConnectionsManager extends BaseController {
     public static void getHostByName(String hostName, long address) {
         AndroidUtilities.runOnUIThread(() -> {
             ResolvedDomain resolvedDomain = dnsCache.get(hostName);
-            if (resolvedDomain != null && SystemClock.elapsedRealtime() - resolvedDomain.ttl < 5 * 60 * 1000) {
+            if (resolvedDomain != null && SystemClock.elapsedRealtime() < resolvedDomain.expires) {
                 String addr = resolvedDomain.getAddress();
                 native_onHostNameResolved(hostName, address, addr, Utils.isIpv6Address(addr));
             } else {
@@ -821,22 +822,23 @@ public class ConnectionsManager extends BaseController {
 
         protected ResolvedDomain doInBackground(Void... voids) {
 
-            InetAddress[] result;
-
             try {
-                result = DnsFactory.lookup(currentHostName).toArray(new InetAddress[0]);
+                DnsFactory.Resolved resolved = DnsFactory.resolve(currentHostName);
+                return new ResolvedDomain(resolved.addresses.toArray(new InetAddress[0]), SystemClock.elapsedRealtime() + resolved.ttl);
             } catch (Exception e) {
-                result = new InetAddress[0];
+                return new ResolvedDomain(new InetAddress[0], SystemClock.elapsedRealtime());
             }
 
-            return new ResolvedDomain(result, 10 * 60 * 1000L);
-
         }
 
         @Override
         protected void onPostExecute(final ResolvedDomain result) {
             if (result != null) {
-                dnsCache.put(currentHostName, result);
+                if (result.expires > SystemClock.elapsedRealtime()) {
+                    dnsCache.put(currentHostName, result);
+                } else {
+                    dnsCache.remove(currentHostName);
+                }
                 for (int a = 0, N = addresses.size(); a < N; a++) {
                     String address = result.getAddress();
                     native_onHostNameResolved(currentHostName, addresses.get(a), address, Utils.isIpv6Address(address));
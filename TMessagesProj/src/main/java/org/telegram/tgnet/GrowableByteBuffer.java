@@ -0,0 +1,158 @@
+package org.telegram.tgnet;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Heap-backed serialization buffer that expands on demand, so a TLObject can be written in a
+ * single pass without computing its size up front. One instance is pooled per thread.
+ */
+public class GrowableByteBuffer extends NativeByteBuffer {
+
+    private static final int INITIAL_CAPACITY = 4 * 1024;
+    private static final int MAX_RETAINED_CAPACITY = 1024 * 1024;
+
+    private static final ThreadLocal<GrowableByteBuffer> pool = new ThreadLocal<GrowableByteBuffer>() {
+        @Override
+        protected GrowableByteBuffer initialValue() {
+            return new GrowableByteBuffer(INITIAL_CAPACITY);
+        }
+    };
+
+    public GrowableByteBuffer(int capacity) {
+        super(false);
+        buffer = ByteBuffer.allocate(Math.max(capacity, 16));
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public static GrowableByteBuffer obtain() {
+        GrowableByteBuffer result = pool.get();
+        result.buffer.clear();
+        return result;
+    }
+
+    /**
+     * Serializes the object once into the pooled staging buffer and copies the result into a
+     * native buffer of the exact size, replacing the getObjectSize() + serializeToStream() double walk.
+     */
+    public static NativeByteBuffer serializeToNative(TLObject object) throws Exception {
+        GrowableByteBuffer staging = obtain();
+        try {
+            object.serializeToStream(staging);
+            int length = staging.length();
+            NativeByteBuffer result = new NativeByteBuffer(length);
+            staging.buffer.flip();
+            result.buffer.put(staging.buffer);
+            return result;
+        } finally {
+            staging.release();
+        }
+    }
+
+    public void release() {
+        if (buffer.capacity() > MAX_RETAINED_CAPACITY) {
+            buffer = ByteBuffer.allocate(INITIAL_CAPACITY);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+        } else {
+            buffer.clear();
+        }
+    }
+
+    public byte[] toByteArray() {
+        byte[] result = new byte[buffer.position()];
+        System.arraycopy(buffer.array(), 0, result, 0, result.length);
+        return result;
+    }
+
+    private void ensureCapacity(int count) {
+        if (buffer.remaining() >= count) {
+            return;
+        }
+        int required = buffer.position() + count;
+        int newCapacity = buffer.capacity();
+        while (newCapacity < required) {
+            newCapacity <<= 1;
+        }
+        ByteBuffer expanded = ByteBuffer.allocate(newCapacity);
+        expanded.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.flip();
+        expanded.put(buffer);
+        buffer = expanded;
+    }
+
+    private static int byteArrayLength(int count) {
+        int header = count <= 253 ? 1 : 4;
+        return (count + header + 3) & ~3;
+    }
+
+    @Override
+    public void writeInt32(int x) {
+        ensureCapacity(4);
+        super.writeInt32(x);
+    }
+
+    @Override
+    public void writeInt64(long x) {
+        ensureCapacity(8);
+        super.writeInt64(x);
+    }
+
+    @Override
+    public void writeBool(boolean value) {
+        ensureCapacity(4);
+        super.writeBool(value);
+    }
+
+    @Override
+    public void writeBytes(byte[] b) {
+        ensureCapacity(b.length);
+        super.writeBytes(b);
+    }
+
+    @Override
+    public void writeBytes(byte[] b, int offset, int count) {
+        ensureCapacity(count);
+        super.writeBytes(b, offset, count);
+    }
+
+    @Override
+    public void writeByte(byte b) {
+        ensureCapacity(1);
+        super.writeByte(b);
+    }
+
+    @Override
+    public void writeByteArray(byte[] b, int offset, int count) {
+        ensureCapacity(byteArrayLength(count));
+        super.writeByteArray(b, offset, count);
+    }
+
+    @Override
+    public void writeByteArray(byte[] b) {
+        ensureCapacity(byteArrayLength(b.length));
+        super.writeByteArray(b);
+    }
+
+    @Override
+    public void writeByteBuffer(NativeByteBuffer b) {
+        ensureCapacity(byteArrayLength(b.limit()));
+        super.writeByteBuffer(b);
+    }
+
+    @Override
+    public void writeBytes(NativeByteBuffer b) {
+        ensureCapacity(b.limit());
+        super.writeBytes(b);
+    }
+
+    @Override
+    public void skip(int count) {
+        ensureCapacity(count);
+        super.skip(count);
+    }
+
+    @Override
+    public void reuse() {
+        release();
+    }
+}
@@ -289,6 +289,18 @@ public class DialogsSearchAdapter extends RecyclerListView.SelectionAdapter {
         }
         lastMessagesSearchString = query;
         final int currentReqId = ++lastReqId;
+        if (req.offset_id == 0) {
+            MessagesStorage.getInstance(currentAccount).searchMessagesOffline(query, 0, req.limit, messages -> {
+                if (currentReqId != lastReqId || reqId == 0 || messages.isEmpty() || searchId > 0 && searchId != lastSearchId) {
+                    return;
+                }
+                currentMessagesQuery = query;
+                searchResultMessages.clear();
+                searchResultMessages.addAll(messages);
+                searchWas = true;
+                notifyDataSetChanged();
+            });
+        }
         reqId = ConnectionsManager.getInstance(currentAccount).sendRequest(req, (response, error) -> {
             final ArrayList<MessageObject> messageObjects = new ArrayList<>();
             if (error == null) {
@@ -42,6 +42,7 @@ import org.telegram.messenger.FileLoader;
 import org.telegram.messenger.FileLog;
 import org.telegram.messenger.ImageLoader;
 import org.telegram.messenger.LocaleController;
+import org.telegram.messenger.MediaCacheLedger;
 import org.telegram.messenger.MediaDataController;
 import org.telegram.messenger.MessagesController;
 import org.telegram.messenger.MessagesStorage;
@@ -77,6 +78,7 @@ import java.util.ArrayList;
 import cn.hutool.core.thread.ThreadUtil;
 import kotlin.Unit;
 import tw.nekomimi.nekogram.BottomBuilder;
+import tw.nekomimi.nekogram.PopupBuilder;
 import tw.nekomimi.nekogram.transtale.TranslateDb;
 import tw.nekomimi.nekogram.utils.EnvUtil;
 import tw.nekomimi.nekogram.utils.FileUtil;
@@ -97,8 +99,14 @@ public class CacheControlActivity extends BaseFragment {
     private int deviseStorageHeaderRow;
     private int storageUsageRow;
     private int keepMediaChooserRow;
+    private int cacheLimitsHeaderRow;
+    private int cacheLimitsStartRow;
+    private int cacheLimitsEndRow;
+    private int cacheLimitsInfoRow;
     private int rowCount;
 
+    private static final long[] CACHE_LIMITS = {0, 256L << 20, 512L << 20, 1L << 30, 2L << 30, 5L << 30, 10L << 30};
+
     private int resetDataRow;
 
     private long databaseSize = -1;
@@ -134,6 +142,11 @@ public class CacheControlActivity extends BaseFragment {
         keepMediaHeaderRow = rowCount++;
         keepMediaChooserRow = rowCount++;
         keepMediaInfoRow = rowCount++;
+        cacheLimitsHeaderRow = rowCount++;
+        cacheLimitsStartRow = rowCount;
+        rowCount += MediaCacheLedger.CATEGORIES_COUNT;
+        cacheLimitsEndRow = rowCount;
+        cacheLimitsInfoRow = rowCount++;
         deviseStorageHeaderRow = rowCount++;
         storageUsageRow = rowCount++;
 
@@ -146,35 +159,48 @@ public class CacheControlActivity extends BaseFragment {
         databaseSize = MessagesStorage.getInstance(currentAccount).getDatabaseSize();
 
         Utilities.globalQueue.postRunnable(() -> {
-            cacheSize = getDirectorySize(FileLoader.checkDirectory(FileLoader.MEDIA_DIR_CACHE), 0);
+            long[] ledgerSizes = MediaCacheLedger.getInstance().getUsage();
+            if (ledgerSizes != null) {
+                photoSize = ledgerSizes[MediaCacheLedger.CATEGORY_PHOTO];
+                videoSize = ledgerSizes[MediaCacheLedger.CATEGORY_VIDEO];
+                documentsSize = ledgerSizes[MediaCacheLedger.CATEGORY_DOCUMENT];
+                musicSize = ledgerSizes[MediaCacheLedger.CATEGORY_MUSIC];
+                audioSize = ledgerSizes[MediaCacheLedger.CATEGORY_AUDIO];
+                stickersSize = ledgerSizes[MediaCacheLedger.CATEGORY_STICKERS];
+                cacheSize = ledgerSizes[MediaCacheLedger.CATEGORY_CACHE];
+                cacheSize += getDirectorySize(new File(ApplicationLoader.getDataDirFixed(), "cache"), 0);
+                cacheSize += getDirectorySize(ApplicationLoader.applicationContext.getExternalFilesDir("logs"), 0);
+            } else {
+                cacheSize = getDirectorySize(FileLoader.checkDirectory(FileLoader.MEDIA_DIR_CACHE), 0);
 
-            cacheSize += getDirectorySize(new File(ApplicationLoader.getDataDirFixed(), "cache"), 0);
-            cacheSize += getDirectorySize(ApplicationLoader.applicationContext.getExternalFilesDir("logs"), 0);
+                cacheSize += getDirectorySize(new File(ApplicationLoader.getDataDirFixed(), "cache"), 0);
+                cacheSize += getDirectorySize(ApplicationLoader.applicationContext.getExternalFilesDir("logs"), 0);
 
-            if (canceled) {
-                return;
-            }
-            photoSize = getDirectorySize(FileLoader.checkDirectory(FileLoader.MEDIA_DIR_IMAGE), 0);
-            if (canceled) {
-                return;
-            }
-            videoSize = getDirectorySize(FileLoader.checkDirectory(FileLoader.MEDIA_DIR_VIDEO), 0);
-            if (canceled) {
-                return;
-            }
-            documentsSize = getDirectorySize(FileLoader.checkDirectory(FileLoader.MEDIA_DIR_DOCUMENT), 1);
-            if (canceled) {
-                return;
-            }
-            musicSize = getDirectorySize(FileLoader.checkDirectory(FileLoader.MEDIA_DIR_DOCUMENT), 2);
-            if (canceled) {
-                return;
-            }
-            stickersSize = getDirectorySize(new File(FileLoader.checkDirectory(FileLoader.MEDIA_DIR_CACHE), "acache"), 0);
-            if (canceled) {
-                return;
+                if (canceled) {
+                    return;
+                }
+                photoSize = getDirectorySize(FileLoader.checkDirectory(FileLoader.MEDIA_DIR_IMAGE), 0);
+                if (canceled) {
+                    return;
+                }
+                videoSize = getDirectorySize(FileLoader.checkDirectory(FileLoader.MEDIA_DIR_VIDEO), 0);
+                if (canceled) {
+                    return;
+                }
+                documentsSize = getDirectorySize(FileLoader.checkDirectory(FileLoader.MEDIA_DIR_DOCUMENT), 1);
+                if (canceled) {
+                    return;
+                }
+                musicSize = getDirectorySize(FileLoader.checkDirectory(FileLoader.MEDIA_DIR_DOCUMENT), 2);
+                if (canceled) {
+                    return;
+                }
+                stickersSize = getDirectorySize(new File(FileLoader.checkDirectory(FileLoader.MEDIA_DIR_CACHE), "acache"), 0);
+                if (canceled) {
+                    return;
+                }
+                audioSize = getDirectorySize(FileLoader.checkDirectory(FileLoader.MEDIA_DIR_AUDIO), 0);
             }
-            audioSize = getDirectorySize(FileLoader.checkDirectory(FileLoader.MEDIA_DIR_AUDIO), 0);
             totalSize = cacheSize + videoSize + audioSize + photoSize + documentsSize + musicSize + stickersSize;
 
             File path = EnvUtil.getTelegramPath();
@@ -314,6 +340,7 @@ public class CacheControlActivity extends BaseFragment {
                 if (file != null) {
                     Utilities.clearDir(file.getAbsolutePath(), documentsMusicType, Long.MAX_VALUE, true);
                 }
+                MediaCacheLedger.getInstance().forgetCategory(a);
                 if (type == FileLoader.MEDIA_DIR_CACHE) {
                     cacheSize = getDirectorySize(FileLoader.checkDirectory(FileLoader.MEDIA_DIR_CACHE), documentsMusicType);
                     imagesCleared = true;
@@ -345,6 +372,8 @@ public class CacheControlActivity extends BaseFragment {
                     stickersSize = getDirectorySize(new File(FileLoader.checkDirectory(FileLoader.MEDIA_DIR_CACHE), "acache"), documentsMusicType);
                 }
             }
+            // clearDir also descends into subdirectories that belong to other categories
+            MediaCacheLedger.getInstance().forgetDeleted();
             final boolean imagesClearedFinal = imagesCleared;
             totalSize = cacheSize + videoSize + audioSize + photoSize + documentsSize + musicSize + stickersSize;
 
@@ -422,6 +451,19 @@ public class CacheControlActivity extends BaseFragment {
             }
             if (position == databaseRow) {
                 clearDatabase();
+            } else if (position >= cacheLimitsStartRow && position < cacheLimitsEndRow) {
+                int category = position - cacheLimitsStartRow;
+                PopupBuilder builder = new PopupBuilder(view);
+                String[] items = new String[CACHE_LIMITS.length];
+                for (int a = 0; a < CACHE_LIMITS.length; a++) {
+                    items[a] = formatCacheLimit(CACHE_LIMITS[a]);
+                }
+                builder.setItems(items, (i, __) -> {
+                    MediaCacheLedger.getInstance().setBudget(category, CACHE_LIMITS[i]);
+                    listAdapter.notifyItemChanged(position);
+                    return Unit.INSTANCE;
+                });
+                builder.show();
             } else if (position == resetDataRow) {
                 resetData();
             } else if (position == storageUsageRow) {
@@ -541,6 +583,29 @@ public class CacheControlActivity extends BaseFragment {
         return fragmentView;
     }
 
+    private static String getCategoryName(int category) {
+        switch (category) {
+            case MediaCacheLedger.CATEGORY_PHOTO:
+                return LocaleController.getString("LocalPhotoCache", R.string.LocalPhotoCache);
+            case MediaCacheLedger.CATEGORY_VIDEO:
+                return LocaleController.getString("LocalVideoCache", R.string.LocalVideoCache);
+            case MediaCacheLedger.CATEGORY_DOCUMENT:
+                return LocaleController.getString("LocalDocumentCache", R.string.LocalDocumentCache);
+            case MediaCacheLedger.CATEGORY_MUSIC:
+                return LocaleController.getString("LocalMusicCache", R.string.LocalMusicCache);
+            case MediaCacheLedger.CATEGORY_AUDIO:
+                return LocaleController.getString("LocalAudioCache", R.string.LocalAudioCache);
+            case MediaCacheLedger.CATEGORY_STICKERS:
+                return LocaleController.getString("AnimatedStickers", R.string.AnimatedStickers);
+            default:
+                return LocaleController.getString("LocalCache", R.string.LocalCache);
+        }
+    }
+
+    private static String formatCacheLimit(long bytes) {
+        return bytes <= 0 ? LocaleController.getString("NoLimit", R.string.NoLimit) : AndroidUtilities.formatFileSize(bytes);
+    }
+
     private void resetData() {
         BottomBuilder builder = new BottomBuilder(getParentActivity());
         builder.addTitle(LocaleController.getString("StorageResetInfo", R.string.StorageResetInfo));
@@ -711,7 +776,7 @@ public class CacheControlActivity extends BaseFragment {
         @Override
         public boolean isEnabled(RecyclerView.ViewHolder holder) {
             int position = holder.getAdapterPosition();
-            return position == databaseRow || position == resetDataRow || (position == storageUsageRow && (totalSize > 0) && !calculating);
+            return position == databaseRow || position == resetDataRow || position >= cacheLimitsStartRow && position < cacheLimitsEndRow || (position == storageUsageRow && (totalSize > 0) && !calculating);
         }
 
         @Override
@@ -782,6 +847,9 @@ public class CacheControlActivity extends BaseFragment {
                     TextSettingsCell textCell = (TextSettingsCell) holder.itemView;
                     if (position == databaseRow) {
                         textCell.setTextAndValue(LocaleController.getString("ClearLocalDatabase", R.string.ClearLocalDatabase), AndroidUtilities.formatFileSize(databaseSize), false);
+                    } else if (position >= cacheLimitsStartRow && position < cacheLimitsEndRow) {
+                        int category = position - cacheLimitsStartRow;
+                        textCell.setTextAndValue(getCategoryName(category), formatCacheLimit(MediaCacheLedger.getInstance().getBudget(category)), position != cacheLimitsEndRow - 1);
                     } else if (position == resetDataRow) {
                         textCell.setText(LocaleController.getString("StorageReset", R.string.StorageReset), false);
                         textCell.setTextColor(Theme.getColor(Theme.key_windowBackgroundWhiteRedText));
@@ -795,6 +863,9 @@ public class CacheControlActivity extends BaseFragment {
                    } else if (position == keepMediaInfoRow) {
                         privacyCell.setText(AndroidUtilities.replaceTags(LocaleController.getString("KeepMediaInfo", R.string.KeepMediaInfo)));
                         privacyCell.setBackgroundDrawable(Theme.getThemedDrawable(mContext, R.drawable.greydivider, Theme.key_windowBackgroundGrayShadow));
+                    } else if (position == cacheLimitsInfoRow) {
+                        privacyCell.setText(LocaleController.getString("CacheLimitsInfo", R.string.CacheLimitsInfo));
+                        privacyCell.setBackgroundDrawable(Theme.getThemedDrawable(mContext, R.drawable.greydivider, Theme.key_windowBackgroundGrayShadow));
                     }
                     break;
                 case 2:
@@ -805,6 +876,8 @@ public class CacheControlActivity extends BaseFragment {
                     HeaderCell headerCell = (HeaderCell) holder.itemView;
                     if (position == keepMediaHeaderRow) {
                         headerCell.setText(LocaleController.getString("KeepMedia", R.string.KeepMedia));
+                    } else if (position == cacheLimitsHeaderRow) {
+                        headerCell.setText(LocaleController.getString("CacheLimits", R.string.CacheLimits));
                     } else if (position == deviseStorageHeaderRow) {
                         headerCell.setText(LocaleController.getString("DeviceStorage", R.string.DeviceStorage));
                     }
@@ -814,13 +887,13 @@ public class CacheControlActivity extends BaseFragment {
 
         @Override
         public int getItemViewType(int i) {
-            if (i == databaseInfoRow || i == keepMediaInfoRow) {
+            if (i == databaseInfoRow || i == keepMediaInfoRow || i == cacheLimitsInfoRow) {
                 return 1;
             }
             if (i == storageUsageRow) {
                 return 2;
             }
-            if (i == keepMediaHeaderRow || i == deviseStorageHeaderRow) {
+            if (i == keepMediaHeaderRow || i == cacheLimitsHeaderRow || i == deviseStorageHeaderRow) {
                 return 3;
             }
             if (i == keepMediaChooserRow) {
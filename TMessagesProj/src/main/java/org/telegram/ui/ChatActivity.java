@@ -535,6 +535,9 @@ public class ChatActivity extends BaseFragment implements NotificationCenter.Not
     private boolean fragmentBeginToShow;
     private long openAnimationStartTime;
 
+    private ArrayList<String> visibleFiles = new ArrayList<>();
+    private ArrayList<String> lastVisibleFiles;
+
     private boolean scrollToTopOnResume;
     private boolean forceScrollToTop;
     private boolean scrollToTopUnReadOnResume;
@@ -1547,6 +1550,7 @@ public class ChatActivity extends BaseFragment implements NotificationCenter.Not
     @Override
     public void onFragmentDestroy() {
         super.onFragmentDestroy();
+        getFileLoader().setVisibleFiles(classGuid, null);
         if (chatActivityEnterView != null) {
             chatActivityEnterView.onDestroy();
         }
@@ -9123,6 +9127,7 @@ public class ChatActivity extends BaseFragment implements NotificationCenter.Not
         int count = chatListView.getChildCount();
         int firstMessagePosition = -1;
         int lastMessagePosition = -1;
+        visibleFiles.clear();
         for (int a = 0; a < count; a++) {
             View child = chatListView.getChildAt(a);
             if (!(child instanceof ChatMessageCell)) {
@@ -9139,6 +9144,12 @@ public class ChatActivity extends BaseFragment implements NotificationCenter.Not
 
             ChatMessageCell cell = (ChatMessageCell) child;
             MessageObject object = cell.getMessageObject();
+            if (object != null && !object.mediaExists) {
+                String fileName = object.getFileName();
+                if (!TextUtils.isEmpty(fileName)) {
+                    visibleFiles.add(fileName);
+                }
+            }
             if (object == null || object.mediaExists || !object.isSent() || object.loadingCancelled) {
                 continue;
             }
@@ -9190,6 +9201,10 @@ public class ChatActivity extends BaseFragment implements NotificationCenter.Not
                 }
             }
         }
+        if (!visibleFiles.equals(lastVisibleFiles)) {
+            lastVisibleFiles = new ArrayList<>(visibleFiles);
+            getFileLoader().setVisibleFiles(classGuid, lastVisibleFiles);
+        }
         showNoSoundHint();
     }
 
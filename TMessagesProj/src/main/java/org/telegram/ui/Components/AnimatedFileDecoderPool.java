@@ -0,0 +1,220 @@
+package org.telegram.ui.Components;
+
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+
+import org.telegram.messenger.BuildVars;
+import org.telegram.messenger.FileLog;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.PriorityQueue;
+
+/**
+ * Bounded set of decoder threads shared by {@link AnimatedFileDrawable}s. Every drawable has at
+ * most one frame task queued, so serving due tasks in order of their due time keeps drawables
+ * fair to each other; tasks of visible drawables go first. Nothing is discarded: a task that
+ * starts later than its frame interval is counted as starved. Decoded frame bitmaps of recycled
+ * drawables are kept for reuse by the next drawable of the same size.
+ */
+public class AnimatedFileDecoderPool {
+
+    private static final int MAX_POOLED_BITMAPS_SIZE = 12 * 1024 * 1024;
+    private static final int LOG_INTERVAL = 1000;
+
+    private static class Task implements Comparable<Task> {
+        Runnable runnable;
+        long due;
+        long budget;
+        boolean visible;
+        long order;
+
+        @Override
+        public int compareTo(Task other) {
+            if (due != other.due) {
+                return due < other.due ? -1 : 1;
+            }
+            return Long.compare(order, other.order);
+        }
+    }
+
+    private static volatile AnimatedFileDecoderPool Instance;
+
+    public static AnimatedFileDecoderPool getInstance() {
+        AnimatedFileDecoderPool localInstance = Instance;
+        if (localInstance == null) {
+            synchronized (AnimatedFileDecoderPool.class) {
+                localInstance = Instance;
+                if (localInstance == null) {
+                    Instance = localInstance = new AnimatedFileDecoderPool();
+                }
+            }
+        }
+        return localInstance;
+    }
+
+    private final Object lock = new Object();
+    private final PriorityQueue<Task> delayedTasks = new PriorityQueue<>();
+    private final ArrayDeque<Task> visibleTasks = new ArrayDeque<>();
+    private final ArrayDeque<Task> hiddenTasks = new ArrayDeque<>();
+    private final Thread[] threads;
+    private long nextOrder;
+    private int decodedCount;
+    private int starvedCount;
+    private long maxDelay;
+
+    private final HashMap<Long, ArrayList<Bitmap>> bitmaps = new HashMap<>();
+    private int pooledBitmapsSize;
+    private int reusedBitmapsCount;
+
+    private AnimatedFileDecoderPool() {
+        threads = new Thread[Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors() - 1))];
+    }
+
+    /**
+     * Runs {@code runnable} on a decoder thread after {@code delay} ms; {@code budget} is the
+     * frame interval after which the frame counts as starved.
+     */
+    public void schedule(Runnable runnable, long delay, long budget, boolean visible) {
+        Task task = new Task();
+        task.runnable = runnable;
+        task.due = SystemClock.elapsedRealtime() + Math.max(0, delay);
+        task.budget = Math.max(16, budget);
+        task.visible = visible;
+        synchronized (lock) {
+            task.order = nextOrder++;
+            if (delay <= 0) {
+                (visible ? visibleTasks : hiddenTasks).add(task);
+            } else {
+                delayedTasks.add(task);
+            }
+            startThreads();
+            lock.notify();
+        }
+    }
+
+    private void startThreads() {
+        for (int a = 0; a < threads.length; a++) {
+            if (threads[a] == null) {
+                threads[a] = new Thread(this::runWorker, "animatedFileDecoder" + a);
+                threads[a].setPriority(Thread.MAX_PRIORITY - 1);
+                threads[a].start();
+            }
+        }
+    }
+
+    private void runWorker() {
+        while (true) {
+            Task task;
+            try {
+                task = takeTask();
+            } catch (InterruptedException e) {
+                FileLog.e(e);
+                return;
+            }
+            long delay = SystemClock.elapsedRealtime() - task.due;
+            synchronized (lock) {
+                decodedCount++;
+                if (delay > task.budget) {
+                    starvedCount++;
+                }
+                if (delay > maxDelay) {
+                    maxDelay = delay;
+                }
+                if (BuildVars.LOGS_ENABLED && decodedCount % LOG_INTERVAL == 0) {
+                    FileLog.d("animated file decoders " + getStatsLocked());
+                }
+            }
+            try {
+                task.runnable.run();
+            } catch (Throwable e) {
+                FileLog.e(e);
+            }
+        }
+    }
+
+    private Task takeTask() throws InterruptedException {
+        synchronized (lock) {
+            while (true) {
+                long now = SystemClock.elapsedRealtime();
+                Task task;
+                while ((task = delayedTasks.peek()) != null && task.due <= now) {
+                    delayedTasks.poll();
+                    (task.visible ? visibleTasks : hiddenTasks).add(task);
+                }
+                task = visibleTasks.poll();
+                if (task == null) {
+                    task = hiddenTasks.poll();
+                }
+                if (task != null) {
+                    return task;
+                }
+                Task next = delayedTasks.peek();
+                if (next != null) {
+                    lock.wait(Math.max(1, next.due - now));
+                } else {
+                    lock.wait();
+                }
+            }
+        }
+    }
+
+    private static long getBitmapKey(int w, int h) {
+        return (long) w << 32 | h;
+    }
+
+    public Bitmap obtainBitmap(int w, int h) {
+        synchronized (bitmaps) {
+            ArrayList<Bitmap> list = bitmaps.get(getBitmapKey(w, h));
+            if (list != null && !list.isEmpty()) {
+                Bitmap bitmap = list.remove(list.size() - 1);
+                pooledBitmapsSize -= bitmap.getByteCount();
+                reusedBitmapsCount++;
+                return bitmap;
+            }
+        }
+        return Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888);
+    }
+
+    /**
+     * Takes a frame bitmap that is no longer drawn; it is recycled if the pool is full.
+     */
+    public void releaseBitmap(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return;
+        }
+        synchronized (bitmaps) {
+            if (bitmap.isMutable() && bitmap.getConfig() == Bitmap.Config.ARGB_8888 && pooledBitmapsSize + bitmap.getByteCount() <= MAX_POOLED_BITMAPS_SIZE) {
+                long key = getBitmapKey(bitmap.getWidth(), bitmap.getHeight());
+                ArrayList<Bitmap> list = bitmaps.get(key);
+                if (list == null) {
+                    bitmaps.put(key, list = new ArrayList<>());
+                }
+                for (int a = 0, N = list.size(); a < N; a++) {
+                    if (list.get(a) == bitmap) {
+                        return;
+                    }
+                }
+                list.add(bitmap);
+                pooledBitmapsSize += bitmap.getByteCount();
+                return;
+            }
+        }
+        bitmap.recycle();
+    }
+
+    private String getStatsLocked() {
+        return "threads " + threads.length + " decoded " + decodedCount + " starved " + starvedCount + " max delay " + maxDelay + "ms queued " + (delayedTasks.size() + visibleTasks.size() + hiddenTasks.size());
+    }
+
+    public String getStats() {
+        String stats;
+        synchronized (lock) {
+            stats = getStatsLocked();
+        }
+        synchronized (bitmaps) {
+            return stats + " pooled bitmaps " + pooledBitmapsSize / 1024 + "K reused " + reusedBitmapsCount;
+        }
+    }
+}
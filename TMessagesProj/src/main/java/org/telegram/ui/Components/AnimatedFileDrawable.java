@@ -35,9 +35,6 @@ import org.telegram.tgnet.TLRPC;
 
 import java.io.File;
 import java.util.ArrayList;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 
 public class AnimatedFileDrawable extends BitmapDrawable implements Animatable {
 
@@ -128,8 +125,6 @@ public class AnimatedFileDrawable extends BitmapDrawable implements Animatable {
     private boolean useSharedQueue;
     private boolean invalidatePath = true;
 
-    private static ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(2, new ThreadPoolExecutor.DiscardPolicy());
-
     protected final Runnable mInvalidateTask = () -> {
         if (!secondParentViews.isEmpty()) {
             for (int a = 0, N = secondParentViews.size(); a < N; a++) {
@@ -149,14 +144,9 @@ public class AnimatedFileDrawable extends BitmapDrawable implements Animatable {
                 nativePtr = 0;
             }
             if (nativePtr == 0) {
-                if (renderingBitmap != null) {
-                    renderingBitmap.recycle();
-                    renderingBitmap = null;
-                }
-                if (backgroundBitmap != null) {
-                    backgroundBitmap.recycle();
-                    backgroundBitmap = null;
-                }
+                releaseBitmaps(renderingBitmap, backgroundBitmap);
+                renderingBitmap = null;
+                backgroundBitmap = null;
                 if (decodeQueue != null) {
                     decodeQueue.recycle();
                     decodeQueue = null;
@@ -176,14 +166,9 @@ public class AnimatedFileDrawable extends BitmapDrawable implements Animatable {
                 nativePtr = 0;
             }
             if (nativePtr == 0) {
-                if (renderingBitmap != null) {
-                    renderingBitmap.recycle();
-                    renderingBitmap = null;
-                }
-                if (backgroundBitmap != null) {
-                    backgroundBitmap.recycle();
-                    backgroundBitmap = null;
-                }
+                releaseBitmaps(renderingBitmap, backgroundBitmap);
+                renderingBitmap = null;
+                backgroundBitmap = null;
                 if (decodeQueue != null) {
                     decodeQueue.recycle();
                     decodeQueue = null;
@@ -254,7 +239,7 @@ public class AnimatedFileDrawable extends BitmapDrawable implements Animatable {
                     if (nativePtr != 0 || metaData[0] == 0 || metaData[1] == 0) {
                         if (backgroundBitmap == null && metaData[0] > 0 && metaData[1] > 0) {
                             try {
-                                backgroundBitmap = Bitmap.createBitmap((int) (metaData[0] * scaleFactor), (int) (metaData[1] * scaleFactor), Bitmap.Config.ARGB_8888);
+                                backgroundBitmap = AnimatedFileDecoderPool.getInstance().obtainBitmap((int) (metaData[0] * scaleFactor), (int) (metaData[1] * scaleFactor));
                             } catch (Throwable e) {
                                 FileLog.e(e);
                             }
@@ -448,14 +433,9 @@ public class AnimatedFileDrawable extends BitmapDrawable implements Animatable {
                 destroyDecoder(nativePtr);
                 nativePtr = 0;
             }
-            if (renderingBitmap != null) {
-                renderingBitmap.recycle();
-                renderingBitmap = null;
-            }
-            if (nextRenderingBitmap != null) {
-                nextRenderingBitmap.recycle();
-                nextRenderingBitmap = null;
-            }
+            releaseBitmaps(renderingBitmap, nextRenderingBitmap);
+            renderingBitmap = null;
+            nextRenderingBitmap = null;
             if (decodeQueue != null) {
                 decodeQueue.recycle();
                 decodeQueue = null;
@@ -527,6 +507,23 @@ public class AnimatedFileDrawable extends BitmapDrawable implements Animatable {
         return metaData[3] / (float) metaData[4];
     }
 
+    private static void releaseBitmaps(Bitmap first, Bitmap second) {
+        // both fields often hold the same bitmap, it must be pooled once
+        AnimatedFileDecoderPool.getInstance().releaseBitmap(first);
+        if (second != first) {
+            AnimatedFileDecoderPool.getInstance().releaseBitmap(second);
+        }
+    }
+
+    private boolean isVisible() {
+        for (int a = 0, N = secondParentViews.size(); a < N; a++) {
+            if (secondParentViews.get(a).isShown()) {
+                return true;
+            }
+        }
+        return parentView == null || parentView.isShown();
+    }
+
     public int getCurrentProgressMs() {
         if (pendingSeekToUI >= 0) {
             return (int) pendingSeekToUI;
@@ -546,9 +543,10 @@ public class AnimatedFileDrawable extends BitmapDrawable implements Animatable {
         if (lastFrameDecodeTime != 0) {
             ms = Math.min(invalidateAfter, Math.max(0, invalidateAfter - (System.currentTimeMillis() - lastFrameDecodeTime)));
         }
-        if (useSharedQueue) {
-            executor.schedule(loadFrameTask = loadFrameRunnable, ms, TimeUnit.MILLISECONDS);
+        if (useSharedQueue || stream == null) {
+            AnimatedFileDecoderPool.getInstance().schedule(loadFrameTask = loadFrameRunnable, ms, invalidateAfter, isVisible());
         } else {
+            // reads of a stream block until the file is downloaded, keep them off the shared decoders
             if (decodeQueue == null) {
                 decodeQueue = new DispatchQueue("decodeQueue" + this);
             }
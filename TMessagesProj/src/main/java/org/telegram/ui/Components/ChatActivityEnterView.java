@@ -3394,9 +3394,9 @@ public class ChatActivityEnterView extends FrameLayout implements NotificationCe
         }
         AlertDialog progress = AlertUtil.showProgress(parentActivity);
         progress.show();
-        String finalText = text.toString();
+        CharSequence finalText = new SpannableStringBuilder(text);
         UIUtil.runOnIoDispatcher(() -> {
-            String ccText = CCConverter.get(CCTarget.valueOf(target)).convert(finalText);
+            CharSequence ccText = CCConverter.get(CCTarget.valueOf(target)).convert(finalText);
             UIUtil.runOnUIThread(() -> {
                 progress.dismiss();
                 if (start == end) messageEditText.setText(ccText);
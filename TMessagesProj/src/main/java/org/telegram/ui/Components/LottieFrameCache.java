@@ -0,0 +1,234 @@
+package org.telegram.ui.Components;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.util.LruCache;
+
+import org.telegram.messenger.BuildVars;
+import org.telegram.messenger.FileLog;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Frames decoded by {@link RLottieDrawable}s that play the same file at the same size, so identical
+ * stickers on screen decode every frame once. Frames are only kept for animations that are played
+ * by more than one drawable at a time; looping drawables that start while another one is running
+ * join it at its current frame, so their frames line up. Evicted frames are pooled by size and
+ * reused for the next frames stored, so caching does not allocate a bitmap per frame.
+ */
+public class LottieFrameCache {
+
+    private static final int LOG_INTERVAL = 1000;
+
+    private static volatile LottieFrameCache Instance;
+
+    public static LottieFrameCache getInstance() {
+        LottieFrameCache localInstance = Instance;
+        if (localInstance == null) {
+            synchronized (LottieFrameCache.class) {
+                localInstance = Instance;
+                if (localInstance == null) {
+                    Instance = localInstance = new LottieFrameCache();
+                }
+            }
+        }
+        return localInstance;
+    }
+
+    // reads of a cached bitmap hold the cache's own lock, which it also removes entries under,
+    // so a bitmap that reaches entryRemoved is no longer being drawn from
+    private final LruCache<String, Bitmap> frames;
+    private final HashMap<Long, ArrayList<Bitmap>> pool = new HashMap<>();
+    private final int maxPoolSize;
+    private int poolSize;
+    private final HashMap<String, Integer> users = new HashMap<>();
+    private final ConcurrentHashMap<String, Integer> latestFrames = new ConcurrentHashMap<>();
+    private final ThreadLocal<Canvas> canvasLocal = new ThreadLocal<>();
+    private final Paint copyPaint = new Paint();
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+    private final AtomicInteger dropped = new AtomicInteger();
+
+    private LottieFrameCache() {
+        int maxSize = (int) Math.min(Runtime.getRuntime().maxMemory() / 16, 24 * 1024 * 1024);
+        frames = new LruCache<String, Bitmap>(maxSize) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+                recycleFrame(oldValue);
+            }
+        };
+        maxPoolSize = maxSize / 4;
+        copyPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));
+    }
+
+    public static String getKey(String path, int w, int h, boolean limitFps) {
+        return path + "_" + w + "_" + h + (limitFps ? "_l" : "");
+    }
+
+    private static String getFrameKey(String key, int frame) {
+        return key + "#" + frame;
+    }
+
+    private static long getPoolKey(int w, int h) {
+        return (long) w << 32 | h;
+    }
+
+    private void recycleFrame(Bitmap bitmap) {
+        synchronized (pool) {
+            int size = bitmap.getByteCount();
+            if (poolSize + size <= maxPoolSize) {
+                long poolKey = getPoolKey(bitmap.getWidth(), bitmap.getHeight());
+                ArrayList<Bitmap> bitmaps = pool.get(poolKey);
+                if (bitmaps == null) {
+                    pool.put(poolKey, bitmaps = new ArrayList<>());
+                }
+                bitmaps.add(bitmap);
+                poolSize += size;
+                return;
+            }
+        }
+        bitmap.recycle();
+    }
+
+    private Bitmap obtainFrame(int w, int h) {
+        synchronized (pool) {
+            ArrayList<Bitmap> bitmaps = pool.get(getPoolKey(w, h));
+            if (bitmaps != null && !bitmaps.isEmpty()) {
+                Bitmap bitmap = bitmaps.remove(bitmaps.size() - 1);
+                poolSize -= bitmap.getByteCount();
+                return bitmap;
+            }
+        }
+        return Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888);
+    }
+
+    private void drawFrame(Bitmap source, Bitmap dest) {
+        Canvas canvas = canvasLocal.get();
+        if (canvas == null) {
+            canvasLocal.set(canvas = new Canvas());
+        }
+        canvas.setBitmap(dest);
+        canvas.drawBitmap(source, 0, 0, copyPaint);
+        canvas.setBitmap(null);
+    }
+
+    public void addUser(String key) {
+        synchronized (users) {
+            Integer count = users.get(key);
+            users.put(key, count == null ? 1 : count + 1);
+        }
+    }
+
+    public void removeUser(String key) {
+        synchronized (users) {
+            Integer count = users.get(key);
+            if (count == null) {
+                return;
+            }
+            if (count > 1) {
+                users.put(key, count - 1);
+                return;
+            }
+            users.remove(key);
+        }
+        latestFrames.remove(key);
+        String prefix = key + "#";
+        for (String frameKey : frames.snapshot().keySet()) {
+            if (frameKey.startsWith(prefix)) {
+                frames.remove(frameKey);
+            }
+        }
+    }
+
+    /**
+     * Returns the frame last requested by the drawables playing the animation, or -1.
+     */
+    public int getLatestFrame(String key) {
+        Integer frame = latestFrames.get(key);
+        return frame != null ? frame : -1;
+    }
+
+    private boolean isShared(String key) {
+        synchronized (users) {
+            Integer count = users.get(key);
+            return count != null && count > 1;
+        }
+    }
+
+    /**
+     * Copies the cached frame into {@code dest}, returns false if it has not been decoded yet.
+     */
+    public boolean get(String key, int frame, Bitmap dest) {
+        latestFrames.put(key, frame);
+        if (!isShared(key)) {
+            return false;
+        }
+        synchronized (frames) {
+            Bitmap bitmap = frames.get(getFrameKey(key, frame));
+            if (bitmap == null) {
+                count(misses);
+                return false;
+            }
+            drawFrame(bitmap, dest);
+        }
+        count(hits);
+        return true;
+    }
+
+    public void put(String key, int frame, Bitmap bitmap) {
+        if (!isShared(key)) {
+            return;
+        }
+        try {
+            Bitmap copy = obtainFrame(bitmap.getWidth(), bitmap.getHeight());
+            drawFrame(bitmap, copy);
+            frames.put(getFrameKey(key, frame), copy);
+        } catch (Throwable e) {
+            FileLog.e(e);
+        }
+    }
+
+    /**
+     * Counts a frame that was not decoded because its drawable was off screen.
+     */
+    public void onFrameDropped() {
+        count(dropped);
+    }
+
+    private void count(AtomicInteger counter) {
+        counter.incrementAndGet();
+        if (BuildVars.LOGS_ENABLED && (hits.get() + misses.get() + dropped.get()) % LOG_INTERVAL == 0) {
+            FileLog.d("lottie frame cache " + getStats());
+        }
+    }
+
+    public void clear() {
+        frames.evictAll();
+        synchronized (pool) {
+            for (ArrayList<Bitmap> bitmaps : pool.values()) {
+                for (int a = 0, N = bitmaps.size(); a < N; a++) {
+                    bitmaps.get(a).recycle();
+                }
+            }
+            pool.clear();
+            poolSize = 0;
+        }
+    }
+
+    public String getStats() {
+        int hitsCount = hits.get();
+        int lookups = hitsCount + misses.get();
+        return "hits " + hitsCount + " misses " + (lookups - hitsCount) + " hit rate " + (lookups != 0 ? hitsCount * 100 / lookups : 0) + "% dropped " + dropped.get() + " size " + frames.size() / 1024 + "K";
+    }
+}
@@ -95,6 +95,7 @@ public class RLottieDrawable extends BitmapDrawable implements Animatable {
     private boolean applyingLayerColors;
     protected int currentFrame;
     private boolean shouldLimitFps;
+    private volatile String shareKey;
 
     private float scaleX = 1.0f;
     private float scaleY = 1.0f;
@@ -275,7 +276,16 @@ public class RLottieDrawable extends BitmapDrawable implements Animatable {
                     } else {
                         ptrToUse = nativePtr;
                     }
-                    int result = getFrame(ptrToUse, currentFrame, backgroundBitmap, width, height, backgroundBitmap.getRowBytes(), true);
+                    String key = shareKey;
+                    int result;
+                    if (key != null && LottieFrameCache.getInstance().get(key, currentFrame, backgroundBitmap)) {
+                        result = 0;
+                    } else {
+                        result = getFrame(ptrToUse, currentFrame, backgroundBitmap, width, height, backgroundBitmap.getRowBytes(), true);
+                        if (key != null && result != -1) {
+                            LottieFrameCache.getInstance().put(key, currentFrame, backgroundBitmap);
+                        }
+                    }
                     if (result == -1) {
                         uiHandler.post(uiRunnableNoFrame);
                         if (frameWaitSync != null) {
@@ -376,6 +386,18 @@ public class RLottieDrawable extends BitmapDrawable implements Animatable {
             shouldLimitFps = false;
         }
         timeBetweenFrames = Math.max(shouldLimitFps ? 33 : 16, (int) (1000.0f / metaData[1]));
+        if (nativePtr != 0 && colorReplacement == null) {
+            shareKey = LottieFrameCache.getKey(file.getAbsolutePath(), w, h, shouldLimitFps);
+            LottieFrameCache.getInstance().addUser(shareKey);
+        }
+    }
+
+    private void stopSharingFrames() {
+        String key = shareKey;
+        if (key != null) {
+            shareKey = null;
+            LottieFrameCache.getInstance().removeUser(key);
+        }
     }
 
     public RLottieDrawable(int rawRes, String name, int w, int h) {
@@ -595,6 +617,27 @@ public class RLottieDrawable extends BitmapDrawable implements Animatable {
         }
     }
 
+    /**
+     * Returns false only when every view the drawable is known to be drawn into is off screen.
+     */
+    private boolean isOnScreen() {
+        Callback callback = getCallback();
+        if (callback != null) {
+            return !(callback instanceof View) || ((View) callback).isShown();
+        }
+        boolean hasViews = false;
+        for (int a = 0, N = parentViews.size(); a < N; a++) {
+            View view = parentViews.get(a).get();
+            if (view != null) {
+                if (view.isShown()) {
+                    return true;
+                }
+                hasViews = true;
+            }
+        }
+        return !hasViews;
+    }
+
     protected boolean hasParentView() {
         if (getCallback() != null) {
             return true;
@@ -638,6 +681,7 @@ public class RLottieDrawable extends BitmapDrawable implements Animatable {
     public void recycle() {
         isRunning = false;
         isRecycled = true;
+        stopSharingFrames();
         checkRunningTasks();
         if (loadingInBackground || secondLoadingInBackground) {
             destroyAfterLoading = true;
@@ -683,6 +727,13 @@ public class RLottieDrawable extends BitmapDrawable implements Animatable {
             return;
         }
         isRunning = true;
+        String key = shareKey;
+        if (key != null && currentFrame == 0 && autoRepeat == 1 && customEndFrame < 0 && loadFrameTask == null) {
+            int frame = LottieFrameCache.getInstance().getLatestFrame(key);
+            if (frame > 0 && frame < metaData[0]) {
+                currentFrame = frame;
+            }
+        }
         if (invalidateOnProgressSet) {
             isInvalid = true;
             if (loadFrameTask != null) {
@@ -730,11 +781,13 @@ public class RLottieDrawable extends BitmapDrawable implements Animatable {
     }
 
     public void replaceColors(int[] colors) {
+        stopSharingFrames();
         newReplaceColors = colors;
         requestRedrawColors();
     }
 
     public void setLayerColor(String layerName, int color) {
+        stopSharingFrames();
         newColorUpdates.put(layerName, color);
         requestRedrawColors();
     }
@@ -757,6 +810,12 @@ public class RLottieDrawable extends BitmapDrawable implements Animatable {
         if (loadFrameTask != null || nextRenderingBitmap != null || nativePtr == 0 || loadingInBackground || destroyWhenDone || !isRunning && (!decodeSingleFrame || decodeSingleFrame && singleFrameDecoded)) {
             return false;
         }
+        boolean onScreen = isOnScreen();
+        if (!onScreen && isRunning && renderingBitmap != null) {
+            // resumed from updateCurrentFrame once the drawable is drawn again
+            LottieFrameCache.getInstance().onFrameDropped();
+            return false;
+        }
         if (!newColorUpdates.isEmpty()) {
             pendingColorUpdates.putAll(newColorUpdates);
             newColorUpdates.clear();
@@ -765,7 +824,7 @@ public class RLottieDrawable extends BitmapDrawable implements Animatable {
             pendingReplaceColors = newReplaceColors;
             newReplaceColors = null;
         }
-        loadFrameRunnableQueue.execute(loadFrameTask = loadFrameRunnable);
+        loadFrameRunnableQueue.execute(loadFrameTask = loadFrameRunnable, onScreen);
         return true;
     }
 
@@ -967,7 +1026,7 @@ public class RLottieDrawable extends BitmapDrawable implements Animatable {
             timeCheck = timeBetweenFrames;
         }
         if (isRunning) {
-            if (renderingBitmap == null && nextRenderingBitmap == null) {
+            if (nextRenderingBitmap == null) {
                 scheduleNextGetFrame();
             } else if (nextRenderingBitmap != null && (renderingBitmap == null || timeDiff >= timeCheck) && isCurrentParentViewMaster()) {
                 if (vibrationPattern != null && currentParentView != null) {
@@ -537,9 +537,6 @@ public class FilteredSearchView extends FrameLayout implements NotificationCente
             } else {
                 if (!TextUtils.isEmpty(query)) {
                     resultArray = new ArrayList<>();
-                    ArrayList<CharSequence> resultArrayNames = new ArrayList<>();
-                    ArrayList<TLRPC.User> encUsers = new ArrayList<>();
-                    MessagesStorage.getInstance(currentAccount).localSearch(0, query, resultArray, resultArrayNames, encUsers, folderId);
                 }
 
                 final TLRPC.TL_messages_searchGlobal req = new TLRPC.TL_messages_searchGlobal();
@@ -581,7 +578,8 @@ public class FilteredSearchView extends FrameLayout implements NotificationCente
             ArrayList<TLObject> finalResultArray = resultArray;
             final ArrayList<FiltersView.DateData> dateData = new ArrayList<>();
             FiltersView.fillTipDates(lastMessagesSearchString, dateData);
-            ConnectionsManager.getInstance(currentAccount).sendRequest(request, (response, error) -> {
+            TLObject finalRequest = request;
+            Runnable sendRequest = () -> ConnectionsManager.getInstance(currentAccount).sendRequest(finalRequest, (response, error) -> {
                 ArrayList<MessageObject> messageObjects = new ArrayList<>();
                 if (error == null) {
                     TLRPC.messages_Messages res = (TLRPC.messages_Messages) response;
@@ -801,6 +799,15 @@ public class FilteredSearchView extends FrameLayout implements NotificationCente
                     adapter.notifyDataSetChanged();
                 });
             });
+            if (finalResultArray != null) {
+                // the dialogs name index belongs to the storage queue
+                MessagesStorage.getInstance(currentAccount).getStorageQueue().postRunnable(() -> {
+                    MessagesStorage.getInstance(currentAccount).localSearch(0, query, finalResultArray, new ArrayList<>(), new ArrayList<>(), folderId);
+                    sendRequest.run();
+                });
+            } else {
+                sendRequest.run();
+            }
         }, (filterAndQueryIsSame && !messages.isEmpty()) ? 0 : 350);
 
         if (currentSearchFilter == null) {
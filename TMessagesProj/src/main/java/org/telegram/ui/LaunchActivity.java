@@ -131,7 +131,6 @@ import org.telegram.ui.Components.voip.VoIPHelper;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
@@ -149,11 +148,9 @@ import tw.nekomimi.nekogram.ExternalGcm;
 import tw.nekomimi.nekogram.NekoConfig;
 import tw.nekomimi.nekogram.NekoXConfig;
 import tw.nekomimi.nekogram.settings.NekoSettingsActivity;
-import tw.nekomimi.nekogram.sub.SubInfo;
 import tw.nekomimi.nekogram.sub.SubManager;
 import tw.nekomimi.nekogram.utils.AlertUtil;
 import tw.nekomimi.nekogram.utils.ProxyUtil;
-import tw.nekomimi.nekogram.utils.UIUtil;
 
 public class LaunchActivity extends Activity implements ActionBarLayout.ActionBarLayoutDelegate, NotificationCenter.NotificationCenterDelegate, DialogsActivity.DialogsActivityDelegate {
 
@@ -920,29 +917,7 @@ public class LaunchActivity extends Activity implements ActionBarLayout.ActionBa
         }
         MediaController.getInstance().setBaseActivity(this, true);
         ExternalGcm.checkUpdate(this);
-        UIUtil.runOnIoDispatcher(() -> {
-
-            for (SubInfo subInfo : SubManager.getSubList().find()) {
-
-                if (subInfo == null || !subInfo.enable) continue;
-
-                try {
-
-                    subInfo.proxies = subInfo.reloadProxies();
-                    subInfo.lastFetch = System.currentTimeMillis();
-
-                    SubManager.getSubList().update(subInfo, true);
-                    SharedConfig.reloadProxyList();
-
-                } catch (IOException allTriesFailed) {
-
-                    FileLog.e(allTriesFailed);
-
-                }
-
-            }
-
-        });
+        SubManager.scheduleRefresh();
         //FileLog.d("UI create time = " + (SystemClock.elapsedRealtime() - ApplicationLoader.startTime));
     }
 
@@ -72,7 +72,6 @@ import org.telegram.ui.Components.RecyclerListView;
 import org.telegram.ui.Components.URLSpanNoUnderline;
 
 import java.io.File;
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
@@ -80,9 +79,6 @@ import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeSet;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -90,6 +86,7 @@ import java.util.regex.Pattern;
 import cn.hutool.core.thread.ThreadUtil;
 import cn.hutool.core.util.StrUtil;
 import kotlin.Unit;
+import kotlinx.coroutines.Job;
 import okhttp3.HttpUrl;
 import tw.nekomimi.nekogram.BottomBuilder;
 import tw.nekomimi.nekogram.ShadowsocksRSettingsActivity;
@@ -293,7 +290,7 @@ public class ProxyListActivity extends BaseFragment implements NotificationCente
         this.alert = alert;
     }
 
-    private LinkedList<SharedConfig.ProxyInfo> proxyList = SharedConfig.getProxyList();
+    private ArrayList<SharedConfig.ProxyInfo> proxyList = SharedConfig.getProxyList();
 
     @Override
     public boolean onFragmentCreate() {
@@ -310,6 +307,7 @@ public class ProxyListActivity extends BaseFragment implements NotificationCente
         useProxyForCalls = preferences.getBoolean("proxy_enabled_calls", false);
 
         updateRows(true);
+        checkProxyList(false);
 
         return true;
     }
@@ -321,7 +319,7 @@ public class ProxyListActivity extends BaseFragment implements NotificationCente
         NotificationCenter.getGlobalInstance().removeObserver(this, NotificationCenter.proxyCheckDone);
         NotificationCenter.getInstance(currentAccount).removeObserver(this, NotificationCenter.didUpdateConnectionState);
 
-        if (currentCheck != null) currentCheck.shutdownNow();
+        if (currentCheck != null) currentCheck.cancel(null);
 
     }
 
@@ -480,8 +478,7 @@ public class ProxyListActivity extends BaseFragment implements NotificationCente
                 } else if (id == menu_retest_ping) {
                     checkProxyList(true);
                 } else if (id == menu_reorder_by_ping) {
-                    SharedConfig.proxyList = new LinkedList<>(new TreeSet<>(SharedConfig.getProxyList()));
-                    SharedConfig.saveProxyList();
+                    SharedConfig.sortProxyList();
                     updateRows(true);
                 } else if (id == menu_export_json) {
                     File cacheFile = new File(ApplicationLoader.applicationContext.getExternalCacheDir(), "Proxy-List-" + new Date().toLocaleString() + ".nekox.json");
@@ -658,8 +655,8 @@ public class ProxyListActivity extends BaseFragment implements NotificationCente
         listView.setOnItemClickListener((view, position) -> {
             if (position == useProxyRow) {
                 if (SharedConfig.currentProxy == null) {
-                    if (!SharedConfig.proxyList.isEmpty()) {
-                        SharedConfig.setCurrentProxy(SharedConfig.proxyList.get(0));
+                    if (!proxyList.isEmpty()) {
+                        SharedConfig.setCurrentProxy(proxyList.get(0));
                     } else {
                         addProxy();
                         return;
@@ -698,7 +695,7 @@ public class ProxyListActivity extends BaseFragment implements NotificationCente
         });
         listView.setOnItemLongClickListener((view, position) -> {
             if (position >= proxyStartRow && position < proxyEndRow) {
-                final SharedConfig.ProxyInfo info = SharedConfig.proxyList.get(position - proxyStartRow);
+                final SharedConfig.ProxyInfo info = proxyList.get(position - proxyStartRow);
 
                 BottomBuilder builder = new BottomBuilder(context);
 
@@ -912,7 +909,6 @@ public class ProxyListActivity extends BaseFragment implements NotificationCente
                 });
             }
         }
-        checkProxyList(false);
         if (notify && listAdapter != null) {
             UIUtil.runOnUIThread(() -> {
                 try {
@@ -926,17 +922,17 @@ public class ProxyListActivity extends BaseFragment implements NotificationCente
         }
     }
 
-    private ExecutorService currentCheck;
+    private Job currentCheck;
 
     private void checkProxyList(boolean force) {
 
-        if (currentCheck == null) {
+        if (currentCheck != null) {
 
-            currentCheck = Executors.newFixedThreadPool(3);
+            currentCheck.cancel(null);
 
         }
 
-        ProxyChecksKt.checkProxyList(this, force, currentCheck);
+        currentCheck = ProxyChecksKt.checkProxyList(this, force);
 
     }
 
@@ -1071,31 +1067,17 @@ public class ProxyListActivity extends BaseFragment implements NotificationCente
 
             UIUtil.runOnIoDispatcher(() -> {
 
-                for (SubInfo subInfo : SubManager.getSubList().find()) {
-                    if (!subInfo.enable) continue;
-
-                    try {
-
-                        subInfo.proxies = subInfo.reloadProxies();
-                        subInfo.lastFetch = System.currentTimeMillis();
-
-                    } catch (IOException allTriesFailed) {
-
-                        if (canceled.get()) return;
+                SubManager.refreshSubs(true, (subInfo, allTriesFailed) -> {
 
+                    if (!canceled.get()) {
                         AlertUtil.showSimpleAlert(getParentActivity(), "All tries failed: " + allTriesFailed.toString().trim());
-
-                        continue;
-
                     }
 
-                    SubManager.getSubList().update(subInfo, true);
-
-                    if (canceled.get()) return;
+                    return Unit.INSTANCE;
 
-                }
+                });
 
-                SharedConfig.reloadProxyList();
+                if (canceled.get()) return;
 
                 updateRows(true);
 
@@ -1160,6 +1142,7 @@ public class ProxyListActivity extends BaseFragment implements NotificationCente
     public void didReceivedNotification(int id, int account, Object... args) {
         if (id == NotificationCenter.proxySettingsChanged) {
             updateRows(true);
+            checkProxyList(false);
         } else if (id == NotificationCenter.didUpdateConnectionState) {
             int state = ConnectionsManager.getInstance(account).getConnectionState();
             if (currentConnectionState != state) {
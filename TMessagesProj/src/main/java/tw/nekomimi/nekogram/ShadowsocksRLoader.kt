@@ -101,6 +101,8 @@ class ShadowsocksRLoader {
 
         val hash get() = (host + remotePort + password + protocol + obfs + method).hashCode()
 
+        fun withoutRemarks() = copy(remarks = null)
+
         override fun equals(other: Any?): Boolean {
             return super.equals(other) || (other is Bean && hash == other.hash)
         }
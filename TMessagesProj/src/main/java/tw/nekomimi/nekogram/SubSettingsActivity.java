@@ -263,8 +263,7 @@ public class SubSettingsActivity extends BaseFragment {
 
             try {
 
-                subInfo.proxies = subInfo.reloadProxies();
-                subInfo.lastFetch = System.currentTimeMillis();
+                subInfo.refresh();
 
             } catch (IOException allTriesFailed) {
 
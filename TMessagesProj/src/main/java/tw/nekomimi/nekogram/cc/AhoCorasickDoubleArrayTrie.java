@@ -4,6 +4,7 @@ import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
 import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -27,10 +28,14 @@ public class AhoCorasickDoubleArrayTrie<V> {
     protected int size;
 
     public void parseText(char[] text, IHit<V> processor) {
+        parseText(text, text.length, processor);
+    }
+
+    public void parseText(char[] text, int length, IHit<V> processor) {
         int position = 1;
         int currentState = 0;
-        for (char c : text) {
-            currentState = getState(currentState, c);
+        for (int i = 0; i < length; i++) {
+            currentState = getState(currentState, text[i]);
             int[] hitArray = output[currentState];
             if (hitArray != null) {
                 for (int hit : hitArray) {
@@ -63,6 +68,99 @@ public class AhoCorasickDoubleArrayTrie<V> {
         }
     }
 
+    private static final int BINARY_MAGIC = 0x4f435452;
+    private static final int BINARY_VERSION = 1;
+
+    /**
+     * Writes the finished automaton (double array, failure links, outputs and string values)
+     * in the flat layout read back by {@link #loadBinary(ByteBuffer)}.
+     */
+    public void saveBinary(DataOutputStream out) throws IOException {
+        out.writeInt(BINARY_MAGIC);
+        out.writeInt(BINARY_VERSION);
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            out.writeInt(base[i]);
+        }
+        for (int i = 0; i < size; i++) {
+            out.writeInt(check[i]);
+        }
+        out.writeInt(fail.length);
+        for (int f : fail) {
+            out.writeInt(f);
+        }
+        out.writeInt(output.length);
+        int total = 0;
+        out.writeInt(0);
+        for (int[] hits : output) {
+            total += hits == null ? 0 : hits.length;
+            out.writeInt(total);
+        }
+        for (int[] hits : output) {
+            if (hits != null) {
+                for (int hit : hits) {
+                    out.writeInt(hit);
+                }
+            }
+        }
+        out.writeInt(l.length);
+        for (int length : l) {
+            out.writeInt(length);
+        }
+        int chars = 0;
+        out.writeInt(v.length);
+        out.writeInt(0);
+        for (V value : v) {
+            chars += value.toString().length();
+            out.writeInt(chars);
+        }
+        for (V value : v) {
+            out.writeChars(value.toString());
+        }
+    }
+
+    private static int[] readInts(ByteBuffer buffer, int count, int capacity) {
+        int[] result = new int[capacity];
+        buffer.asIntBuffer().get(result, 0, count);
+        buffer.position(buffer.position() + count * 4);
+        return result;
+    }
+
+    public static AhoCorasickDoubleArrayTrie<String> loadBinary(ByteBuffer buffer) throws IOException {
+        if (buffer.getInt() != BINARY_MAGIC || buffer.getInt() != BINARY_VERSION) {
+            throw new IOException("invalid trie binary");
+        }
+        AhoCorasickDoubleArrayTrie<String> trie = new AhoCorasickDoubleArrayTrie<>();
+        trie.size = buffer.getInt();
+        trie.base = readInts(buffer, trie.size, trie.size + 65535);
+        trie.check = readInts(buffer, trie.size, trie.size + 65535);
+        int count = buffer.getInt();
+        trie.fail = readInts(buffer, count, count);
+        count = buffer.getInt();
+        int[] outputOffsets = readInts(buffer, count + 1, count + 1);
+        int[] outputData = readInts(buffer, outputOffsets[count], outputOffsets[count]);
+        trie.output = new int[count][];
+        for (int i = 0; i < count; i++) {
+            int length = outputOffsets[i + 1] - outputOffsets[i];
+            if (length > 0) {
+                trie.output[i] = new int[length];
+                System.arraycopy(outputData, outputOffsets[i], trie.output[i], 0, length);
+            }
+        }
+        count = buffer.getInt();
+        trie.l = readInts(buffer, count, count);
+        count = buffer.getInt();
+        int[] valueOffsets = readInts(buffer, count + 1, count + 1);
+        char[] chars = new char[valueOffsets[count]];
+        buffer.asCharBuffer().get(chars);
+        String[] values = new String[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = new String(chars, valueOffsets[i], valueOffsets[i + 1] - valueOffsets[i]);
+        }
+        trie.v = values;
+        return trie;
+    }
+
     public void save(ObjectOutputStream out) throws IOException {
         out.writeObject(base);
         out.writeObject(check);
@@ -1,9 +1,17 @@
 package tw.nekomimi.nekogram.cc
 
+import org.telegram.messenger.ApplicationLoader
+import org.telegram.messenger.FileLog
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
 import java.util.*
-import kotlin.collections.HashMap
 
-class CCConverter(val target: CCTarget) {
+/**
+ * Converters prefer the tries precompiled into assets/opencc by the compileOpenCCTries build
+ * task, which are mapped straight into the double arrays; the text dictionaries are only parsed
+ * when those are missing.
+ */
+class CCConverter(val target: CCTarget, private val useCompiled: Boolean = true) {
 
     companion object {
 
@@ -22,110 +30,49 @@ class CCConverter(val target: CCTarget) {
 
     val tries = LinkedList<AhoCorasickDoubleArrayTrie<String>>()
 
-    private fun addTrie(dicts: Array<CCDict>, revDicts: Array<CCDict> = arrayOf()) {
-        val storage = TreeMap<String, LinkedList<String>>()
-        for (dictionary in dicts) {
-            dictionary.postInit()
-            storage.putAll(dictionary.storage)
-        }
-        for (dictionary in revDicts) {
-            dictionary.postInit()
-            val revMap = HashMap<String, LinkedList<String>>()
-            dictionary.storage.forEach { (key, value) ->
-                value.forEach {
-                    revMap.getOrPut(it) { LinkedList() }.add(key)
+    private fun loadCompiledTrie(index: Int): AhoCorasickDoubleArrayTrie<String>? {
+        val path = "opencc/" + OpenCCCompiler.getCompiledName(target.name, index)
+        val assets = ApplicationLoader.applicationContext.assets
+        val buffer = runCatching {
+            assets.openFd(path).use { fd ->
+                fd.createInputStream().use {
+                    it.channel.map(FileChannel.MapMode.READ_ONLY, fd.startOffset, fd.length)
                 }
             }
-            storage.putAll(revMap)
-        }
-        tries.add(AhoCorasickDoubleArrayTrie<String>().apply {
-            build(TreeMap(mapOf(* storage.mapNotNull { it.key to it.value[0] }.toTypedArray())))
-        })
+        }.recoverCatching {
+            ByteBuffer.wrap(assets.open(path).use { it.readBytes() })
+        }.getOrNull() ?: return null
+        return runCatching {
+            AhoCorasickDoubleArrayTrie.loadBinary(buffer)
+        }.onFailure {
+            FileLog.e(it)
+        }.getOrNull()
     }
 
-    init {
-
-        when (target) {
-            CCTarget.SC -> {
-                addTrie(arrayOf(
-                        CCDict.JPShinjitaiCharacters,
-                        CCDict.JPVariantsRev
-                ))
-                addTrie(arrayOf(
-                        CCDict.TSCharacters
-                ))
-            }
-            CCTarget.SP -> {
-                addTrie(arrayOf(
-                        CCDict.JPShinjitaiCharacters,
-                        CCDict.JPShinjitaiPhrases,
-                        CCDict.JPVariantsRev,
-                        CCDict.HKVariantsRev,
-                        CCDict.HKVariantsRevPhrases,
-                        CCDict.TWVariantsRev,
-                        CCDict.TWPhrasesRev,
-                        CCDict.TWVariantsRevPhrases
-                ))
-                addTrie(arrayOf(
-                        CCDict.TSCharacters,
-                        CCDict.TSPhrases
-                ))
-            }
-            CCTarget.TC -> {
-                addTrie(arrayOf(
-                        CCDict.JPShinjitaiCharacters,
-                        CCDict.JPVariantsRev,
-                        CCDict.STCharacters,
-                        CCDict.STPhrases
-                ))
-            }
-            CCTarget.TT -> {
-                addTrie(arrayOf(
-                        CCDict.JPShinjitaiCharacters,
-                        CCDict.JPShinjitaiPhrases,
-                        CCDict.JPVariantsRev,
-                        CCDict.STCharacters,
-                        CCDict.STPhrases
-                ))
-                addTrie(arrayOf(
-                        CCDict.TWVariants,
-                        CCDict.TWPhrasesIT,
-                        CCDict.TWPhrasesName,
-                        CCDict.TWPhrasesOther
-                ))
-            }
-            CCTarget.HK -> {
-                addTrie(arrayOf(
-                        CCDict.JPShinjitaiCharacters,
-                        CCDict.JPShinjitaiPhrases,
-                        CCDict.JPVariantsRev,
-                        CCDict.STCharacters,
-                        CCDict.STPhrases
-                ))
-                addTrie(arrayOf(
-                        CCDict.HKVariants
-                ))
-            }
-            CCTarget.JP -> {
-                addTrie(arrayOf(
-                        CCDict.STCharacters,
-                        CCDict.STPhrases
-                ))
-                addTrie(arrayOf(
-                        CCDict.JPVariants,
-                        CCDict.JPShinjitaiCharacters,
-                        CCDict.JPShinjitaiPhrases
-                ))
+    private fun addTrie(dicts: Array<String>) {
+        if (useCompiled) {
+            loadCompiledTrie(tries.size)?.let {
+                tries.add(it)
+                return
             }
         }
+        tries.add(OpenCCCompiler.build(dicts) { name ->
+            CCDict.valueOf(name).run {
+                postInit()
+                storage
+            }
+        })
     }
 
-    fun convert(input: String): String {
-        var result = input
-        for (trie in tries) {
-            result = OpenCCUtil.segLongest(result.toCharArray(), trie)
-        }
-        return result
+    init {
+        OpenCCCompiler.getTries(target.name).forEach { addTrie(it) }
     }
 
+    fun convert(input: String): String = OpenCCUtil.convert(input, tries).toString()
+
+    /**
+     * Converts without intermediate Strings; spans of Spanned input keep their (remapped) offsets.
+     */
+    fun convert(input: CharSequence): CharSequence = OpenCCUtil.convert(input, tries)
+
 }
\ No newline at end of file
@@ -0,0 +1,134 @@
+package tw.nekomimi.nekogram.cc;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The dictionaries each conversion target is made of and how its tries are built from them.
+ * Plain Java without Android dependencies, so the compileOpenCCTries Gradle task (see buildSrc)
+ * builds assets/opencc from the same table {@link CCConverter} falls back to at runtime.
+ */
+public class OpenCCCompiler {
+
+    public static final String[] TARGETS = {"SC", "SP", "TC", "TT", "HK", "JP"};
+
+    public interface DictLoader {
+        Map<String, ? extends List<String>> load(String name) throws IOException;
+    }
+
+    /**
+     * Returns the dictionary names of every trie of {@code target}, applied in order; later
+     * dictionaries of a trie override earlier ones.
+     */
+    public static String[][] getTries(String target) {
+        switch (target) {
+            case "SC":
+                return new String[][]{
+                        {"JPShinjitaiCharacters", "JPVariantsRev"},
+                        {"TSCharacters"}
+                };
+            case "SP":
+                return new String[][]{
+                        {"JPShinjitaiCharacters", "JPShinjitaiPhrases", "JPVariantsRev", "HKVariantsRev", "HKVariantsRevPhrases", "TWVariantsRev", "TWPhrasesRev", "TWVariantsRevPhrases"},
+                        {"TSCharacters", "TSPhrases"}
+                };
+            case "TC":
+                return new String[][]{
+                        {"JPShinjitaiCharacters", "JPVariantsRev", "STCharacters", "STPhrases"}
+                };
+            case "TT":
+                return new String[][]{
+                        {"JPShinjitaiCharacters", "JPShinjitaiPhrases", "JPVariantsRev", "STCharacters", "STPhrases"},
+                        {"TWVariants", "TWPhrasesIT", "TWPhrasesName", "TWPhrasesOther"}
+                };
+            case "HK":
+                return new String[][]{
+                        {"JPShinjitaiCharacters", "JPShinjitaiPhrases", "JPVariantsRev", "STCharacters", "STPhrases"},
+                        {"HKVariants"}
+                };
+            case "JP":
+                return new String[][]{
+                        {"STCharacters", "STPhrases"},
+                        {"JPVariants", "JPShinjitaiCharacters", "JPShinjitaiPhrases"}
+                };
+        }
+        throw new IllegalArgumentException("unknown target " + target);
+    }
+
+    public static String getCompiledName(String target, int index) {
+        return target + "_" + index + ".octrie";
+    }
+
+    /**
+     * Reads a dictionary in OpenCC text format: a key, a tab and space separated candidates.
+     */
+    public static HashMap<String, List<String>> readDict(InputStream stream) throws IOException {
+        HashMap<String, List<String>> result = new HashMap<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(stream, "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int tab = line.indexOf('\t');
+                String key = tab < 0 ? line : line.substring(0, tab);
+                String values = tab < 0 ? line : line.substring(tab + 1);
+                result.put(key, Arrays.asList(values.split(" ")));
+            }
+        } finally {
+            reader.close();
+        }
+        return result;
+    }
+
+    public static AhoCorasickDoubleArrayTrie<String> build(String[] dicts, DictLoader loader) throws IOException {
+        TreeMap<String, String> storage = new TreeMap<>();
+        for (String dict : dicts) {
+            for (Map.Entry<String, ? extends List<String>> entry : loader.load(dict).entrySet()) {
+                storage.put(entry.getKey(), entry.getValue().get(0));
+            }
+        }
+        AhoCorasickDoubleArrayTrie<String> trie = new AhoCorasickDoubleArrayTrie<>();
+        trie.build(storage);
+        return trie;
+    }
+
+    /**
+     * Compiles the tries of every target from the text dictionaries in {@code dictDir} into {@code outDir}.
+     */
+    public static void compileAll(File dictDir, File outDir) throws IOException {
+        if (!outDir.isDirectory() && !outDir.mkdirs()) {
+            throw new IOException("can't create " + outDir);
+        }
+        HashMap<String, HashMap<String, List<String>>> cache = new HashMap<>();
+        DictLoader loader = name -> {
+            HashMap<String, List<String>> dict = cache.get(name);
+            if (dict == null) {
+                dict = readDict(new FileInputStream(new File(dictDir, name + ".txt")));
+                cache.put(name, dict);
+            }
+            return dict;
+        };
+        for (String target : TARGETS) {
+            String[][] tries = getTries(target);
+            for (int a = 0; a < tries.length; a++) {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(outDir, getCompiledName(target, a)))));
+                try {
+                    build(tries[a], loader).saveBinary(out);
+                } finally {
+                    out.close();
+                }
+            }
+        }
+    }
+}
@@ -2,6 +2,9 @@
 
 package tw.nekomimi.nekogram.cc
 
+import android.text.SpannableStringBuilder
+import android.text.Spanned
+
 object OpenCCUtil {
 
     fun segLongest(charArray: CharArray, trie: AhoCorasickDoubleArrayTrie<String>): String {
@@ -28,4 +31,142 @@ object OpenCCUtil {
         return sb.toString()
     }
 
-}
\ No newline at end of file
+    /**
+     * Per-thread buffers shared by every pass of [convert]: the text ping-pongs between [src] and
+     * [dst], and [offsets] maps each input offset to its position in the current text.
+     */
+    private class Workspace : AhoCorasickDoubleArrayTrie.IHit<String> {
+
+        var src = CharArray(256)
+        var dst = CharArray(256)
+        var wordNet = arrayOfNulls<String>(256)
+        var lengthNet = IntArray(256)
+        var offsets = IntArray(257)
+        var passOffsets = IntArray(257)
+        var hits = 0
+
+        override fun hit(begin: Int, end: Int, value: String) {
+            val length = end - begin
+            if (length > lengthNet[begin]) {
+                wordNet[begin] = value
+                lengthNet[begin] = length
+                hits++
+            }
+        }
+
+        fun ensureNet(length: Int) {
+            if (wordNet.size < length) {
+                wordNet = arrayOfNulls(length * 2)
+                lengthNet = IntArray(length * 2)
+            }
+            if (passOffsets.size <= length) {
+                passOffsets = IntArray(length * 2 + 1)
+            }
+        }
+
+        fun ensureDst(length: Int) {
+            if (dst.size < length) {
+                dst = dst.copyOf(maxOf(length, dst.size * 2))
+            }
+        }
+
+    }
+
+    private val workspace = object : ThreadLocal<Workspace>() {
+        override fun initialValue() = Workspace()
+    }
+
+    /**
+     * Runs one longest-match pass from ws.src[0, length) into ws.dst and swaps the buffers.
+     * Returns the new length, or -1 when the trie matched nothing and the text is unchanged.
+     */
+    private fun segLongest(ws: Workspace, length: Int, trie: AhoCorasickDoubleArrayTrie<String>, trackOffsets: Boolean): Int {
+        ws.ensureNet(length)
+        ws.hits = 0
+        trie.parseText(ws.src, length, ws)
+        if (ws.hits == 0) return -1
+        val wordNet = ws.wordNet
+        val lengthNet = ws.lengthNet
+        val passOffsets = ws.passOffsets
+        ws.ensureDst(length)
+        var out = 0
+        var offset = 0
+        while (offset < length) {
+            val word = wordNet[offset]
+            if (word == null) {
+                if (trackOffsets) passOffsets[offset] = out
+                ws.dst[out++] = ws.src[offset++]
+                continue
+            }
+            val wordLength = lengthNet[offset]
+            if (trackOffsets) {
+                for (index in offset until offset + wordLength) passOffsets[index] = out
+            }
+            ws.ensureDst(out + word.length + length - offset)
+            word.toCharArray(ws.dst, out, 0, word.length)
+            out += word.length
+            for (index in offset until offset + wordLength) {
+                wordNet[index] = null
+                lengthNet[index] = 0
+            }
+            offset += wordLength
+        }
+        if (trackOffsets) passOffsets[length] = out
+        val src = ws.src
+        ws.src = ws.dst
+        ws.dst = src
+        return out
+    }
+
+    /**
+     * Applies the tries in order using the thread's reusable buffers instead of allocating a
+     * char array, word net and builder per pass. Spans of [Spanned] input are carried over to
+     * the converted text with their offsets remapped; unchanged input is returned as is.
+     */
+    fun convert(input: CharSequence, tries: List<AhoCorasickDoubleArrayTrie<String>>): CharSequence {
+        val inputLength = input.length
+        if (inputLength == 0) return input
+        val ws = workspace.get()!!
+        val spanned = input as? Spanned
+        if (ws.src.size < inputLength) ws.src = CharArray(inputLength)
+        if (input is String) {
+            input.toCharArray(ws.src, 0, 0, inputLength)
+        } else {
+            for (index in 0 until inputLength) ws.src[index] = input[index]
+        }
+        if (spanned != null) {
+            if (ws.offsets.size <= inputLength) ws.offsets = IntArray(inputLength + 1)
+            for (index in 0..inputLength) ws.offsets[index] = index
+        }
+        var length = inputLength
+        var changed = false
+        for (trie in tries) {
+            val newLength = segLongest(ws, length, trie, spanned != null)
+            if (newLength < 0) continue
+            if (spanned != null) {
+                for (index in 0..inputLength) ws.offsets[index] = ws.passOffsets[ws.offsets[index]]
+            }
+            length = newLength
+            changed = true
+        }
+        if (!changed) return input
+        if (spanned == null) return String(ws.src, 0, length)
+        val result = SpannableStringBuilder(String(ws.src, 0, length))
+        for (span in spanned.getSpans(0, inputLength, Any::class.java)) {
+            val spanStart = spanned.getSpanStart(span)
+            val spanEnd = spanned.getSpanEnd(span)
+            val start = ws.offsets[spanStart]
+            var endIndex = spanEnd
+            if (spanEnd > spanStart) {
+                // an end inside a replaced word moves to the end of its replacement
+                while (endIndex < inputLength && ws.offsets[endIndex] == ws.offsets[endIndex - 1]) endIndex++
+            }
+            val end = maxOf(start, ws.offsets[endIndex])
+            // a non-empty span can't be collapsed, exclusive flags forbid empty spans
+            if (end == start && spanEnd > spanStart) continue
+            result.setSpan(span, start, end, spanned.getSpanFlags(span))
+        }
+        return result
+    }
+
+}
@@ -1,7 +1,11 @@
 package tw.nekomimi.nekogram.parts
 
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Deferred
 import kotlinx.coroutines.Dispatchers
-import kotlinx.coroutines.GlobalScope
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.async
+import kotlinx.coroutines.cancel
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
 import org.telegram.messenger.LocaleController
@@ -111,15 +115,42 @@ fun ChatActivity.translateMessages(target: Locale = NekoConfig.translateToLang?.
     val status = AlertUtil.showProgress(parentActivity)
     val canceled = AtomicBoolean()
 
+    // lives as long as the dialog, closing it stops the prefetched requests too
+    val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+
     status.setOnCancelListener {
 
         canceled.set(true)
 
+        scope.cancel()
+
     }
 
     status.show()
 
-    GlobalScope.launch(Dispatchers.IO) {
+    scope.launch {
+
+        // Submit every missing string up front so the scheduler can batch them, then apply in order.
+
+        val transDb = TranslateDb.forLocale(target)
+        val prefetched = HashMap<String, Deferred<String>>()
+
+        fun prefetch(text: String) {
+            if (canceled.get() || text.isBlank() || prefetched.containsKey(text) || transDb.contains(text)) return
+            prefetched[text] = scope.async { Translator.translate(target, text) }
+        }
+
+        messages.forEach { messageObject ->
+            if (messageObject.isPoll) {
+                val poll = (messageObject.messageOwner.media as TLRPC.TL_messageMediaPoll).poll
+                prefetch(poll.question)
+                poll.answers.forEach { prefetch(it.text) }
+            } else {
+                prefetch(messageObject.messageOwner.message ?: "")
+            }
+        }
+
+        suspend fun translate(text: String) = prefetched[text]?.await() ?: Translator.translate(target, text)
 
         messages.forEachIndexed { i, selectedObject ->
 
@@ -163,7 +194,7 @@ fun ChatActivity.translateMessages(target: Locale = NekoConfig.translateToLang?.
 
                         runCatching {
 
-                            question = Translator.translate(target, pool.question)
+                            question = translate(pool.question)
 
                         }.onFailure {
 
@@ -200,7 +231,7 @@ fun ChatActivity.translateMessages(target: Locale = NekoConfig.translateToLang?.
 
                             runCatching {
 
-                                answer = Translator.translate(target, it.text)
+                                answer = translate(it.text)
 
                             }.onFailure { e ->
 
@@ -237,7 +268,7 @@ fun ChatActivity.translateMessages(target: Locale = NekoConfig.translateToLang?.
 
                         runCatching {
 
-                            text = Translator.translate(target, selectedObject.messageOwner.message)
+                            text = translate(selectedObject.messageOwner.message)
 
                         }.onFailure {
 
@@ -1,187 +1,204 @@
 package tw.nekomimi.nekogram.parts
 
 import android.os.SystemClock
-import kotlinx.coroutines.Dispatchers
-import kotlinx.coroutines.GlobalScope
-import kotlinx.coroutines.delay
-import kotlinx.coroutines.launch
+import kotlinx.coroutines.*
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
 import org.telegram.messenger.AndroidUtilities
+import org.telegram.messenger.FileLog
 import org.telegram.messenger.NotificationCenter
 import org.telegram.messenger.SharedConfig
 import org.telegram.messenger.SharedConfig.ExternalSocks5Proxy
 import org.telegram.messenger.UserConfig
 import org.telegram.tgnet.ConnectionsManager
 import org.telegram.ui.ProxyListActivity
-import tw.nekomimi.nekogram.utils.UIUtil
-import java.util.concurrent.ExecutorService
-import java.util.concurrent.atomic.AtomicBoolean
+import java.util.*
 
-private suspend fun postCheckSingleProxy(proxyInfo: SharedConfig.ProxyInfo, repeat: Int) {
+private const val PROBE_TIMEOUT = 4000L
+private const val PROBE_CONCURRENCY = 8
+private const val RECHECK_INTERVAL = 2 * 60 * 1000L
 
-    val lock = AtomicBoolean()
+/**
+ * Native checks in flight across all runs. Native checks cannot be cancelled, so a permit is
+ * returned by the native callback rather than by the (possibly cancelled) probe.
+ */
+private val checkPermits = Semaphore(PROBE_CONCURRENCY)
 
-    if (proxyInfo is ExternalSocks5Proxy && !proxyInfo.isStarted) {
-        proxyInfo.start()
-        delay(233L)
-    }
+/**
+ * The run currently responsible for each proxy's checking flag.
+ */
+private val probeOwners = WeakHashMap<SharedConfig.ProxyInfo, Job>()
 
-    var time = -1L
-    val startAt = SystemClock.elapsedRealtime()
+/**
+ * One checkProxy round trip; completed from the native callback, so no thread waits on it.
+ * Returns the RTT, -1 on failure or 0 on timeout.
+ */
+private suspend fun probeOnce(proxyInfo: SharedConfig.ProxyInfo): Long {
 
-    proxyInfo.proxyCheckPingId = ConnectionsManager.getInstance(UserConfig.selectedAccount).checkProxy(proxyInfo.address, proxyInfo.port, proxyInfo.username, proxyInfo.password, proxyInfo.secret) {
-        time = it
-        lock.set(true)
-    }
+    checkPermits.acquire()
 
-    while (!lock.get() && SystemClock.elapsedRealtime() - startAt < 4000L) delay(100L)
+    val result = CompletableDeferred<Long>()
 
-    if (!lock.get()) {
+    try {
 
-        proxyInfo.availableCheckTime = SystemClock.elapsedRealtime()
-        proxyInfo.checking = false
-        proxyInfo.available = false
-        proxyInfo.ping = 0
-        if (proxyInfo is ExternalSocks5Proxy && proxyInfo !== SharedConfig.currentProxy) {
-            proxyInfo.stop()
-        }
+        proxyInfo.proxyCheckPingId = ConnectionsManager.getInstance(UserConfig.selectedAccount).checkProxy(proxyInfo.address, proxyInfo.port, proxyInfo.username, proxyInfo.password, proxyInfo.secret) {
 
-        return
+            if (result.complete(it)) checkPermits.release()
 
-    }
-
-    if (time == -1L) {
-        if (repeat > 0) {
-            postCheckSingleProxy(proxyInfo, repeat - 1)
-        } else {
-            proxyInfo.availableCheckTime = SystemClock.elapsedRealtime()
-            proxyInfo.checking = false
-            proxyInfo.available = false
-            proxyInfo.ping = -1L
-            if (proxyInfo is ExternalSocks5Proxy && proxyInfo !== SharedConfig.currentProxy) {
-                proxyInfo.stop()
-            }
         }
-    } else {
-        proxyInfo.availableCheckTime = SystemClock.elapsedRealtime()
-        proxyInfo.checking = false
-        proxyInfo.ping = time
-        proxyInfo.available = true
-        if (proxyInfo is ExternalSocks5Proxy && proxyInfo !== SharedConfig.currentProxy) {
-            proxyInfo.stop()
-        }
-    }
 
-}
+    } catch (e: Throwable) {
 
-fun postCheckProxyList() = GlobalScope.launch(Dispatchers.IO) {
+        checkPermits.release()
 
-    SharedConfig.getProxyList().forEach { proxyInfo ->
+        throw e
 
-        if (proxyInfo.checking || SystemClock.elapsedRealtime() - proxyInfo.availableCheckTime < 2 * 60 * 1000L) {
+    }
 
-            return@forEach
+    return withTimeoutOrNull(PROBE_TIMEOUT) { result.await() } ?: 0L
 
-        }
+}
 
-        synchronized(proxyInfo) {
+/**
+ * Takes up to [samples] RTT samples (allowing [retries] failed attempts) and stores the median
+ * in [SharedConfig.ProxyInfo.ping], so sorting by ping ranks by median latency.
+ */
+private suspend fun probeProxy(proxyInfo: SharedConfig.ProxyInfo, samples: Int, retries: Int) {
 
-            if (proxyInfo.checking || SystemClock.elapsedRealtime() - proxyInfo.availableCheckTime < 2 * 60 * 1000L) {
+    try {
 
-                return@forEach
+        if (proxyInfo is ExternalSocks5Proxy && !proxyInfo.isStarted) {
+            proxyInfo.start()
+            delay(233L)
+        }
 
+        val rtts = ArrayList<Long>(samples)
+        var failures = 0
+        var lastFailure = -1L
+
+        while (rtts.size < samples && failures <= retries) {
+            val rtt = probeOnce(proxyInfo)
+            if (rtt > 0) {
+                rtts.add(rtt)
+            } else {
+                failures++
+                lastFailure = rtt
+                if (rtts.isNotEmpty()) break
             }
+        }
 
-            proxyInfo.checking = true
-
+        proxyInfo.availableCheckTime = SystemClock.elapsedRealtime()
+        if (rtts.isEmpty()) {
+            proxyInfo.available = false
+            proxyInfo.ping = lastFailure
+        } else {
+            rtts.sort()
+            proxyInfo.available = true
+            proxyInfo.ping = rtts[rtts.size / 2]
         }
 
-        runCatching {
+    } catch (e: CancellationException) {
 
-            postCheckSingleProxy(proxyInfo, 1)
+        throw e
 
-        }.onFailure {
+    } catch (e: Exception) {
 
-            proxyInfo.availableCheckTime = SystemClock.elapsedRealtime()
-            proxyInfo.checking = false
-            proxyInfo.available = false
-            proxyInfo.ping = 0
+        FileLog.e(e)
+
+        proxyInfo.availableCheckTime = SystemClock.elapsedRealtime()
+        proxyInfo.available = false
+        proxyInfo.ping = 0
+
+    } finally {
 
+        if (proxyInfo is ExternalSocks5Proxy && proxyInfo !== SharedConfig.currentProxy) {
+            proxyInfo.stop()
         }
 
     }
 
 }
 
-fun ProxyListActivity.checkProxyList(force: Boolean, context: ExecutorService) {
+/**
+ * Probes every proxy of [proxies], the whole list by default, that is due at most
+ * [PROBE_CONCURRENCY] at a time, calling [onResult] as each one finishes or is cancelled.
+ * Proxies still held by a cancelled run are taken over; that run then leaves them alone.
+ */
+private fun probeProxyList(proxies: List<SharedConfig.ProxyInfo>?, force: Boolean, samples: Int, retries: Int, onStart: (SharedConfig.ProxyInfo) -> Unit = {}, onResult: (SharedConfig.ProxyInfo) -> Unit = {}) = GlobalScope.launch(Dispatchers.IO) {
 
-    GlobalScope.launch(Dispatchers.IO) {
+    val run = coroutineContext[Job]!!
+    val permits = Semaphore(PROBE_CONCURRENCY)
 
-        SharedConfig.proxyList.toList().forEach {
+    (proxies ?: SharedConfig.getProxyList()).forEach { proxyInfo ->
 
-            if (it.checking || SystemClock.elapsedRealtime() - it.availableCheckTime < 2 * 60 * 1000L && !force) {
+        synchronized(probeOwners) {
+
+            if (proxyInfo.checking && probeOwners[proxyInfo]?.isActive == true || !force && SystemClock.elapsedRealtime() - proxyInfo.availableCheckTime < RECHECK_INTERVAL) {
 
                 return@forEach
 
             }
 
-            it.checking = true
+            probeOwners[proxyInfo] = run
+            proxyInfo.checking = true
 
-            runCatching {
+        }
 
-                context.execute {
+        // ATOMIC so that probes cancelled before they start still reach the finally
+        launch(start = CoroutineStart.ATOMIC) {
 
-                    runCatching {
+            try {
 
-                        val lock = AtomicBoolean()
+                ensureActive()
 
-                        val startAt = SystemClock.elapsedRealtime()
+                permits.withPermit {
 
-                        UIUtil.runOnUIThread { NotificationCenter.getGlobalInstance().postNotificationName(NotificationCenter.proxyCheckDone, it) }
+                    onStart(proxyInfo)
 
-                        checkSingleProxy(it, if (it is ExternalSocks5Proxy) 3 else 1) {
+                    probeProxy(proxyInfo, samples, retries)
 
-                            AndroidUtilities.runOnUIThread {
+                }
 
-                                NotificationCenter.getGlobalInstance().postNotificationName(NotificationCenter.proxyCheckDone, it)
+            } finally {
 
-                            }
+                val owner = synchronized(probeOwners) {
 
-                            lock.set(true)
+                    (probeOwners[proxyInfo] === run).also {
 
+                        if (it) {
+                            probeOwners.remove(proxyInfo)
+                            proxyInfo.checking = false
                         }
 
-                        while (!lock.get() && SystemClock.elapsedRealtime() - startAt < 4000L) Thread.sleep(100L)
-
-                        if (!lock.get()) {
-
-                            it.availableCheckTime = SystemClock.elapsedRealtime()
-                            it.checking = false
-                            it.available = false
-                            it.ping = 0
-                            if (it is ExternalSocks5Proxy && it !== SharedConfig.currentProxy) {
-                                it.stop()
-                            }
+                    }
 
-                            AndroidUtilities.runOnUIThread {
+                }
 
-                                NotificationCenter.getGlobalInstance().postNotificationName(NotificationCenter.proxyCheckDone, it)
+                if (owner) onResult(proxyInfo)
 
-                            }
+            }
 
+        }
 
-                        }
-                    }
+    }
 
-                }
+}
 
-            }.onFailure {
+fun postCheckProxyList() = probeProxyList(null, false, 1, 1)
 
-                return@launch
+/**
+ * Probes proxies a subscription refresh just added.
+ */
+fun checkProxies(proxies: List<SharedConfig.ProxyInfo>) = probeProxyList(proxies, true, 1, 1)
 
-            }
+private fun postProxyCheckDone(proxyInfo: SharedConfig.ProxyInfo) = AndroidUtilities.runOnUIThread {
 
-        }
+    NotificationCenter.getGlobalInstance().postNotificationName(NotificationCenter.proxyCheckDone, proxyInfo)
 
-    }
+}
 
-}
\ No newline at end of file
+/**
+ * Streams each proxy's state to the list through proxyCheckDone as soon as it is probed.
+ * Cancelling the returned job stops the remaining probes.
+ */
+fun ProxyListActivity.checkProxyList(force: Boolean) = probeProxyList(null, force, 3, 2, ::postProxyCheckDone, ::postProxyCheckDone)
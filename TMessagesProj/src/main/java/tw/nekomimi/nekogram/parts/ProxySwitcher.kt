@@ -62,7 +62,7 @@ object ProxySwitcher {
 
             if (currIndex > 0) {
 
-                val proxyListNew = LinkedList<SharedConfig.ProxyInfo>()
+                val proxyListNew = ArrayList<SharedConfig.ProxyInfo>()
 
                 proxyListNew.addAll(proxyList.subList(currIndex, proxyList.size))
                 proxyListNew.addAll(proxyList.subList(0, currIndex + 1))
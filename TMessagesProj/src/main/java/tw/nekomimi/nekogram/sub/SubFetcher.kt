@@ -0,0 +1,126 @@
+package tw.nekomimi.nekogram.sub
+
+import cn.hutool.crypto.SecureUtil
+import cn.hutool.http.HttpRequest
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.GlobalScope
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import tw.nekomimi.nekogram.utils.ProxyUtil
+
+/**
+ * Conditional refresh of a subscription. The url its proxies came from is remembered with its ETag,
+ * Last-Modified and content hash, so an unchanged list costs a 304 or at most a download without
+ * parsing. An answer from that url is applied as the proxies added and removed; an answer from
+ * any other url replaces the list and becomes the new source.
+ */
+object SubFetcher {
+
+    private const val TIMEOUT = 10 * 1000
+
+    class Update(
+            @JvmField val added: List<String>,
+            @JvmField val removed: List<String>,
+            // source, validators or proxies differ from the stored ones
+            @JvmField val dirty: Boolean
+    ) {
+
+        val changed get() = added.isNotEmpty() || removed.isNotEmpty()
+
+    }
+
+    /**
+     * One url's answer: [proxies] is null when it is the source's content unchanged (304 or same hash).
+     */
+    private class Fetched(val url: String, val proxies: List<String>?, val hash: String?, val etag: String?, val lastModified: String?)
+
+    /**
+     * Fetches and parses one url, so a malformed list fails this url like a network error would.
+     */
+    private fun fetch(sub: SubInfo, url: String, parse: (String) -> List<String>): Fetched {
+
+        val isSource = url == sub.source
+
+        val request = HttpRequest.get(url).timeout(TIMEOUT)
+        if (isSource) {
+            sub.sourceEtag?.let { request.header("If-None-Match", it) }
+            sub.sourceLastModified?.let { request.header("If-Modified-Since", it) }
+        }
+
+        request.execute().use { response ->
+            if (response.status == 304 && isSource) {
+                return Fetched(url, null, sub.sourceHash, sub.sourceEtag, sub.sourceLastModified)
+            }
+            if (!response.isOk) error("HTTP ${response.status}")
+            val body = response.body()
+            val hash = SecureUtil.sha256(body)
+            val proxies = if (isSource && hash == sub.sourceHash) null else parse(body)
+            return Fetched(url, proxies, hash, response.header("ETag"), response.header("Last-Modified"))
+        }
+
+    }
+
+    /**
+     * Asks every url of [sub] at once and applies the first answer, mirrors on gitee only when
+     * all others failed; updates the proxies, source, validators and lastFetch of [sub] in place.
+     */
+    @JvmStatic
+    @JvmOverloads
+    fun refresh(sub: SubInfo, parse: (String) -> List<String> = { ProxyUtil.parseProxies(it) }): Update = runBlocking {
+
+        val exceptions = HashMap<String, Exception>()
+        val results = Channel<Pair<String, Result<Fetched>>>(Channel.UNLIMITED)
+
+        // not children of runBlocking, a slow mirror must not hold up the first answer
+        val jobs = sub.urls.map { url ->
+            GlobalScope.launch(Dispatchers.IO) {
+                results.send(url to runCatching { fetch(sub, url, parse) })
+            }
+        }
+
+        var deferred: Fetched? = null
+        try {
+            repeat(sub.urls.size) { index ->
+                val (url, result) = results.receive()
+                val fetched = result.getOrElse {
+                    exceptions[url] = it as? Exception ?: Exception(it)
+                    null
+                }
+                if (fetched != null) {
+                    if (url.contains("https://gitee.com/") && index < sub.urls.size - 1) {
+                        if (deferred == null) deferred = fetched
+                    } else {
+                        return@runBlocking apply(sub, fetched)
+                    }
+                }
+            }
+        } finally {
+            jobs.forEach { it.cancel() }
+        }
+        deferred?.let { return@runBlocking apply(sub, it) }
+
+        throw SubInfo.AllTriesFailed(exceptions)
+
+    }
+
+    private fun apply(sub: SubInfo, fetched: Fetched): Update {
+
+        sub.lastFetch = System.currentTimeMillis()
+
+        val dirty = sub.source != fetched.url || sub.sourceEtag != fetched.etag || sub.sourceLastModified != fetched.lastModified || sub.sourceHash != fetched.hash
+        sub.source = fetched.url
+        sub.sourceEtag = fetched.etag
+        sub.sourceLastModified = fetched.lastModified
+        sub.sourceHash = fetched.hash
+
+        val newProxies = LinkedHashSet(fetched.proxies ?: return Update(listOf(), listOf(), dirty))
+        val oldProxies = LinkedHashSet(sub.proxies)
+        val added = newProxies.filter { it !in oldProxies }
+        val removed = oldProxies.filter { it !in newProxies }
+        sub.proxies = ArrayList(newProxies)
+        return Update(added, removed, true)
+
+    }
+
+}
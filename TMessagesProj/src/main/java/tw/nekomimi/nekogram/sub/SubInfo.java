@@ -17,7 +17,6 @@ import java.util.List;
 import java.util.Map;
 
 import cn.hutool.core.util.StrUtil;
-import tw.nekomimi.nekogram.parts.ProxyLoadsKt;
 
 @Index("id")
 @SuppressWarnings("unchecked")
@@ -28,6 +27,11 @@ public class SubInfo implements Mappable {
     public String name;
     public List<String> urls = new LinkedList<>();
     public List<String> proxies = new LinkedList<>();
+    // the url proxies came from, with the validators and content hash of its last answer
+    public String source;
+    public String sourceEtag;
+    public String sourceLastModified;
+    public String sourceHash;
     public Long lastFetch = -1L;
     public boolean enable = true;
     public boolean internal;
@@ -42,16 +46,12 @@ public class SubInfo implements Mappable {
 
     }
 
-    public List<String> reloadProxies() throws IOException {
+    /**
+     * Fetches the subscription if it changed and applies it to {@link #proxies}.
+     */
+    public SubFetcher.Update refresh() throws IOException {
 
-        HashMap<String, Exception> exceptions = new HashMap<>();
-
-        try {
-            return ProxyLoadsKt.loadProxies(urls, exceptions);
-        } catch (Exception ignored) {
-        }
-
-        throw new AllTriesFailed(exceptions);
+        return SubFetcher.refresh(this);
 
     }
 
@@ -110,6 +110,10 @@ public class SubInfo implements Mappable {
         document.put("name", name);
         document.put("urls", urls);
         document.put("proxies", proxies);
+        document.put("source", source);
+        document.put("sourceEtag", sourceEtag);
+        document.put("sourceLastModified", sourceLastModified);
+        document.put("sourceHash", sourceHash);
         document.put("lastFetch", lastFetch);
         document.put("enable", enable);
         document.put("internal", internal);
@@ -124,6 +128,10 @@ public class SubInfo implements Mappable {
         name = document.get("name", String.class);
         urls = (List<String>) document.get("urls");
         proxies = (List<String>) document.get("proxies");
+        source = document.get("source", String.class);
+        sourceEtag = document.get("sourceEtag", String.class);
+        sourceLastModified = document.get("sourceLastModified", String.class);
+        sourceHash = document.get("sourceHash", String.class);
 
         lastFetch = document.get("lastFetch", Long.class);
         enable = document.get("enable", Boolean.class);
@@ -131,5 +139,4 @@ public class SubInfo implements Mappable {
 
     }
 
-
 }
@@ -1,12 +1,29 @@
 package tw.nekomimi.nekogram.sub
 
+import kotlinx.coroutines.*
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
 import org.dizitart.no2.objects.filters.ObjectFilters
+import org.telegram.messenger.FileLog
 import org.telegram.messenger.LocaleController
 import org.telegram.messenger.R
+import org.telegram.messenger.SharedConfig
 import tw.nekomimi.nekogram.database.mkDatabase
+import tw.nekomimi.nekogram.parts.checkProxies
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicBoolean
 
 object SubManager {
 
+    private const val REFRESH_INTERVAL = 6 * 60 * 60 * 1000L
+    private const val CHECK_INTERVAL = 30 * 60 * 1000L
+    private const val REFRESH_CONCURRENCY = 4
+
+    private val scheduled = AtomicBoolean()
+
+    // last answer per subscription, a 304 isn't written back so lastFetch alone goes stale
+    private val lastChecked = ConcurrentHashMap<Long, Long>()
+
     val database by lazy { mkDatabase("proxy_sub") }
 
     @JvmStatic
@@ -36,6 +53,11 @@ object SubManager {
                 internal = true
 
                 proxies = public?.proxies ?: listOf()
+                source = public?.source
+                sourceEtag = public?.sourceEtag
+                sourceLastModified = public?.sourceLastModified
+                sourceHash = public?.sourceHash
+                lastFetch = public?.lastFetch ?: -1L
 
             }, true)
 
@@ -43,4 +65,75 @@ object SubManager {
 
     }
 
-}
\ No newline at end of file
+    /**
+     * Refreshes enabled subscriptions, all of them if [force] or else those not refreshed for
+     * [REFRESH_INTERVAL]. Subscriptions are stored only when their answer changed, and only the
+     * proxies they added or removed touch the proxy list; added ones are probed right away.
+     * Returns how many subscriptions changed their proxies.
+     */
+    @JvmStatic
+    @JvmOverloads
+    fun refreshSubs(force: Boolean, onError: ((SubInfo, Exception) -> Unit)? = null) = runBlocking(Dispatchers.IO) {
+        refreshDue(force, onError)
+    }
+
+    private suspend fun refreshDue(force: Boolean, onError: ((SubInfo, Exception) -> Unit)?): Int = coroutineScope {
+
+        val now = System.currentTimeMillis()
+        val permits = Semaphore(REFRESH_CONCURRENCY)
+
+        subList.find().filter {
+            it != null && it.enable && (force || now - maxOf(it.lastFetch, lastChecked[it.id] ?: -1L) >= REFRESH_INTERVAL)
+        }.map { subInfo ->
+            async(Dispatchers.IO) {
+                permits.withPermit {
+                    try {
+                        subInfo to subInfo.refresh()
+                    } catch (e: CancellationException) {
+                        throw e
+                    } catch (e: Exception) {
+                        // one broken subscription must not cancel the others
+                        FileLog.e(e)
+                        onError?.invoke(subInfo, e)
+                        null
+                    }
+                }
+            }
+        }.awaitAll().filterNotNull().count { (subInfo, update) -> apply(subInfo, update) }
+
+    }
+
+    private fun apply(subInfo: SubInfo, update: SubFetcher.Update): Boolean {
+
+        lastChecked[subInfo.id] = subInfo.lastFetch
+
+        if (!update.dirty) return false
+        subList.update(subInfo, true)
+
+        if (!update.changed) return false
+        FileLog.d("sub ${subInfo.id}: +${update.added.size} -${update.removed.size}")
+
+        val added = SharedConfig.updateSubProxies(subInfo.id, update.added, update.removed)
+        if (added.isNotEmpty()) checkProxies(added)
+        return true
+
+    }
+
+    /**
+     * Keeps refreshing due subscriptions in the background, started once per process.
+     */
+    @JvmStatic
+    fun scheduleRefresh() {
+
+        if (scheduled.getAndSet(true)) return
+
+        GlobalScope.launch(Dispatchers.IO) {
+            while (isActive) {
+                runCatching { refreshDue(false, null) }.onFailure { FileLog.e(it) }
+                delay(CHECK_INTERVAL)
+            }
+        }
+
+    }
+
+}
@@ -14,6 +14,7 @@ public class TransItem implements Mappable {
     @Id
     public String text;
     public String trans;
+    public long time;
 
     public TransItem() {
     }
@@ -21,6 +22,7 @@ public class TransItem implements Mappable {
     public TransItem(String text, String trans) {
         this.text = text;
         this.trans = trans;
+        this.time = System.currentTimeMillis();
     }
 
     @Override
@@ -28,6 +30,7 @@ public class TransItem implements Mappable {
         Document document = new Document();
         document.put("text",text);
         document.put("trans", trans);
+        document.put("time", time);
         return document;
     }
 
@@ -35,6 +38,8 @@ public class TransItem implements Mappable {
     public void read(NitriteMapper mapper, Document document) {
         text = (String) document.get("text");
         trans = (String) document.get("trans");
+        Object time = document.get("time");
+        this.time = time instanceof Number ? ((Number) time).longValue() : 0;
     }
 
 }
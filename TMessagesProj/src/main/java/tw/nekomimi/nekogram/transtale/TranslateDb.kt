@@ -1,7 +1,12 @@
 package tw.nekomimi.nekogram.transtale
 
+import android.util.LruCache
+import org.dizitart.no2.FindOptions
+import org.dizitart.no2.SortOrder
 import org.dizitart.no2.objects.ObjectRepository
 import org.dizitart.no2.objects.filters.ObjectFilters
+import org.telegram.messenger.BuildVars
+import org.telegram.messenger.FileLog
 import org.telegram.messenger.LocaleController
 import tw.nekomimi.nekogram.NekoConfig
 import tw.nekomimi.nekogram.database.mkDatabase
@@ -9,12 +14,25 @@ import tw.nekomimi.nekogram.utils.UIUtil
 import java.util.*
 import kotlin.collections.HashMap
 
+/**
+ * Translation cache of one target locale: a bounded in-memory LRU (which also remembers misses)
+ * in front of the Nitrite repository, with saves written behind in batches.
+ */
 class TranslateDb(val code: String) {
 
     var conn: ObjectRepository<TransItem> = db.getRepository(code, TransItem::class.java)
 
     companion object {
 
+        private const val MEMORY_CACHE_CHARS = 256 * 1024
+        private const val WRITE_BEHIND_DELAY = 500L
+        private const val WRITE_BEHIND_BATCH = 64
+        private const val MAX_DISK_ITEMS = 20000
+        private const val MAX_DISK_AGE = 30L * 24 * 60 * 60 * 1000
+
+        // Identity-compared marker for texts known to be missing on disk.
+        private val MISSING = String()
+
         val db = mkDatabase("translate_caches")
 
         val repo = HashMap<Locale, TranslateDb>()
@@ -63,6 +81,8 @@ class TranslateDb(val code: String) {
         @JvmStatic
         fun clearAll() {
 
+            repo.values.forEach { it.clearMemory() }
+
             db.listRepositories()
                     .filter { it  != "chat" }
                     .map { db.getCollection(it) }
@@ -72,26 +92,165 @@ class TranslateDb(val code: String) {
 
         }
 
+        @JvmStatic
+        fun getStats() = repo.values.joinToString("\n") { it.stats }
+
+    }
+
+    private val memory = object : LruCache<String, String>(MEMORY_CACHE_CHARS) {
+
+        override fun sizeOf(key: String, value: String) = key.length + value.length + 16
+
+    }
+
+    private val pending = LinkedHashMap<String, String>()
+    private var flushScheduled = false
+    private var flushing = false
+    private var trimmed = false
+
+    val stats get() = "$code: hits ${memory.hitCount()}, misses ${memory.missCount()}, evictions ${memory.evictionCount()}, hit rate ${hitRate()}%"
+
+    fun hitRate(): Int {
+
+        val total = memory.hitCount() + memory.missCount()
+
+        return if (total == 0) 0 else memory.hitCount() * 100 / total
+
+    }
+
+    private fun clearMemory() = synchronized(this) {
+
+        memory.evictAll()
+        pending.clear()
+
+    }
+
+    private fun load(text: String): String? {
+
+        val cached = memory.get(text)
+
+        if (cached != null) return if (cached === MISSING) null else cached
+
+        return synchronized(this) {
+
+            val trans = pending[text] ?: conn.find(ObjectFilters.eq("text", text)).firstOrDefault()?.trans
+
+            memory.put(text, trans ?: MISSING)
+
+            trans
+
+        }
+
+    }
+
+    private fun flush() {
+
+        val items = synchronized(this) {
+
+            flushScheduled = false
+
+            if (flushing || pending.isEmpty()) return
+
+            flushing = true
+
+            // entries stay in pending until they are on disk, so load() never misses them
+            pending.map { TransItem(it.key, it.value) }
+
+        }
+
+        runCatching {
+
+            synchronized(this) {
+
+                items.forEach { conn.update(it, true) }
+
+                if (!trimmed) {
+                    trimmed = true
+                    trimDisk()
+                }
+
+            }
+
+        }.onFailure {
+
+            FileLog.e(it)
+
+        }
+
+        synchronized(this) {
+
+            flushing = false
+
+            items.forEach { if (pending[it.text] === it.trans) pending.remove(it.text) }
+
+            if (pending.isNotEmpty() && !flushScheduled) {
+                flushScheduled = true
+                UIUtil.runOnIoDispatcher(Runnable { flush() }, WRITE_BEHIND_DELAY)
+            }
+
+        }
+
+    }
+
+    /**
+     * Drops entries older than [MAX_DISK_AGE] and the oldest ones above [MAX_DISK_ITEMS].
+     * Entries written before timestamps were recorded have time 0 and are only evicted by count.
+     */
+    private fun trimDisk() {
+
+        val cutoff = System.currentTimeMillis() - MAX_DISK_AGE
+
+        conn.remove(ObjectFilters.and(ObjectFilters.gt("time", 0L), ObjectFilters.lt("time", cutoff)))
+
+        val excess = conn.size() - MAX_DISK_ITEMS
+
+        if (excess > 0) {
+
+            conn.find(FindOptions.sort("time", SortOrder.Ascending).thenLimit(0, excess.toInt())).toList().forEach {
+
+                conn.remove(ObjectFilters.eq("text", it.text))
+
+            }
+
+        }
+
+        if (BuildVars.LOGS_ENABLED) FileLog.d("translate cache $code trimmed, ${conn.size()} items, $stats")
+
     }
 
     fun clear() = synchronized(this) {
 
+        clearMemory()
+
         conn.drop()
 
     }
 
-    fun contains(text: String) = synchronized(this) { conn.find(ObjectFilters.eq("text", text)).count() > 0 }
+    fun contains(text: String) = load(text) != null
 
-    fun save(text: String, trans: String) = synchronized<Unit>(this) {
+    fun save(text: String, trans: String) {
 
-        conn.update(TransItem(text, trans), true)
+        val flushNow = synchronized(this) {
 
-    }
+            memory.put(text, trans)
+            pending[text] = trans
+
+            if (pending.size >= WRITE_BEHIND_BATCH && !flushing) {
+                true
+            } else {
+                if (!flushScheduled) {
+                    flushScheduled = true
+                    UIUtil.runOnIoDispatcher(Runnable { flush() }, WRITE_BEHIND_DELAY)
+                }
+                false
+            }
 
-    fun query(text: String) = synchronized(this) {
+        }
 
-        conn.find(ObjectFilters.eq("text", text)).firstOrDefault()?.trans
+        if (flushNow) UIUtil.runOnIoDispatcher(Runnable { flush() })
 
     }
 
+    fun query(text: String) = load(text)
+
 }
\ No newline at end of file
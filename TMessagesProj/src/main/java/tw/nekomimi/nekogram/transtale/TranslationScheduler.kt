@@ -0,0 +1,284 @@
+package tw.nekomimi.nekogram.transtale
+
+import kotlinx.coroutines.*
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
+import java.util.*
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.collections.ArrayList
+import kotlin.collections.HashMap
+
+/**
+ * Coalesces translation queries per target locale into provider-sized batches.
+ *
+ * Identical (locale, query) pairs that are already in flight share one result, at most
+ * [Provider.maxConcurrency] batches run against the provider at once, and results are fanned
+ * back to every waiting caller. A batch is cancelled once every caller waiting on it is gone.
+ */
+class TranslationScheduler(
+        private val provider: Provider,
+        private val scope: CoroutineScope = GlobalScope,
+        private val lingerMillis: Long = 10L
+) {
+
+    interface Provider {
+
+        val maxBatchSize: Int
+
+        val maxBatchChars: Int get() = 4000
+
+        val maxConcurrency: Int
+
+        /**
+         * Returns one translation per query, in the same order.
+         */
+        suspend fun translate(to: Locale, queries: List<String>): List<String>
+
+    }
+
+    companion object {
+
+        /**
+         * Parallel batches allowed per provider; they are rate limited per client, not per request.
+         */
+        const val PROVIDER_CONCURRENCY = 4
+
+        private val schedulers = HashMap<Int, TranslationScheduler>()
+
+        @JvmStatic
+        fun forProvider(providerId: Int) = synchronized(schedulers) {
+
+            schedulers.getOrPut(providerId) {
+
+                TranslationScheduler(object : Provider {
+
+                    override val maxBatchSize get() = Translator.forProvider(providerId).maxBatchSize
+
+                    override val maxConcurrency = PROVIDER_CONCURRENCY
+
+                    override suspend fun translate(to: Locale, queries: List<String>) = Translator.translateBatch(providerId, to, queries)
+
+                })
+
+            }
+
+        }
+
+    }
+
+    /**
+     * One in-flight (locale, query) pair, shared by every caller waiting for it.
+     */
+    private class Request(val query: String) {
+
+        val deferred = CompletableDeferred<String>()
+
+        var waiters = 1
+
+        var batch: Batch? = null
+
+    }
+
+    private class Batch(val requests: List<Request>) {
+
+        lateinit var job: Job
+
+        var live = requests.size
+
+    }
+
+    private val lock = Any()
+    private val inFlight = HashMap<Pair<Locale, String>, Request>()
+    private val pending = HashMap<Locale, ArrayList<Request>>()
+    private val flushScheduled = HashSet<Locale>()
+    private val permits = Semaphore(provider.maxConcurrency)
+
+    private val requested = AtomicLong()
+    private val coalesced = AtomicLong()
+    private val batches = AtomicLong()
+
+    val requestedCount get() = requested.get()
+    val coalescedCount get() = coalesced.get()
+    val batchCount get() = batches.get()
+
+    suspend fun translate(to: Locale, query: String): String {
+
+        requested.incrementAndGet()
+
+        var flushNow = false
+        var scheduleFlush = false
+
+        val request = synchronized(lock) {
+
+            val key = to to query
+
+            inFlight[key]?.also {
+
+                it.waiters++
+
+                coalesced.incrementAndGet()
+
+            } ?: Request(query).also {
+
+                inFlight[key] = it
+
+                val requests = pending.getOrPut(to) { ArrayList() }
+                requests.add(it)
+
+                if (requests.size >= provider.maxBatchSize) {
+                    flushNow = true
+                } else if (flushScheduled.add(to)) {
+                    scheduleFlush = true
+                }
+
+            }
+
+        }
+
+        if (flushNow) {
+
+            flush(to)
+
+        } else if (scheduleFlush) {
+
+            scope.launch(Dispatchers.IO) {
+
+                delay(lingerMillis)
+
+                flush(to)
+
+            }
+
+        }
+
+        try {
+
+            return request.deferred.await()
+
+        } finally {
+
+            if (!request.deferred.isCompleted) release(to, request)
+
+        }
+
+    }
+
+    /**
+     * Drops a cancelled caller; once nobody waits for any query of a batch, the batch itself is cancelled.
+     */
+    private fun release(to: Locale, request: Request) {
+
+        val job = synchronized(lock) {
+
+            if (--request.waiters > 0) return
+
+            val key = to to request.query
+
+            if (inFlight[key] === request) inFlight.remove(key)
+
+            val batch = request.batch
+
+            if (batch == null) {
+
+                pending[to]?.remove(request)
+
+                null
+
+            } else if (--batch.live == 0) {
+
+                batch.job
+
+            } else null
+
+        }
+
+        job?.cancel()
+
+    }
+
+    private fun flush(to: Locale) {
+
+        val jobs = ArrayList<Job>()
+
+        synchronized(lock) {
+
+            flushScheduled.remove(to)
+            val requests = pending.remove(to) ?: return
+
+            val maxSize = maxOf(1, provider.maxBatchSize)
+            val maxChars = provider.maxBatchChars
+
+            var start = 0
+
+            while (start < requests.size) {
+
+                var end = start
+                var chars = 0
+
+                while (end < requests.size && end - start < maxSize && (end == start || chars + requests[end].query.length <= maxChars)) {
+                    chars += requests[end].query.length
+                    end++
+                }
+
+                val batch = Batch(ArrayList(requests.subList(start, end)))
+
+                batch.requests.forEach { it.batch = batch }
+                batch.job = scope.launch(Dispatchers.IO, CoroutineStart.LAZY) { runBatch(to, batch) }
+
+                jobs.add(batch.job)
+
+                start = end
+
+            }
+
+        }
+
+        jobs.forEach { it.start() }
+
+    }
+
+    private suspend fun runBatch(to: Locale, batch: Batch) {
+
+        val queries = batch.requests.map { it.query }
+
+        val result = runCatching {
+
+            permits.withPermit {
+
+                batches.incrementAndGet()
+
+                provider.translate(to, queries).also {
+
+                    if (it.size != queries.size) error("Expected ${queries.size} translations, got ${it.size}")
+
+                }
+
+            }
+
+        }
+
+        batch.requests.forEachIndexed { index, request ->
+
+            synchronized(lock) {
+
+                val key = to to request.query
+
+                if (inFlight[key] === request) inFlight.remove(key)
+
+            }
+
+            result.onSuccess {
+
+                request.deferred.complete(it[index])
+
+            }.onFailure {
+
+                request.deferred.completeExceptionally(it)
+
+            }
+
+        }
+
+    }
+
+}
@@ -3,6 +3,7 @@ package tw.nekomimi.nekogram.transtale
 import android.view.View
 import cn.hutool.core.util.ArrayUtil
 import cn.hutool.core.util.StrUtil
+import kotlinx.coroutines.ensureActive
 import org.apache.commons.lang3.LocaleUtils
 import org.telegram.messenger.LocaleController
 import org.telegram.messenger.R
@@ -15,6 +16,7 @@ import tw.nekomimi.nekogram.utils.UIUtil
 import tw.nekomimi.nekogram.utils.receive
 import tw.nekomimi.nekogram.utils.receiveLazy
 import java.util.*
+import kotlin.coroutines.coroutineContext
 
 val String.code2Locale: Locale by receiveLazy<String, Locale> {
 
@@ -52,6 +54,23 @@ interface Translator {
 
     suspend fun doTranslate(from: String, to: String, query: String): String
 
+    /**
+     * Largest number of queries [doTranslate] accepts in one call; 1 for providers without a batch endpoint.
+     */
+    val maxBatchSize: Int get() = 1
+
+    suspend fun doTranslate(from: String, to: String, queries: List<String>): List<String> {
+
+        return queries.map {
+
+            coroutineContext.ensureActive()
+
+            doTranslate(from, to, it)
+
+        }
+
+    }
+
     companion object {
 
         @Throws(Exception::class)
@@ -66,16 +85,37 @@ interface Translator {
         const val providerYouDao = 6
         const val providerDeepL = 7
 
+        @JvmStatic
+        fun forProvider(provider: Int) = when (provider) {
+            providerGoogle, providerGoogleCN -> GoogleAppTranslator
+            providerYandex -> YandexTranslator
+            providerLingo -> LingoTranslator
+            providerMicrosoft -> MicrosoftTranslator
+            providerYouDao -> YouDaoTranslator
+            providerDeepL -> DeepLTranslator
+            else -> throw IllegalArgumentException()
+        }
+
+        /**
+         * Goes through the [TranslationScheduler] of the current provider, so concurrent
+         * callers share batches and identical in-flight queries.
+         */
         @Throws(Exception::class)
         suspend fun translate(to: Locale, query: String): String {
 
+            return TranslationScheduler.forProvider(NekoConfig.translationProvider).translate(to, query)
+
+        }
+
+        @Throws(Exception::class)
+        suspend fun translateBatch(provider: Int, to: Locale, queries: List<String>): List<String> {
+
             var language = to.language
             var country = to.country
 
             if (language == "in") language = "id"
             if (country.toLowerCase() == "duang") country = "CN"
 
-            val provider = NekoConfig.translationProvider
             when (provider) {
                 providerYouDao -> if (language == "zh") {
                     language = "zh-CHS"
@@ -93,34 +133,28 @@ interface Translator {
                 }
 
             }
-            val translator = when (provider) {
-                providerGoogle, providerGoogleCN -> GoogleAppTranslator
-                providerYandex -> YandexTranslator
-                providerLingo -> LingoTranslator
-                providerMicrosoft -> MicrosoftTranslator
-                providerYouDao -> YouDaoTranslator
-                providerDeepL -> DeepLTranslator
-                else -> throw IllegalArgumentException()
-            }
+            val translator = forProvider(provider)
 
             // FileLog.d("[Trans] use provider ${translator.javaClass.simpleName}, toLang: $toLang, query: $query")
 
-            val result =  translator.doTranslate("auto", language, query).also {
+            val results = translator.doTranslate("auto", language, queries)
+
+            queries.forEachIndexed { index, query ->
 
-                to.transDb.save(query, it)
+                to.transDb.save(query, results[index])
 
             }
 
             if (language == "zh") {
                 val countryUpperCase = country.toUpperCase()
                 if (countryUpperCase == "CN") {
-                    return CCConverter.get(CCTarget.SP).convert(result)
+                    return results.map { CCConverter.get(CCTarget.SP).convert(it) }
                 } else if (countryUpperCase == "TW") {
-                    return CCConverter.get(CCTarget.TT).convert(result)
+                    return results.map { CCConverter.get(CCTarget.TT).convert(it) }
                 }
             }
 
-            return result
+            return results
 
         }
 
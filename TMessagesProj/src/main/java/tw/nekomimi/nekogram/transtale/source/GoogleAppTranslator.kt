@@ -10,9 +10,21 @@ import tw.nekomimi.nekogram.transtale.Translator
 
 object GoogleAppTranslator : Translator {
 
+    private val useCloud get() = NekoConfig.translationProvider != 2 && StrUtil.isNotBlank(NekoConfig.googleCloudTranslateKey)
+
+    override val maxBatchSize get() = if (useCloud) GoogleCloudTranslator.maxBatchSize else 1
+
+    override suspend fun doTranslate(from: String, to: String, queries: List<String>): List<String> {
+
+        if (useCloud) return GoogleCloudTranslator.doTranslate(from, to, queries)
+
+        return super.doTranslate(from, to, queries)
+
+    }
+
     override suspend fun doTranslate(from: String, to: String, query: String): String {
 
-        if (NekoConfig.translationProvider != 2 && StrUtil.isNotBlank(NekoConfig.googleCloudTranslateKey)) return GoogleCloudTranslator.doTranslate(from, to, query)
+        if (useCloud) return GoogleCloudTranslator.doTranslate(from, to, query)
 
         if (to !in targetLanguages) {
 
@@ -6,12 +6,22 @@ import org.json.JSONObject
 import org.telegram.messenger.LocaleController
 import org.telegram.messenger.R
 import tw.nekomimi.nekogram.NekoConfig
+import tw.nekomimi.nekogram.transtale.TransUtils
 import tw.nekomimi.nekogram.transtale.Translator
 
 object GoogleCloudTranslator : Translator {
 
     override suspend fun doTranslate(from: String, to: String, query: String): String {
 
+        return doTranslate(from, to, listOf(query))[0]
+
+    }
+
+    // v2 accepts up to 128 q segments per request.
+    override val maxBatchSize get() = 32
+
+    override suspend fun doTranslate(from: String, to: String, queries: List<String>): List<String> {
+
         if (to !in targetLanguages) {
 
             throw UnsupportedOperationException(LocaleController.getString("TranslateApiUnsupported", R.string.TranslateApiUnsupported))
@@ -20,14 +30,20 @@ object GoogleCloudTranslator : Translator {
 
         if (StrUtil.isBlank(NekoConfig.googleCloudTranslateKey)) error("Missing Cloud Translate Key")
 
+        val form = StringBuilder()
+
+        queries.forEach { form.append("q=").append(TransUtils.encodeURIComponent(it)).append('&') }
+
+        form.append("target=").append(TransUtils.encodeURIComponent(to))
+        form.append("&format=text")
+        form.append("&key=").append(TransUtils.encodeURIComponent(NekoConfig.googleCloudTranslateKey))
+
+        if (from != "auto") form.append("&source=").append(TransUtils.encodeURIComponent(from))
+
         val response = HttpUtil.createPost("https://translation.googleapis.com/language/translate/v2")
-                .form("q", query)
-                .form("target", to)
-                .form("format", "text")
-                .form("key", NekoConfig.googleCloudTranslateKey)
-                .apply {
-                    if (from != "auto") form("source", from)
-                }.execute()
+                .contentType("application/x-www-form-urlencoded")
+                .body(form.toString())
+                .execute()
 
         if (response.status != 200) {
 
@@ -43,9 +59,9 @@ object GoogleCloudTranslator : Translator {
 
         val respArr = respObj.getJSONArray("translations")
 
-        if (respArr.length() == 0) error("Empty translation result")
+        if (respArr.length() != queries.size) error("Unexpected translation result: ${respArr.length()} of ${queries.size}")
 
-        return respArr.getJSONObject(0).getString("translatedText")
+        return List(queries.size) { respArr.getJSONObject(it).getString("translatedText") }
 
     }
 
@@ -1,11 +1,23 @@
 package tw.nekomimi.nekogram.utils
 
-import cn.hutool.http.Header
-import cn.hutool.http.HttpUtil
+import android.app.Activity
+import android.util.Base64
+import okhttp3.Call
+import okhttp3.Callback
+import okhttp3.MediaType.Companion.toMediaType
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import okhttp3.RequestBody.Companion.toRequestBody
+import okhttp3.Response
+import org.telegram.messenger.ApplicationLoader
 import org.telegram.messenger.FileLog
 import org.telegram.tgnet.ConnectionsManager
 import org.xbill.DNS.*
+import java.io.IOException
 import java.net.InetAddress
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
 
 
 object DnsFactory {
@@ -16,57 +28,149 @@ object DnsFactory {
             "https://dns.google/dns-query"
     )
 
-    val cache = Cache()
+    private const val MIN_TTL = 60 * 1000L
+    private const val MAX_TTL = 24 * 60 * 60 * 1000L
+    private const val FALLBACK_TTL = 5 * 60 * 1000L
+    private const val RACE_TIMEOUT = 10 * 1000L
+
+    private val mediaType = "application/dns-message".toMediaType()
+
+    // one client for all providers, its pool keeps the HTTP/2 connections of recent lookups open
+    private val client = OkHttpClient.Builder()
+            .connectTimeout(5, TimeUnit.SECONDS)
+            .callTimeout(RACE_TIMEOUT, TimeUnit.MILLISECONDS)
+            .build()
+
+    class Resolved(@JvmField val addresses: List<InetAddress>, @JvmField val ttl: Long)
+
+    private class Entry(val message: Message, val expires: Long)
+
+    private val preferences by lazy { ApplicationLoader.applicationContext.getSharedPreferences("dns_cache", Activity.MODE_PRIVATE) }
+
+    private val cache by lazy {
+        ConcurrentHashMap<String, Entry>().apply {
+            val now = System.currentTimeMillis()
+            val editor = preferences.edit()
+            for ((key, value) in preferences.all) {
+                runCatching {
+                    val (expires, wire) = (value as String).split('/', limit = 2)
+                    if (expires.toLong() > now) {
+                        put(key, Entry(Message(Base64.decode(wire, Base64.NO_WRAP)), expires.toLong()))
+                    } else {
+                        editor.remove(key)
+                    }
+                }.onFailure { editor.remove(key) }
+            }
+            editor.apply()
+        }
+    }
+
+    private fun getTtl(message: Message): Long {
+        val records = message.getSection(Section.ANSWER).ifEmpty { message.getSection(Section.AUTHORITY) }
+        val ttl = records.minOfOrNull { if (it is SOARecord) minOf(it.ttl, it.minimum) else it.ttl } ?: 0L
+        return (ttl * 1000L).coerceIn(MIN_TTL, MAX_TTL)
+    }
+
+    /**
+     * Sends the query to every provider at once and returns the first usable answer.
+     */
+    private fun race(query: ByteArray): Message? {
+
+        val results = LinkedBlockingQueue<Any>()
+        val calls = providers.map { provider ->
+            val request = Request.Builder()
+                    .url(provider)
+                    .header("Accept", "application/dns-message")
+                    .post(query.toRequestBody(mediaType))
+                    .build()
+            client.newCall(request).apply {
+                enqueue(object : Callback {
+                    override fun onFailure(call: Call, e: IOException) {
+                        results.add(e)
+                    }
+
+                    override fun onResponse(call: Call, response: Response) {
+                        response.use {
+                            val result = runCatching {
+                                if (!response.isSuccessful) error("$provider: ${response.code}")
+                                val message = Message(response.body!!.bytes())
+                                val rcode = message.header.rcode
+                                if (rcode != Rcode.NOERROR && rcode != Rcode.NXDOMAIN) error("$provider: ${Rcode.string(rcode)}")
+                                FileLog.d("Provider $provider answered")
+                                message
+                            }
+                            results.add(result.getOrElse { it })
+                        }
+                    }
+                })
+            }
+        }
+
+        val deadline = System.currentTimeMillis() + RACE_TIMEOUT
+        try {
+            repeat(calls.size) {
+                val result = results.poll(deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS) ?: return null
+                if (result is Message) return result
+                FileLog.d("DoH failed: $result")
+            }
+        } finally {
+            calls.forEach { it.cancel() }
+        }
+        return null
+
+    }
+
+    private fun query(domain: String, type: Int): Entry? {
+
+        val key = "${Type.string(type)}/$domain"
+        cache[key]?.takeIf { it.expires > System.currentTimeMillis() }?.let { return it }
+
+        val name = Name.fromConstantString("$domain.")
+        val message = race(Message.newQuery(Record.newRecord(name, type, DClass.IN)).toWire()) ?: return null
+
+        val entry = Entry(message, System.currentTimeMillis() + getTtl(message))
+        cache[key] = entry
+        preferences.edit().putString(key, "${entry.expires}/${Base64.encodeToString(message.toWire(), Base64.NO_WRAP)}").apply()
+        return entry
+
+    }
 
     @JvmStatic
-    fun lookup(domain: String): List<InetAddress> {
+    fun lookup(domain: String): List<InetAddress> = resolve(domain).addresses
+
+    /**
+     * Resolves [domain] through DoH, returning the addresses with the time in ms they stay valid.
+     * NXDOMAIN, and NODATA the system resolver can't answer either, come back empty with their
+     * negative TTL; when every resolver failed the result is empty with a TTL of 0, not to be cached.
+     */
+    @JvmStatic
+    fun resolve(domain: String): Resolved {
 
         FileLog.d("Lookup $domain")
 
         val type = if (!ConnectionsManager.useIpv6Address()) Type.A else Type.AAAA
-        val dc = DClass.IN
-
-        val name = Name.fromConstantString("$domain.")
-        val message = Message.newQuery(Record.newRecord(name, type, dc)).toWire()
-        var sr = cache.lookupRecords(name, type, dc)
-
-        if (!sr.isSuccessful) for (provider in providers) {
-            FileLog.d("Provider $provider")
-
-            try {
-
-                val response = HttpUtil.createPost(provider)
-                        .contentType("application/dns-message")
-                        .header(Header.ACCEPT, "application/dns-message")
-                        .body(message)
-                        .execute()
-                if (!response.isOk) continue
-                val result = Message(response.bodyBytes())
-                val rcode = result.header.rcode
-                if (rcode != Rcode.NOERROR && rcode != Rcode.NXDOMAIN) continue
-                cache.addMessage(result)
-                sr = cache.lookupRecords(name, type, dc)
-                if (sr == null) sr = cache.lookupRecords(name, type, dc)
-                if (sr.isSuccessful || sr.isNXDOMAIN) break
-            } catch (e: Exception) {
+        val entry = query(domain, type)
+        var negativeTtl = 0L
+
+        if (entry != null) {
+            val ttl = entry.expires - System.currentTimeMillis()
+            if (entry.message.header.rcode == Rcode.NXDOMAIN) {
+                FileLog.d("NXDOMAIN")
+                return Resolved(listOf(), ttl)
             }
-        }
-
-        if (sr.isSuccessful) {
-            val records = ArrayList<Record>()
-            for (set in sr.answers()) {
-                records.addAll(set.rrs(true))
+            val addresses = entry.message.getSection(Section.ANSWER).mapNotNull {
+                (it as? ARecord)?.address ?: (it as? AAAARecord)?.address
             }
-            val addresses = records.map { (it as? ARecord)?.address ?: (it as AAAARecord).address }
-            FileLog.d(addresses.toString())
-            return addresses
-        } else if (sr.isNXDOMAIN) {
-            FileLog.d("NXDOMAIN")
-            return listOf()
+            if (addresses.isNotEmpty()) {
+                FileLog.d(addresses.toString())
+                return Resolved(addresses, ttl)
+            }
+            FileLog.d("NODATA")
+            negativeTtl = ttl
         }
 
-        runCatching { return InetAddress.getAllByName(domain).toList() }
-        return listOf()
+        runCatching { return Resolved(InetAddress.getAllByName(domain).toList(), FALLBACK_TTL) }
+        return Resolved(listOf(), negativeTtl)
 
     }
 
@@ -75,48 +179,19 @@ object DnsFactory {
 
         FileLog.d("Lookup $domain for txts")
 
-        val type = Type.TXT
-        val dc = DClass.IN
-
-        val name = Name.fromConstantString("$domain.")
-        val message = Message.newQuery(Record.newRecord(name, type, dc)).toWire()
-        var sr = cache.lookupRecords(name, type, dc)
-
-        if (!sr.isSuccessful) for (provider in providers) {
-            FileLog.d("Provider $provider")
-
-            try {
-
-                val response = HttpUtil.createPost(provider)
-                        .contentType("application/dns-message")
-                        .header(Header.ACCEPT, "application/dns-message")
-                        .body(message)
-                        .execute()
-                if (!response.isOk) continue
-                val result = Message(response.bodyBytes())
-                val rcode = result.header.rcode
-                if (rcode != Rcode.NOERROR && rcode != Rcode.NXDOMAIN) continue
-                cache.addMessage(result)
-                sr = cache.lookupRecords(name, type, dc)
-                if (sr == null) sr = cache.lookupRecords(name, type, dc)
-                if (sr.isSuccessful || sr.isNXDOMAIN) break
-            } catch (e: Exception) {
-                FileLog.e(e)
-            }
-        }
+        val entry = query(domain, Type.TXT) ?: return listOf()
 
-        if (sr.isSuccessful) {
-            val txts = ArrayList<String>().apply {
-                sr.answers().forEach { rRset -> rRset.rrs(true).filterIsInstance<TXTRecord>().forEach { addAll(it.strings) } }
-            }
-            FileLog.d(txts.toString())
-        } else if (sr.isNXDOMAIN) {
+        if (entry.message.header.rcode == Rcode.NXDOMAIN) {
             FileLog.d("NXDOMAIN")
             return listOf()
         }
 
-        return listOf()
+        val txts = ArrayList<String>().apply {
+            entry.message.getSection(Section.ANSWER).filterIsInstance<TXTRecord>().forEach { addAll(it.strings) }
+        }
+        FileLog.d(txts.toString())
+        return txts
 
     }
 
-}
\ No newline at end of file
+}
@@ -78,6 +78,15 @@ object FileUtil {
 
     }
 
+    @JvmStatic
+    fun appendUtf8String(text: String, save: File) {
+
+        initFile(save)
+
+        save.appendText(text)
+
+    }
+
     @JvmStatic
     fun saveAsset(path: String, saveTo: File) {
 
@@ -0,0 +1,89 @@
+package org.telegram.messenger
+
+import org.junit.Ignore
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+/**
+ * Compares the compiled emoji trie with the hash lookups replaceEmoji used to do. Prints timings
+ * only; run it by hand.
+ */
+@Ignore("benchmark")
+@RunWith(RobolectricTestRunner::class)
+class EmojiMatcherBenchmarkTest {
+
+    private val messages = listOf(
+            "Happy birthday!!! 🎉🎂🥳 have a great one ❤️❤️❤️",
+            "lol 😂😂😂 that's exactly what happened to me 🤦🏻‍♂️",
+            "👨‍👩‍👧‍👦 family trip to 🇯🇵 next week ✈️🗾 who wants to join? 🙋🏽‍♀️",
+            "Score: 3️⃣ - 1️⃣ ⚽️🔥🔥 #️⃣ goals only",
+            "🏴󠁧󠁢󠁳󠁣󠁴󠁿 vs 🏴󠁧󠁢󠁥󠁮󠁧󠁿 tonight 🍺🍻",
+            "ok 👍👍🏿👌 see you at 8 🕗",
+            "The quick brown fox jumps over the lazy dog, no emoji here at all.",
+            "🥰😍😘💕💞💓💗💖💝 love you 🌹"
+    )
+
+    private fun legacyLookup(table: Map<String, Int>, text: CharSequence): Int {
+        // hash lookups of candidate substrings, longest first, as replaceEmoji used to do per emoji
+        var found = 0
+        var i = 0
+        while (i < text.length) {
+            var matched = 0
+            var length = minOf(16, text.length - i)
+            while (length > 0) {
+                if (table.containsKey(text.subSequence(i, i + length).toString().replace("️", ""))) {
+                    matched = length
+                    break
+                }
+                length--
+            }
+            if (matched > 0) {
+                found++
+                i += matched
+            } else {
+                i++
+            }
+        }
+        return found
+    }
+
+    private fun count(matcher: EmojiMatcher, text: CharSequence): Int {
+        var found = 0
+        var i = 0
+        while (i < text.length) {
+            val match = matcher.match(text, i, text.length)
+            if (match == EmojiMatcher.NO_MATCH.toLong()) {
+                i++
+            } else {
+                found++
+                i = EmojiMatcher.getEnd(match)
+            }
+        }
+        return found
+    }
+
+    @Test
+    fun benchmark() {
+
+        val table = HashMap<String, Int>()
+        EmojiData.data.forEach { emojis -> emojis.forEach { table[it] = 0 } }
+
+        var start = System.nanoTime()
+        val matcher = EmojiMatcher.getInstance()
+        println("trie build: ${(System.nanoTime() - start) / 1000} us")
+
+        val iterations = 20_000
+        repeat(iterations / 10) { messages.forEach { legacyLookup(table, it) } }
+        start = System.nanoTime()
+        repeat(iterations) { messages.forEach { legacyLookup(table, it) } }
+        println("hash candidates: ${(System.nanoTime() - start) / iterations} ns/batch")
+
+        repeat(iterations / 10) { messages.forEach { count(matcher, it) } }
+        start = System.nanoTime()
+        repeat(iterations) { messages.forEach { count(matcher, it) } }
+        println("compiled trie: ${(System.nanoTime() - start) / iterations} ns/batch")
+
+    }
+
+}
@@ -0,0 +1,113 @@
+package org.telegram.messenger
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class EmojiMatcherTest {
+
+    private val messages = listOf(
+            "Happy birthday!!! 🎉🎂🥳 have a great one ❤️❤️❤️",
+            "lol 😂😂😂 that's exactly what happened to me 🤦🏻‍♂️",
+            "👨‍👩‍👧‍👦 family trip to 🇯🇵 next week ✈️🗾 who wants to join? 🙋🏽‍♀️",
+            "Score: 3️⃣ - 1️⃣ ⚽️🔥🔥 #️⃣ goals only",
+            "🏴󠁧󠁢󠁳󠁣󠁴󠁿 vs 🏴󠁧󠁢󠁥󠁮󠁧󠁿 tonight 🍺🍻",
+            "ok 👍👍🏿👌 see you at 8 🕗",
+            "The quick brown fox jumps over the lazy dog, no emoji here at all.",
+            "🥰😍😘💕💞💓💗💖💝 love you 🌹"
+    )
+
+    private fun legacyLookup(table: Map<String, Int>, text: CharSequence): Int {
+        // hash lookups of candidate substrings, longest first, as replaceEmoji used to do per emoji
+        var found = 0
+        var i = 0
+        while (i < text.length) {
+            var matched = 0
+            var length = minOf(16, text.length - i)
+            while (length > 0) {
+                if (table.containsKey(text.subSequence(i, i + length).toString().replace("️", ""))) {
+                    matched = length
+                    break
+                }
+                length--
+            }
+            if (matched > 0) {
+                found++
+                i += matched
+            } else {
+                i++
+            }
+        }
+        return found
+    }
+
+    private fun count(matcher: EmojiMatcher, text: CharSequence): Int {
+        var found = 0
+        var i = 0
+        while (i < text.length) {
+            val match = matcher.match(text, i, text.length)
+            if (match == EmojiMatcher.NO_MATCH.toLong()) {
+                i++
+            } else {
+                found++
+                i = EmojiMatcher.getEnd(match)
+            }
+        }
+        return found
+    }
+
+    @Test
+    fun matchesEveryEmoji() {
+
+        val matcher = EmojiMatcher.getInstance()
+
+        // a few sequences appear twice in the data; like the old lookup map, the last one wins
+        EmojiData.data.forEach { emojis ->
+            emojis.forEach { emoji ->
+                val match = matcher.match(emoji, 0, emoji.length)
+                assertEquals(emoji, emoji.length, EmojiMatcher.getEnd(match))
+                assertEquals(emoji, EmojiData.data[EmojiMatcher.getPage(match)][EmojiMatcher.getIndex(match)])
+            }
+        }
+
+    }
+
+    @Test
+    fun matchesLongestSequence() {
+
+        val matcher = EmojiMatcher.getInstance()
+
+        // variation selectors are skipped but covered by the span
+        val heart = "❤️!"
+        assertEquals(2, EmojiMatcher.getEnd(matcher.match(heart, 0, heart.length)))
+
+        val keycap = "3️⃣"
+        assertEquals(3, EmojiMatcher.getEnd(matcher.match(keycap, 0, keycap.length)))
+
+        val family = "👨‍👩‍👧‍👦x"
+        assertEquals(family.length - 1, EmojiMatcher.getEnd(matcher.match(family, 0, family.length)))
+
+        val toned = "👍🏿"
+        assertEquals(toned.length, EmojiMatcher.getEnd(matcher.match(toned, 0, toned.length)))
+
+        assertEquals(EmojiMatcher.NO_MATCH.toLong(), matcher.match("42", 0, 2))
+
+    }
+
+    @Test
+    fun agreesWithHashLookup() {
+
+        val table = HashMap<String, Int>()
+        EmojiData.data.forEach { emojis -> emojis.forEach { table[it] = 0 } }
+
+        val matcher = EmojiMatcher.getInstance()
+        messages.forEach { assertEquals(it, legacyLookup(table, it), count(matcher, it)) }
+
+        assertEquals(0, count(matcher, "The quick brown fox jumps over the lazy dog, no emoji here at all."))
+        assertEquals(3, count(matcher, "❤️❤️❤️"))
+
+    }
+
+}
@@ -0,0 +1,61 @@
+package org.telegram.messenger
+
+import android.util.Log
+import cn.hutool.core.util.StrUtil
+import org.junit.After
+import org.junit.Before
+import org.junit.Ignore
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+/**
+ * Measures what a log call costs its caller. Prints timings only; run it by hand.
+ */
+@Ignore("benchmark")
+@RunWith(RobolectricTestRunner::class)
+class FileLogBenchmarkTest {
+
+    private var logsEnabled = false
+
+    @Before
+    fun setUp() {
+        logsEnabled = BuildVars.LOGS_ENABLED
+    }
+
+    @After
+    fun tearDown() {
+        BuildVars.LOGS_ENABLED = logsEnabled
+    }
+
+    // What every FileLog call used to do on the caller's thread.
+    private fun legacyLog(message: String) {
+        val stackTrace = Thread.currentThread().stackTrace
+        Log.d(StrUtil.subAfter(stackTrace[2].className, ".", true), message)
+    }
+
+    private inline fun measure(name: String, iterations: Int, block: () -> Unit) {
+        repeat(iterations / 10) { block() }
+        val start = System.nanoTime()
+        repeat(iterations) { block() }
+        val perOp = (System.nanoTime() - start) / iterations
+        println("$name: $perOp ns/op")
+    }
+
+    @Test
+    fun benchmark() {
+
+        BuildVars.LOGS_ENABLED = true
+
+        measure("legacy stack-walk tag", 20_000) { legacyLog("send request") }
+        measure("ring buffer, default tag", 20_000) { FileLog.d("send request") }
+        FileLog.flush()
+        measure("ring buffer, explicit tag", 20_000) { FileLog.d("ConnectionsManager", "send request") }
+        FileLog.flush()
+
+        BuildVars.LOGS_ENABLED = false
+        measure("disabled level", 200_000) { FileLog.d("send request") }
+
+    }
+
+}
@@ -0,0 +1,75 @@
+package org.telegram.messenger
+
+import android.util.Log
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.shadows.ShadowLog
+
+@RunWith(RobolectricTestRunner::class)
+class FileLogTest {
+
+    private var logsEnabled = false
+
+    @Before
+    fun setUp() {
+        logsEnabled = BuildVars.LOGS_ENABLED
+        BuildVars.LOGS_ENABLED = true
+        ShadowLog.clear()
+    }
+
+    @After
+    fun tearDown() {
+        BuildVars.LOGS_ENABLED = logsEnabled
+    }
+
+    @Test
+    fun resolvesTags() {
+
+        FileLog.d("default tag")
+        FileLog.d("Explicit", "explicit tag")
+        FileLog.e(IllegalStateException("thrown here"))
+        FileLog.flush()
+
+        val logs = ShadowLog.getLogs()
+        assertEquals("tmessages", logs.first { it.msg == "default tag" }.tag)
+        assertEquals("Explicit", logs.first { it.msg == "explicit tag" }.tag)
+        assertEquals("FileLogTest", logs.first { it.msg.startsWith("IllegalStateException: thrown here") }.tag)
+
+    }
+
+    @Test
+    fun disabledLevelsAreSkipped() {
+
+        BuildVars.LOGS_ENABLED = false
+        FileLog.d("hidden")
+        FileLog.w("hidden")
+        FileLog.e("shown")
+        FileLog.flush()
+
+        val logs = ShadowLog.getLogs()
+        assertTrue(logs.none { it.msg == "hidden" })
+        assertEquals(Log.ERROR, logs.first { it.msg == "shown" }.type)
+
+    }
+
+    @Test
+    fun writesUncaughtExceptions() {
+
+        FileLog.d("start writer")
+
+        val thread = Thread { throw IllegalStateException("crash") }
+        thread.start()
+        thread.join()
+
+        val crash = ShadowLog.getLogs().first { it.type == Log.ASSERT }
+        assertTrue(crash.msg.startsWith("uncaught exception in " + thread.name))
+        assertTrue(crash.msg.contains("IllegalStateException: crash"))
+
+    }
+
+}
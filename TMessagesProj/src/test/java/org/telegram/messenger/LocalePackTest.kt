@@ -0,0 +1,66 @@
+package org.telegram.messenger
+
+import org.junit.Assert.*
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+
+class LocalePackTest {
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private fun source(): File = folder.newFile("strings.xml").apply { writeText("<resources></resources>") }
+
+    @Test
+    fun roundTripWithHashCollisions() {
+
+        // Aa and BB share a String.hashCode, so do AaAa, BBBB and AaBB
+        val values = hashMapOf("Aa" to "first", "BB" to "second", "AaAa" to "third", "BBBB" to "fourth", "Other" to "fifth\nline")
+        assertEquals("Aa".hashCode(), "BB".hashCode())
+        assertEquals("AaAa".hashCode(), "AaBB".hashCode())
+
+        val file = source()
+        LocalePack.compile(file, values, false)
+
+        val pack = LocalePack.open(file)
+        assertNotNull(pack)
+        assertEquals(values.size, pack!!.size())
+        values.forEach { (key, value) -> assertEquals(key, value, pack.get(key)) }
+        assertNull(pack.get("AaBB"))
+        assertNull(pack.get("Missing"))
+        assertFalse(pack.needsReload())
+
+    }
+
+    @Test
+    fun staleOrReloadPacks() {
+
+        val file = source()
+        LocalePack.compile(file, hashMapOf("key" to "value"), true)
+        assertTrue(LocalePack.open(file)!!.needsReload())
+
+        file.appendText("\n")
+        assertNull(LocalePack.open(file))
+
+        LocalePack.delete(file)
+        assertNull(LocalePack.open(file))
+
+    }
+
+    @Test
+    fun missingStringsComeFromFallback() {
+
+        val file = source()
+        val pack = LocalePack.compile(file, hashMapOf("Shared" to "dialect", "Own" to "own"), false)
+                .withFallback(LocalePack.of(hashMapOf("Shared" to "base", "Base" to "base only")))
+
+        assertEquals("dialect", pack.get("Shared"))
+        assertEquals("own", pack.get("Own"))
+        assertEquals("base only", pack.get("Base"))
+        assertNull(pack.get("Nowhere"))
+
+    }
+
+}
@@ -0,0 +1,42 @@
+package org.telegram.messenger
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class MessagesSearchIndexTest {
+
+    @Test
+    fun tokenizeSplitsWordsAndCjkRuns() {
+
+        assertEquals(listOf("hello", "world42"), MessagesSearchIndex.tokenize("Hello, World42!", false))
+        assertEquals(listOf("hi", "世", "界", "世界", "x"), MessagesSearchIndex.tokenize("hi世界 x", false))
+        assertEquals(listOf("한", "국", "한국"), MessagesSearchIndex.tokenize("한국", false))
+        assertEquals(listOf<String>(), MessagesSearchIndex.tokenize("", false))
+        assertEquals(listOf<String>(), MessagesSearchIndex.tokenize(" ,.!? ", false))
+
+    }
+
+    @Test
+    fun matchQueryPrefixesWordsAndPairsCjk() {
+
+        assertEquals("\"hello\"* AND \"wor\"*", MessagesSearchIndex.buildMatchQuery("Hello wor", false))
+        assertEquals("\"世\"", MessagesSearchIndex.buildMatchQuery("世", false))
+        assertEquals("\"世界\" AND \"界和\"", MessagesSearchIndex.buildMatchQuery("世界和", false))
+        assertEquals("\"abc\"* AND \"世界\"", MessagesSearchIndex.buildMatchQuery("abc世界", false))
+
+    }
+
+    @Test
+    fun matchQueryDropsSyntax() {
+
+        assertNull(MessagesSearchIndex.buildMatchQuery("", false))
+        assertNull(MessagesSearchIndex.buildMatchQuery(" \"*() ", false))
+        assertEquals("\"a\"* AND \"or\"* AND \"b\"*", MessagesSearchIndex.buildMatchQuery("a\" OR \"b", false))
+
+    }
+
+}
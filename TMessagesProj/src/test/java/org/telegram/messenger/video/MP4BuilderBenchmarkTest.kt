@@ -0,0 +1,90 @@
+package org.telegram.messenger.video
+
+import android.media.MediaCodec
+import android.media.MediaFormat
+import org.junit.Ignore
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.io.File
+import java.io.FileOutputStream
+import java.nio.ByteBuffer
+import kotlin.random.Random
+
+/**
+ * Compares MP4Builder's gathering writes with the per sample writes and syncs it used to do.
+ * Prints timings only; run it by hand.
+ */
+@Ignore("benchmark")
+@RunWith(RobolectricTestRunner::class)
+class MP4BuilderBenchmarkTest {
+
+    private val random = Random(42)
+    private val sampleSizes = IntArray(3000) { 2 * 1024 + random.nextInt(18 * 1024) }
+    private val samples = ByteBuffer.allocateDirect(sampleSizes.maxOrNull()!!).apply {
+        while (hasRemaining()) put(random.nextInt().toByte())
+    }
+
+    private fun mux(file: File) {
+        val movie = Mp4Movie()
+        movie.setCacheFile(file)
+        movie.setSize(640, 360)
+        val builder = MP4Builder().createMovie(movie, true)
+        val track = builder.addTrack(MediaFormat.createVideoFormat("video/mp4v", 640, 360), false)
+        val info = MediaCodec.BufferInfo()
+        sampleSizes.forEachIndexed { index, size ->
+            info.set(0, size, index * 33_333L, if (index % 30 == 0) MediaCodec.BUFFER_FLAG_SYNC_FRAME else 0)
+            samples.clear()
+            builder.writeSampleData(track, samples, info, true)
+        }
+        builder.finishMovie()
+    }
+
+    // The per sample pattern writeSampleData used before: two writes, a header buffer per
+    // mdat and a sync to disk every 32K.
+    private fun legacyMux(file: File) {
+        val fos = FileOutputStream(file)
+        val fc = fos.channel
+        val sizeBuffer = ByteBuffer.allocateDirect(4)
+        var wrote = 0L
+        sampleSizes.forEach { size ->
+            if (wrote == 0L) {
+                fc.write(ByteBuffer.allocate(16))
+            }
+            sizeBuffer.clear()
+            sizeBuffer.putInt(size - 4)
+            sizeBuffer.flip()
+            fc.write(sizeBuffer)
+            samples.position(4)
+            samples.limit(size)
+            fc.write(samples)
+            wrote += size
+            if (wrote >= 32 * 1024) {
+                fos.flush()
+                fos.fd.sync()
+                wrote = 0
+            }
+        }
+        fc.close()
+        fos.close()
+    }
+
+    @Test
+    fun benchmark() {
+
+        val file = File.createTempFile("mux", ".mp4")
+        val megabytes = sampleSizes.sum() / (1024.0 * 1024.0)
+        repeat(2) {
+            var start = System.nanoTime()
+            legacyMux(file)
+            println("legacy writes: ${"%.1f".format(megabytes)}MB in ${(System.nanoTime() - start) / 1_000_000} ms")
+
+            start = System.nanoTime()
+            mux(file)
+            println("gather writes: ${"%.1f".format(megabytes)}MB in ${(System.nanoTime() - start) / 1_000_000} ms")
+        }
+        file.delete()
+
+    }
+
+}
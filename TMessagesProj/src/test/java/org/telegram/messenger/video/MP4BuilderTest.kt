@@ -0,0 +1,105 @@
+package org.telegram.messenger.video
+
+import android.media.MediaCodec
+import android.media.MediaFormat
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import kotlin.random.Random
+
+@RunWith(RobolectricTestRunner::class)
+class MP4BuilderTest {
+
+    private val random = Random(42)
+    private val sampleSizes = IntArray(3000) { 2 * 1024 + random.nextInt(18 * 1024) }
+    private val samples = ByteBuffer.allocateDirect(sampleSizes.maxOrNull()!!).apply {
+        while (hasRemaining()) put(random.nextInt().toByte())
+    }
+
+    private fun mux(file: File, split: Boolean): Long {
+        val movie = Mp4Movie()
+        movie.setCacheFile(file)
+        movie.setSize(640, 360)
+        val builder = MP4Builder().createMovie(movie, split)
+        val track = builder.addTrack(MediaFormat.createVideoFormat("video/mp4v", 640, 360), false)
+        val info = MediaCodec.BufferInfo()
+        var total = 0L
+        sampleSizes.forEachIndexed { index, size ->
+            info.set(0, size, index * 33_333L, if (index % 30 == 0) MediaCodec.BUFFER_FLAG_SYNC_FRAME else 0)
+            samples.clear()
+            builder.writeSampleData(track, samples, info, true)
+            total += size
+        }
+        builder.finishMovie()
+        return total
+    }
+
+    private fun readBoxes(file: File, mdatPayload: ByteArrayOutputStream? = null): List<Pair<String, Long>> {
+        val boxes = ArrayList<Pair<String, Long>>()
+        RandomAccessFile(file, "r").use { raf ->
+            var position = 0L
+            while (position < raf.length()) {
+                raf.seek(position)
+                var size = raf.readInt().toLong() and 0xFFFFFFFFL
+                val type = ByteArray(4).also { raf.readFully(it) }.toString(Charsets.US_ASCII)
+                if (size == 1L) {
+                    size = raf.readLong()
+                }
+                if (type == "mdat" && mdatPayload != null) {
+                    raf.seek(position + 16)
+                    mdatPayload.write(ByteArray((size - 16).toInt()).also { raf.readFully(it) })
+                }
+                boxes.add(type to size)
+                position += size
+            }
+            assertEquals(raf.length(), position)
+        }
+        return boxes
+    }
+
+    @Test
+    fun writesEverySample() {
+
+        for (split in listOf(false, true)) {
+            val file = File.createTempFile("mux", ".mp4")
+            val total = mux(file, split)
+            val boxes = readBoxes(file)
+            assertEquals("ftyp", boxes.first().first)
+            assertEquals("moov", boxes.last().first)
+            val mdats = boxes.filter { it.first == "mdat" }
+            assertEquals(total, mdats.sumOf { it.second - 16 })
+            if (split) {
+                assertEquals(true, mdats.size > 1)
+            }
+            file.delete()
+        }
+
+    }
+
+    @Test
+    fun samplesAreLengthPrefixed() {
+
+        for (split in listOf(false, true)) {
+            val file = File.createTempFile("mux", ".mp4")
+            mux(file, split)
+            val payload = ByteArrayOutputStream().also { readBoxes(file, it) }.toByteArray()
+            val data = ByteBuffer.wrap(payload)
+            sampleSizes.forEach { size ->
+                assertEquals(size - 4, data.int)
+                val expected = samples.duplicate().apply { position(4); limit(size) }
+                val actual = data.slice().apply { limit(size - 4) }
+                assertEquals(expected, actual)
+                data.position(data.position() + size - 4)
+            }
+            assertEquals(0, data.remaining())
+            file.delete()
+        }
+
+    }
+
+}
@@ -0,0 +1,70 @@
+package org.telegram.tgnet
+
+import org.junit.Assert.*
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class GrowableByteBufferTest {
+
+    private fun sendMessage(textLength: Int, entityCount: Int) = TLRPC.TL_messages_sendMessage().apply {
+        peer = TLRPC.TL_inputPeerUser().apply {
+            user_id = 777000
+            access_hash = 0x1234567890L
+        }
+        message = "x".repeat(textLength)
+        random_id = 42L
+        for (index in 0 until entityCount) {
+            entities.add(TLRPC.TL_messageEntityBold().apply {
+                offset = index
+                length = 1
+            })
+        }
+        if (entityCount > 0) flags = flags or 8
+    }
+
+    private fun twoPass(obj: TLObject): ByteArray {
+        val buffer = GrowableByteBuffer(obj.objectSize)
+        obj.serializeToStream(buffer)
+        return buffer.toByteArray()
+    }
+
+    private fun singlePass(obj: TLObject): ByteArray {
+        val buffer = GrowableByteBuffer.obtain()
+        obj.serializeToStream(buffer)
+        val result = buffer.toByteArray()
+        buffer.release()
+        return result
+    }
+
+    @Test
+    fun singlePassMatchesTwoPass() {
+
+        for (request in listOf(sendMessage(16, 0), sendMessage(300, 4), sendMessage(200_000, 2_000))) {
+            assertArrayEquals(twoPass(request), singlePass(request))
+        }
+
+    }
+
+    @Test
+    fun pooledBufferIsReusedAndShrunk() {
+
+        val small = GrowableByteBuffer.obtain()
+        val smallBuffer = small.buffer
+        small.release()
+        assertSame(small, GrowableByteBuffer.obtain())
+        assertSame(smallBuffer, small.buffer)
+        small.release()
+
+        val large = sendMessage(2 * 1024 * 1024, 0)
+        val buffer = GrowableByteBuffer.obtain()
+        large.serializeToStream(buffer)
+        assertEquals(large.objectSize, buffer.length())
+        buffer.release()
+        assertTrue(buffer.buffer.capacity() <= 1024 * 1024)
+        assertEquals(0, buffer.buffer.position())
+
+    }
+
+}
@@ -0,0 +1,71 @@
+package org.telegram.tgnet
+
+import org.junit.Ignore
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+/**
+ * Compares sizing a request before serializing it with serializing it once into the pooled
+ * buffer. Prints timings only; run it by hand.
+ */
+@Ignore("benchmark")
+@RunWith(RobolectricTestRunner::class)
+class SerializationBenchmarkTest {
+
+    private fun sendMessage(textLength: Int, entityCount: Int) = TLRPC.TL_messages_sendMessage().apply {
+        peer = TLRPC.TL_inputPeerUser().apply {
+            user_id = 777000
+            access_hash = 0x1234567890L
+        }
+        message = "x".repeat(textLength)
+        random_id = 42L
+        for (index in 0 until entityCount) {
+            entities.add(TLRPC.TL_messageEntityBold().apply {
+                offset = index
+                length = 1
+            })
+        }
+        if (entityCount > 0) flags = flags or 8
+    }
+
+    private fun twoPass(obj: TLObject): ByteArray {
+        val buffer = GrowableByteBuffer(obj.objectSize)
+        obj.serializeToStream(buffer)
+        return buffer.toByteArray()
+    }
+
+    private fun singlePass(obj: TLObject): ByteArray {
+        val buffer = GrowableByteBuffer.obtain()
+        obj.serializeToStream(buffer)
+        val result = buffer.toByteArray()
+        buffer.release()
+        return result
+    }
+
+    private inline fun measure(name: String, iterations: Int, block: () -> Unit) {
+        repeat(iterations / 10) { block() }
+        val start = System.nanoTime()
+        repeat(iterations) { block() }
+        val perOp = (System.nanoTime() - start) / iterations
+        println("$name: $perOp ns/op")
+    }
+
+    @Test
+    fun benchmark() {
+
+        val requests = listOf(
+                "small" to sendMessage(16, 0),
+                "medium" to sendMessage(4096, 64),
+                "large" to sendMessage(512 * 1024, 10_000)
+        )
+
+        for ((name, request) in requests) {
+            val iterations = if (name == "large") 200 else 20_000
+            measure("$name two-pass", iterations) { twoPass(request) }
+            measure("$name single-pass", iterations) { singlePass(request) }
+        }
+
+    }
+
+}
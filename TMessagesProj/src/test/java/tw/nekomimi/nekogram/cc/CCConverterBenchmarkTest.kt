@@ -0,0 +1,45 @@
+package tw.nekomimi.nekogram.cc
+
+import org.junit.Ignore
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+/**
+ * Compares one pass per trie with the fused conversion. Prints timings only; run it by hand.
+ */
+@Ignore("benchmark")
+@RunWith(RobolectricTestRunner::class)
+class CCConverterBenchmarkTest {
+
+    private val sample = "头发发现了干燥的后台，这里面积很大，软件里的信息与网络鼠标一起出现。Telegram 消息 123 "
+
+    private fun multiPass(converter: CCConverter, input: String): String {
+        var result = input
+        for (trie in converter.tries) {
+            result = OpenCCUtil.segLongest(result.toCharArray(), trie)
+        }
+        return result
+    }
+
+    private inline fun measure(name: String, iterations: Int, block: () -> Unit) {
+        repeat(iterations / 10) { block() }
+        val start = System.nanoTime()
+        repeat(iterations) { block() }
+        val perOp = (System.nanoTime() - start) / iterations
+        println("$name: ${perOp / 1000} us/op")
+    }
+
+    @Test
+    fun benchmark() {
+
+        for (target in arrayOf(CCTarget.SP, CCTarget.TT)) {
+            val converter = CCConverter.get(target)
+            val text = sample.repeat(2000)
+            measure("$target multi pass (${text.length} chars)", 50) { multiPass(converter, text) }
+            measure("$target fused (${text.length} chars)", 50) { converter.convert(text) }
+        }
+
+    }
+
+}
@@ -0,0 +1,68 @@
+package tw.nekomimi.nekogram.cc
+
+import android.text.SpannableStringBuilder
+import android.text.Spanned
+import android.text.style.StyleSpan
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class CCConverterTest {
+
+    private val sample = "头发发现了干燥的后台，这里面积很大，软件里的信息与网络鼠标一起出现。Telegram 消息 123 "
+
+    private fun multiPass(converter: CCConverter, input: String): String {
+        var result = input
+        for (trie in converter.tries) {
+            result = OpenCCUtil.segLongest(result.toCharArray(), trie)
+        }
+        return result
+    }
+
+    @Test
+    fun fusedMatchesMultiPass() {
+
+        for (target in CCTarget.values()) {
+            val converter = CCConverter.get(target)
+            for (text in listOf("", "abc", sample, sample.repeat(500))) {
+                assertEquals(multiPass(converter, text), converter.convert(text))
+            }
+        }
+
+    }
+
+    @Test
+    fun spansSurvive() {
+
+        val converter = CCConverter.get(CCTarget.TT)
+        val text = SpannableStringBuilder(sample)
+        val span = StyleSpan(0)
+        val start = sample.indexOf("软件")
+        val end = sample.indexOf("网络") + 2
+        text.setSpan(span, start, end, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE)
+
+        val result = converter.convert(text) as Spanned
+        val converted = converter.convert(sample.substring(start, end))
+        assertEquals(converted, result.subSequence(result.getSpanStart(span), result.getSpanEnd(span)).toString())
+        assertEquals(Spanned.SPAN_EXCLUSIVE_EXCLUSIVE, result.getSpanFlags(span))
+
+    }
+
+    @Test
+    fun spanInsideReplacedWordCoversReplacement() {
+
+        val converter = CCConverter.get(CCTarget.TT)
+        val text = SpannableStringBuilder("剪头发吧")
+        val span = StyleSpan(0)
+        text.setSpan(span, 1, 2, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE)
+
+        val result = converter.convert(text) as Spanned
+        assertEquals("剪頭髮吧", result.toString())
+        assertEquals("頭髮", result.subSequence(result.getSpanStart(span), result.getSpanEnd(span)).toString())
+        assertEquals(Spanned.SPAN_EXCLUSIVE_EXCLUSIVE, result.getSpanFlags(span))
+
+    }
+
+}
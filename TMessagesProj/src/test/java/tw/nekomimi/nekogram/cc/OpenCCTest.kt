@@ -1,13 +1,45 @@
 package tw.nekomimi.nekogram.cc
 
+import org.junit.Assert.assertEquals
+import org.junit.Rule
 import org.junit.Test
+import org.junit.rules.TemporaryFolder
 import org.junit.runner.RunWith
 import org.robolectric.RobolectricTestRunner
 import java.io.File
+import java.nio.ByteBuffer
 
 @RunWith(RobolectricTestRunner::class)
 class OpenCCTest {
 
+    @get:Rule
+    val temp = TemporaryFolder()
+
+    @Test
+    fun compiledTriesMatchDictionaries() {
+
+        val dictionaryDir = File("src/main/assets/dictionary")
+        val outDir = temp.newFolder("opencc")
+        OpenCCCompiler.compileAll(dictionaryDir, outDir)
+
+        val dictionaries = HashMap<String, Map<String, List<String>>>()
+        val loader = OpenCCCompiler.DictLoader { name ->
+            dictionaries.getOrPut(name) { OpenCCCompiler.readDict(File(dictionaryDir, "$name.txt").inputStream()) }
+        }
+        val sample = "汉字转换测试，軟體與硬體的記憶體。旧字体と新字体の漢字"
+
+        for (target in OpenCCCompiler.TARGETS) {
+            OpenCCCompiler.getTries(target).forEachIndexed { index, dicts ->
+                val built = OpenCCCompiler.build(dicts, loader)
+                val compiled = File(outDir, OpenCCCompiler.getCompiledName(target, index))
+                val loaded = AhoCorasickDoubleArrayTrie.loadBinary(ByteBuffer.wrap(compiled.readBytes()))
+                assertEquals(built.size(), loaded.size())
+                assertEquals(OpenCCUtil.convert(sample, listOf(built)).toString(), OpenCCUtil.convert(sample, listOf(loaded)).toString())
+            }
+        }
+
+    }
+
     @Test
     fun ccTest() {
 
@@ -0,0 +1,157 @@
+package tw.nekomimi.nekogram.sub
+
+import com.sun.net.httpserver.HttpServer
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+import java.net.InetSocketAddress
+
+class SubFetcherTest {
+
+    private lateinit var server: HttpServer
+
+    @Volatile
+    private var body = "a\nb\nc"
+    private var requests = 0
+    private var sentBytes = 0L
+
+    @Before
+    fun setUp() {
+        server = HttpServer.create(InetSocketAddress("127.0.0.1", 0), 0).apply {
+            createContext("/list") { exchange ->
+                requests++
+                val content = body.toByteArray()
+                val etag = "\"${body.hashCode()}\""
+                exchange.responseHeaders.add("ETag", etag)
+                if (exchange.requestHeaders.getFirst("If-None-Match") == etag) {
+                    exchange.sendResponseHeaders(304, -1)
+                } else {
+                    exchange.sendResponseHeaders(200, content.size.toLong())
+                    exchange.responseBody.write(content)
+                    sentBytes += content.size
+                }
+                exchange.close()
+            }
+            createContext("/stale") { exchange ->
+                val content = "x\ny".toByteArray()
+                exchange.responseHeaders.add("ETag", "\"stale\"")
+                exchange.sendResponseHeaders(200, content.size.toLong())
+                exchange.responseBody.write(content)
+                exchange.close()
+            }
+            createContext("/garbage") { exchange ->
+                val content = "garbage".toByteArray()
+                exchange.sendResponseHeaders(200, content.size.toLong())
+                exchange.responseBody.write(content)
+                exchange.close()
+            }
+            createContext("/broken") { exchange ->
+                exchange.sendResponseHeaders(500, -1)
+                exchange.close()
+            }
+            start()
+        }
+    }
+
+    @After
+    fun tearDown() {
+        server.stop(0)
+    }
+
+    private fun url(path: String) = "http://127.0.0.1:${server.address.port}$path"
+
+    private fun refresh(sub: SubInfo) = SubFetcher.refresh(sub) {
+        if (it == "garbage") error("malformed list")
+        it.lines().filter { line -> line.isNotBlank() }
+    }
+
+    @Test
+    fun testConditionalRefresh() {
+
+        val sub = SubInfo().apply { urls = listOf(url("/list")) }
+
+        val first = refresh(sub)
+        assertEquals(listOf("a", "b", "c"), first.added)
+        assertTrue(first.dirty)
+        assertEquals(listOf("a", "b", "c"), sub.proxies)
+
+        val bytes = sentBytes
+        val second = refresh(sub)
+        assertFalse(second.changed)
+        assertFalse(second.dirty)
+        assertEquals(bytes, sentBytes)
+
+        body = "b\nc\nd"
+        val third = refresh(sub)
+        assertEquals(listOf("d"), third.added)
+        assertEquals(listOf("a"), third.removed)
+        assertEquals(listOf("b", "c", "d"), sub.proxies)
+
+        assertEquals(3, requests)
+
+    }
+
+    @Test
+    fun testFallback() {
+
+        val sub = SubInfo().apply { urls = listOf(url("/broken"), url("/list")) }
+
+        val update = refresh(sub)
+        assertEquals(listOf("a", "b", "c"), update.added)
+
+        sub.urls = listOf(url("/broken"))
+        try {
+            refresh(sub)
+            fail()
+        } catch (e: SubInfo.AllTriesFailed) {
+            assertEquals(1, e.exceptions.size)
+        }
+
+    }
+
+    @Test
+    fun testOtherSourceReplaces() {
+
+        val sub = SubInfo().apply { urls = listOf(url("/list")) }
+        refresh(sub)
+        assertEquals(url("/list"), sub.source)
+
+        // a stale mirror answered first, its list replaces the current one
+        sub.urls = listOf(url("/stale"))
+        val stale = refresh(sub)
+        assertEquals(listOf("x", "y"), stale.added)
+        assertEquals(listOf("a", "b", "c"), stale.removed)
+        assertEquals(url("/stale"), sub.source)
+
+        // back on the original url its validators are not sent, so the full list comes back
+        sub.urls = listOf(url("/list"))
+        val bytes = sentBytes
+        val update = refresh(sub)
+        assertTrue(sentBytes > bytes)
+        assertEquals(listOf("a", "b", "c"), sub.proxies)
+        assertEquals(listOf("a", "b", "c"), update.added)
+        assertEquals(url("/list"), sub.source)
+
+    }
+
+    @Test
+    fun testParseFailureFallsBack() {
+
+        val sub = SubInfo().apply { urls = listOf(url("/garbage"), url("/list")) }
+
+        val update = refresh(sub)
+        assertEquals(listOf("a", "b", "c"), update.added)
+        assertEquals(url("/list"), sub.source)
+
+        sub.urls = listOf(url("/garbage"))
+        try {
+            refresh(sub)
+            fail()
+        } catch (e: SubInfo.AllTriesFailed) {
+            assertEquals("malformed list", e.exceptions[url("/garbage")]?.message)
+        }
+
+    }
+
+}
@@ -0,0 +1,129 @@
+package tw.nekomimi.nekogram.transtale
+
+import kotlinx.coroutines.*
+import org.junit.Assert.*
+import org.junit.Test
+import java.util.*
+import java.util.concurrent.atomic.AtomicInteger
+
+class TranslationSchedulerTest {
+
+    private class FakeProvider(
+            override val maxBatchSize: Int,
+            override val maxConcurrency: Int,
+            private val latencyMillis: Long = 20L
+    ) : TranslationScheduler.Provider {
+
+        val calls = AtomicInteger()
+        val items = AtomicInteger()
+        val running = AtomicInteger()
+        val maxRunning = AtomicInteger()
+        val cancelled = AtomicInteger()
+
+        override suspend fun translate(to: Locale, queries: List<String>): List<String> {
+            calls.incrementAndGet()
+            items.addAndGet(queries.size)
+            val now = running.incrementAndGet()
+            maxRunning.accumulateAndGet(now) { a, b -> maxOf(a, b) }
+            try {
+                delay(latencyMillis)
+                if (queries.any { it.startsWith("fail") }) error("provider failure")
+                return queries.map { "${to.language}:$it" }
+            } catch (e: CancellationException) {
+                cancelled.incrementAndGet()
+                throw e
+            } finally {
+                running.decrementAndGet()
+            }
+        }
+
+    }
+
+    @Test
+    fun coalescesAndFansOut() = runBlocking {
+
+        val provider = FakeProvider(maxBatchSize = 8, maxConcurrency = 2)
+        val scheduler = TranslationScheduler(provider, this)
+
+        val queries = (0 until 30).map { "message ${it % 20}" }
+        val results = queries.map { async { scheduler.translate(Locale.GERMAN, it) } }.awaitAll()
+
+        assertEquals(queries.map { "de:$it" }, results)
+        assertEquals(20, provider.items.get())
+        assertEquals(10L, scheduler.coalescedCount)
+        assertTrue(provider.calls.get() <= 4)
+        assertTrue(provider.maxRunning.get() <= 2)
+
+    }
+
+    @Test
+    fun separatesLocalesAndPropagatesFailures() = runBlocking {
+
+        val provider = FakeProvider(maxBatchSize = 4, maxConcurrency = 4)
+        val scheduler = TranslationScheduler(provider, this)
+
+        val german = async { scheduler.translate(Locale.GERMAN, "hello") }
+        val french = async { scheduler.translate(Locale.FRENCH, "hello") }
+        val failed = async { runCatching { scheduler.translate(Locale.ITALIAN, "fail") } }
+
+        assertEquals("de:hello", german.await())
+        assertEquals("fr:hello", french.await())
+        assertEquals("provider failure", failed.await().exceptionOrNull()?.message)
+
+    }
+
+    @Test
+    fun batchesDistinctQueries() = runBlocking {
+
+        val count = 300
+        val provider = FakeProvider(maxBatchSize = 16, maxConcurrency = 4, latencyMillis = 5L)
+        val scheduler = TranslationScheduler(provider, this)
+
+        val results = (0 until count).map { async { scheduler.translate(Locale.GERMAN, "message $it") } }.awaitAll()
+
+        assertEquals((0 until count).map { "de:message $it" }, results)
+        assertEquals(count, provider.items.get())
+        assertTrue(provider.calls.get() < count / 4)
+        assertTrue(provider.maxRunning.get() <= 4)
+        assertEquals(provider.calls.get().toLong(), scheduler.batchCount)
+
+    }
+
+    @Test
+    fun cancelsBatchWithoutWaiters() = runBlocking {
+
+        val provider = FakeProvider(maxBatchSize = 4, maxConcurrency = 1, latencyMillis = 60_000L)
+        val scheduler = TranslationScheduler(provider, this)
+
+        val caller = launch { scheduler.translate(Locale.GERMAN, "hello") }
+
+        withTimeout(5_000L) { while (provider.running.get() == 0) delay(5L) }
+
+        caller.cancelAndJoin()
+
+        withTimeout(5_000L) { while (provider.running.get() != 0) delay(5L) }
+
+        assertEquals(1, provider.cancelled.get())
+
+    }
+
+    @Test
+    fun keepsBatchWhileAnotherCallerWaits() = runBlocking {
+
+        val provider = FakeProvider(maxBatchSize = 4, maxConcurrency = 1, latencyMillis = 200L)
+        val scheduler = TranslationScheduler(provider, this)
+
+        val first = async { scheduler.translate(Locale.GERMAN, "hello") }
+        val second = async { scheduler.translate(Locale.GERMAN, "hello") }
+
+        withTimeout(5_000L) { while (provider.running.get() == 0) delay(5L) }
+
+        first.cancelAndJoin()
+
+        assertEquals("de:hello", second.await())
+        assertEquals(0, provider.cancelled.get())
+        assertEquals(1, provider.calls.get())
+
+    }
+
+}